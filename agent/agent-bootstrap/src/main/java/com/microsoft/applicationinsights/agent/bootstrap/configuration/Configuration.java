@@ -59,9 +59,19 @@ public class Configuration {
         insert, update, delete, hash
     }
 
+    public enum ProcessorHashAlgorithm {
+        //Moshi JSON builder donot allow case insensitive mapping
+        sha1, hmacSha256, fnv1a64
+    }
+
     public enum ProcessorType {
         //Moshi JSON builder donot allow case insensitive mapping
-        attribute, log, span
+        attribute, log, span, filter
+    }
+
+    public enum ExportQueueDropPolicy {
+        //Moshi JSON builder donot allow case insensitive mapping
+        dropNewest, dropOldest
     }
 
     public static class Role {
@@ -98,6 +108,176 @@ public class Configuration {
         public boolean developerMode;
         public List<ProcessorConfig> processors = new ArrayList<>();
         public boolean openTelemetryApiSupport;
+        public ExportQueue exportQueue = new ExportQueue();
+        public AdaptiveSampling adaptiveSampling = new AdaptiveSampling();
+        // the first matching rule applies, spans which do not match any rule use sampling.percentage
+        public List<SamplingRule> samplingRules = new ArrayList<>();
+        public TailSampling tailSampling = new TailSampling();
+        public MetricPreAggregation metricPreAggregation = new MetricPreAggregation();
+        public StandardMetrics standardMetrics = new StandardMetrics();
+        public DependencyAggregation dependencyAggregation = new DependencyAggregation();
+        public LatencyPercentilesConfig latencyPercentiles = new LatencyPercentilesConfig();
+        public ExceptionDeduplication exceptionDeduplication = new ExceptionDeduplication();
+        // stack frames beyond this many per exception are dropped from exceptions which are captured from logs
+        // and from spans, and the exception is then marked as not having its full stack
+        public int maxExceptionStackFrames = 100;
+        public LogCaptureLimits logCaptureLimits = new LogCaptureLimits();
+        // request and dependency telemetry created from spans are reset and reused once they have been sent,
+        // up to this many of each are kept for reuse (0 disables reuse)
+        public int telemetryPoolSize;
+    }
+
+    public static class LogCaptureLimits {
+
+        // each captured log event is matched to the entry with the longest matching logger name prefix
+        public List<LoggerLimit> loggers = new ArrayList<>();
+        // how often the number of log messages which were over the rate limits is reported
+        public int reportIntervalSeconds = 60;
+    }
+
+    public static class LoggerLimit {
+
+        // the empty prefix matches all loggers
+        public String loggerNamePrefix = "";
+        // e.g. "WARN", this can only raise the logging threshold of the "logging" instrumentation, not lower it
+        public String threshold;
+        // zero for no rate limit
+        public double maxPerSecond;
+        // zero for one second worth of log messages
+        public int burst;
+    }
+
+    public static class ExceptionDeduplication {
+
+        // when enabled, exceptions with the same type and top stack frames are only tracked in full
+        // maxPerWindow times per window, the other occurrences are sent as one summary item per window
+        public boolean enabled;
+        public int windowSeconds = 60;
+        public int maxPerWindow = 10;
+        // exceptions beyond this many distinct fingerprints per window are always tracked in full
+        public int maxFingerprints = 1000;
+        public int topFrames = 5;
+    }
+
+    public static class LatencyPercentilesConfig {
+
+        // when enabled, p50, p95 and p99 of the request durations (per operation name)
+        // and of the dependency durations (per type and target) are sent as metrics every interval
+        public boolean enabled;
+        public int intervalSeconds = 60;
+        // durations for new series beyond this are recorded into one overflow series per metric name
+        public int maxSeries = 1000;
+    }
+
+    public static class DependencyAggregation {
+
+        // dependency types whose successful, fast calls are aggregated per operation, e.g. "SQL" or "redis",
+        // empty disables dependency aggregation
+        // an aggregated item has the mean duration of its calls, and the number of calls is encoded in its
+        // sampling percentage, so the portal counts it as that many calls
+        public List<String> types = new ArrayList<>();
+        // calls which take longer than this are still exported individually
+        public long maxDurationMillis = 100;
+        // aggregated calls are exported after this long even if their request has not been exported
+        public int maxAgeSeconds = 10;
+    }
+
+    public static class StandardMetrics {
+
+        // when enabled, request and dependency metrics are extracted from every span before sampling,
+        // and sent as one aggregated metric per series per minute
+        //
+        // the metrics are extracted on the threads which end the spans, ahead of the export queue, so only the sampled
+        // spans are queued, and the spans which are dropped because the export queue is full are still counted
+        public boolean enabled;
+        // spans for new series beyond this are aggregated into one overflow series per metric name
+        public int maxSeries = 1000;
+    }
+
+    public static class MetricPreAggregation {
+
+        // when enabled, individual measurements tracked through the 2.x SDK trackMetric
+        // are sent as one aggregated metric per series per interval
+        public boolean enabled;
+        public int intervalSeconds = 60;
+        // measurements for new series beyond this are aggregated into one overflow series per metric name
+        public int maxSeries = 1000;
+    }
+
+    public static class TailSampling {
+
+        // the tail sampler only sees the spans which are sampled when they start, so when it is enabled the
+        // sampling percentage and adaptive sampling are ignored and every span is recorded (sampling rules still
+        // apply), which costs the recording of every span and buffering up to maxBufferedSpans of them until their
+        // trace has been decided
+        //
+        // this also means that:
+        // * every outgoing traceparent header carries the sampled flag (sampled=1), since every span is sampled
+        //   when it starts, so downstream services which honor the flag keep every trace
+        // * the telemetry tracked through the 2.x SDK is not sampled at all, since it does not go through the tail
+        //   sampler and the sampling percentage is ignored
+        public boolean enabled;
+        // traces without an error or a slow span are kept at this percentage
+        public double percentage = 10;
+        public long latencyThresholdMillis = 1000;
+        // traces are decided after this long even if their local root has not ended
+        public int decisionTimeoutSeconds = 30;
+        // the oldest traces are decided early when more spans than this are buffered
+        public int maxBufferedSpans = 10000;
+    }
+
+    public static class AdaptiveSampling {
+
+        // 0 disables adaptive sampling, in which case sampling.percentage is used as is,
+        // otherwise sampling.percentage is the maximum sampling percentage
+        public double maxItemsPerSecond;
+        public int evaluationIntervalSeconds = 15;
+    }
+
+    public enum SamplingRuleSpanKind {
+        //Moshi JSON builder donot allow case insensitive mapping
+        server, client, producer, consumer, internal
+    }
+
+    public static class SamplingRule {
+
+        // all of the given criteria must match for the rule to apply
+        public List<String> spanNames;
+        public ProcessorMatchType matchType = ProcessorMatchType.strict;
+        public SamplingRuleSpanKind kind;
+        public List<ProcessorAttribute> attributes;
+
+        // fixed sampling percentage, or maximum sampling percentage when maxItemsPerSecond is set
+        public Double percentage;
+        public double maxItemsPerSecond;
+
+        public void validate() {
+            if (percentage == null && maxItemsPerSecond <= 0) {
+                throw new ConfigurationException("User provided config has invalid sampling rule with no percentage or no maxItemsPerSecond!!!");
+            }
+            if (percentage != null && (percentage < 0 || percentage > 100)) {
+                throw new ConfigurationException("User provided config has invalid sampling rule with percentage outside of 0 to 100!!!");
+            }
+            if (spanNames != null && matchType == ProcessorMatchType.regexp) {
+                for (String spanName : spanNames) {
+                    ProcessorConfig.isValidRegex(spanName);
+                }
+            }
+            if (attributes != null) {
+                for (ProcessorAttribute attribute : attributes) {
+                    if (attribute.key == null || attribute.key.isEmpty()) {
+                        throw new ConfigurationException("User provided config has invalid sampling rule with attribute which has empty key!!!");
+                    }
+                }
+            }
+        }
+    }
+
+    public static class ExportQueue {
+
+        public int maxQueueSize = 2048;
+        public int maxExportBatchSize = 512;
+        public ExportQueueDropPolicy dropPolicy = ExportQueueDropPolicy.dropNewest;
     }
 
     public static class SelfDiagnostics {
@@ -142,6 +322,7 @@ public class Configuration {
             }
             validateAttributeProcessorConfig();
             validateLogOrSpanProcessorConfig();
+            validateFilterProcessorConfig();
         }
 
         public void validateAttributeProcessorConfig() {
@@ -163,6 +344,13 @@ public class Configuration {
                 name.validate();
             }
         }
+
+        public void validateFilterProcessorConfig() {
+            if (type == ProcessorType.filter && include == null) {
+                // otherwise every span would be dropped
+                throw new ConfigurationException("User provided config has invalid filter processor configuration with empty include!!!");
+            }
+        }
     }
 
     public static class NameConfig {
@@ -180,11 +368,17 @@ public class Configuration {
 
     public static class ToAttributeConfig {
         public List<String> rules;
+        // maximum number of distinct span names whose rewritten name and extracted attributes are cached,
+        // 0 disables the cache
+        public int maxCachedSpanNames = 1000;
 
         public void validate() {
             if(rules==null || rules.isEmpty()) {
                 throw new ConfigurationException("User provided config has invalid toAttribute value with no rules!!!");
             }
+            if (maxCachedSpanNames < 0) {
+                throw new ConfigurationException("User provided config has invalid toAttribute value with negative maxCachedSpanNames!!!");
+            }
             for (String rule : rules) {
                 ProcessorConfig.isValidRegex(rule);
             }
@@ -216,7 +410,8 @@ public class Configuration {
             switch(processorType) {
                 case attribute: validAttributeProcessorIncludeExclude(); break;
                 case log : validateLogProcessorIncludeExclude(); break;
-                case span: validateSpanProcessorIncludeExclude();
+                case span:
+                case filter: validateSpanProcessorIncludeExclude(); break;
                 default: break;
             }
 
@@ -268,6 +463,10 @@ public class Configuration {
         public ProcessorActionType action;
         public String value;
         public String fromAttribute;
+        // only used by the hash action, defaults to sha1
+        public ProcessorHashAlgorithm hashAlgorithm;
+        // secret key for the hmacSha256 hash algorithm
+        public String hashKey;
 
         public void validate() {
 
@@ -282,6 +481,9 @@ public class Configuration {
                         throw new ConfigurationException("User provided config has invalid action with empty value or empty fromAttribute!!!");
                     }
                 }
+                if (this.hashAlgorithm == ProcessorHashAlgorithm.hmacSha256 && (this.hashKey == null || this.hashKey.isEmpty())) {
+                    throw new ConfigurationException("User provided config has invalid action with hmacSha256 hashAlgorithm and empty hashKey!!!");
+                }
         }
     }
 
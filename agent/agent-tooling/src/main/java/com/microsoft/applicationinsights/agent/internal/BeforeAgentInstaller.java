@@ -32,11 +32,17 @@ import java.util.concurrent.CountDownLatch;
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.agent.AsyncExporter;
+import com.microsoft.applicationinsights.agent.StandardMetricsExporter;
 import com.microsoft.applicationinsights.agent.bootstrap.BytecodeUtil;
 import com.microsoft.applicationinsights.agent.bootstrap.MainEntryPoint;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ExceptionDeduplication;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.JmxMetric;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.LatencyPercentilesConfig;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.MetricPreAggregation;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorConfig;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.SamplingRule;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.ConfigurationBuilder.ConfigurationException;
 import com.microsoft.applicationinsights.agent.bootstrap.diagnostics.DiagnosticsHelper;
 import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.ApplicationInsightsAppenderClassFileTransformer;
@@ -47,6 +53,7 @@ import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.Perf
 import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.QuickPulseClassFileTransformer;
 import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.TelemetryClientClassFileTransformer;
 import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.WebRequestTrackingFilterClassFileTransformer;
+import com.microsoft.applicationinsights.agent.internal.sampling.Samplers;
 import com.microsoft.applicationinsights.agent.internal.sampling.SamplingPercentage;
 import com.microsoft.applicationinsights.common.CommonUtils;
 import com.microsoft.applicationinsights.extensibility.initializer.ResourceAttributesContextInitializer;
@@ -58,6 +65,9 @@ import com.microsoft.applicationinsights.internal.config.JmxXmlElement;
 import com.microsoft.applicationinsights.internal.config.ParamXmlElement;
 import com.microsoft.applicationinsights.internal.config.TelemetryConfigurationFactory;
 import com.microsoft.applicationinsights.internal.config.TelemetryModulesXmlElement;
+import com.microsoft.applicationinsights.internal.exceptions.ExceptionAggregator;
+import com.microsoft.applicationinsights.internal.metrics.LatencyPercentiles;
+import com.microsoft.applicationinsights.internal.metrics.MetricAggregator;
 import com.microsoft.applicationinsights.internal.system.SystemInformation;
 import com.microsoft.applicationinsights.internal.util.PropertyHelper;
 import com.microsoft.applicationinsights.web.internal.correlation.CdsProfileFetcher;
@@ -113,6 +123,7 @@ public class BeforeAgentInstaller {
         }
         // Function to validate user provided processor configuration
         validateProcessorConfiguration(config);
+        validateSamplingRules(config);
 
 
         Map<String, String> properties = new HashMap<>();
@@ -166,9 +177,26 @@ public class BeforeAgentInstaller {
         configuration.getContextInitializers().add(new SdkVersionContextInitializer());
         configuration.getContextInitializers().add(new ResourceAttributesContextInitializer(config.customDimensions));
 
-        Global.setSamplingPercentage(SamplingPercentage.roundToNearest(config.sampling.percentage));
+        Global.setSamplingPercentage(Samplers.getGlobalSamplingPercentage(
+                SamplingPercentage.roundToNearest(config.sampling.percentage), config.preview));
         final TelemetryClient telemetryClient = new TelemetryClient();
         Global.setTelemetryClient(telemetryClient);
+        MetricPreAggregation metricPreAggregation = config.preview.metricPreAggregation;
+        if (metricPreAggregation.enabled) {
+            MetricAggregator.INSTANCE.enable(telemetryClient, metricPreAggregation.intervalSeconds,
+                    metricPreAggregation.maxSeries);
+        }
+        LatencyPercentilesConfig latencyPercentiles = config.preview.latencyPercentiles;
+        if (latencyPercentiles.enabled) {
+            LatencyPercentiles.INSTANCE.enable(telemetryClient, latencyPercentiles.intervalSeconds,
+                    latencyPercentiles.maxSeries);
+        }
+        ExceptionDeduplication exceptionDeduplication = config.preview.exceptionDeduplication;
+        if (exceptionDeduplication.enabled) {
+            ExceptionAggregator.INSTANCE.enable(telemetryClient, exceptionDeduplication.windowSeconds,
+                    exceptionDeduplication.maxPerWindow, exceptionDeduplication.maxFingerprints,
+                    exceptionDeduplication.topFrames);
+        }
         AiAppId.setSupplier(new AppIdSupplier());
 
         // this is for Azure Function Linux consumption plan support.
@@ -183,6 +211,18 @@ public class BeforeAgentInstaller {
             public void run() {
                 startupLogger.debug("running shutdown hook");
                 try {
+                    // spans which have not been converted into telemetry yet need to reach the channel first
+                    AsyncExporter asyncExporter = Global.getAsyncExporter();
+                    if (asyncExporter != null) {
+                        asyncExporter.flush();
+                    }
+                    StandardMetricsExporter standardMetricsExporter = Global.getStandardMetricsExporter();
+                    if (standardMetricsExporter != null) {
+                        standardMetricsExporter.flushMetrics();
+                    }
+                    MetricAggregator.INSTANCE.flush();
+                    LatencyPercentiles.INSTANCE.flush();
+                    ExceptionAggregator.INSTANCE.flush();
                     telemetryClient.flush();
                     telemetryClient.shutdown(5, SECONDS);
                     startupLogger.debug("completed shutdown hook");
@@ -207,6 +247,12 @@ public class BeforeAgentInstaller {
         }
     }
 
+    private static void validateSamplingRules(Configuration config) {
+        for (SamplingRule samplingRule : config.preview.samplingRules) {
+            samplingRule.validate();
+        }
+    }
+
     @Nullable
     private static String getCodelessSdkNamePrefix() {
         StringBuilder sdkNamePrefix = new StringBuilder(4);
@@ -1,6 +1,8 @@
 package com.microsoft.applicationinsights.agent.internal;
 
 import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.agent.AsyncExporter;
+import com.microsoft.applicationinsights.agent.StandardMetricsExporter;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class Global {
@@ -10,12 +12,30 @@ public class Global {
 
     private static volatile double samplingPercentage = 100;
 
+    @Nullable
+    private static volatile AsyncExporter asyncExporter;
+
+    @Nullable
+    private static volatile StandardMetricsExporter standardMetricsExporter;
+
     // this can be null if agent failed during startup
     @Nullable
     public static TelemetryClient getTelemetryClient() {
         return telemetryClient;
     }
 
+    // this can be null if the tracer has not been installed (yet)
+    @Nullable
+    public static AsyncExporter getAsyncExporter() {
+        return asyncExporter;
+    }
+
+    // this is null if standard metrics are not enabled, or if the tracer has not been installed (yet)
+    @Nullable
+    public static StandardMetricsExporter getStandardMetricsExporter() {
+        return standardMetricsExporter;
+    }
+
     public static double getSamplingPercentage() {
         return samplingPercentage;
     }
@@ -27,4 +47,12 @@ public class Global {
     public static void setSamplingPercentage(double samplingPercentage) {
         Global.samplingPercentage = samplingPercentage;
     }
+
+    public static void setAsyncExporter(AsyncExporter asyncExporter) {
+        Global.asyncExporter = asyncExporter;
+    }
+
+    public static void setStandardMetricsExporter(StandardMetricsExporter standardMetricsExporter) {
+        Global.standardMetricsExporter = standardMetricsExporter;
+    }
 }
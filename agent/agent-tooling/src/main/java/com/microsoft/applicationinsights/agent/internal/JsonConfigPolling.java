@@ -95,9 +95,10 @@ public class JsonConfigPolling implements Runnable {
                     double roundedSamplingPercentage = SamplingPercentage.roundToNearest(configuration.sampling.percentage);
                     OpenTelemetrySdk.getGlobalTracerManagement().updateActiveTraceConfig(
                             OpenTelemetrySdk.getGlobalTracerManagement().getActiveTraceConfig().toBuilder()
-                                    .setSampler(Samplers.getSampler(roundedSamplingPercentage))
+                                    .setSampler(Samplers.getSampler(roundedSamplingPercentage, configuration.preview))
                                     .build());
-                    Global.setSamplingPercentage(roundedSamplingPercentage);
+                    Global.setSamplingPercentage(
+                            Samplers.getGlobalSamplingPercentage(roundedSamplingPercentage, configuration.preview));
                     lastReadSamplingPercentage = configuration.sampling.percentage;
                 }
             }
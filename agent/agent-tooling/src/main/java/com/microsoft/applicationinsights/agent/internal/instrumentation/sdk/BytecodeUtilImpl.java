@@ -30,6 +30,8 @@ import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.agent.internal.Global;
 import com.microsoft.applicationinsights.agent.bootstrap.BytecodeUtil.BytecodeUtilDelegate;
 import com.microsoft.applicationinsights.agent.internal.sampling.SamplingScoreGeneratorV2;
+import com.microsoft.applicationinsights.internal.exceptions.ExceptionAggregator;
+import com.microsoft.applicationinsights.internal.metrics.MetricAggregator;
 import com.microsoft.applicationinsights.internal.util.MapUtil;
 import com.microsoft.applicationinsights.telemetry.Duration;
 import com.microsoft.applicationinsights.telemetry.EventTelemetry;
@@ -82,6 +84,11 @@ public class BytecodeUtilImpl implements BytecodeUtilDelegate {
         if (Strings.isNullOrEmpty(name)) {
             return;
         }
+        if (count == null && min == null && max == null && stdDev == null && MetricAggregator.INSTANCE.isEnabled()) {
+            // a single measurement, which is sent as part of the aggregated metric at the end of the interval
+            MetricAggregator.INSTANCE.record(name, properties, value);
+            return;
+        }
         MetricTelemetry telemetry = new MetricTelemetry();
         telemetry.setName(name);
         telemetry.setValue(value);
@@ -179,12 +186,22 @@ public class BytecodeUtilImpl implements BytecodeUtilDelegate {
         }
 
         ExceptionTelemetry telemetry = new ExceptionTelemetry();
+        if (!setOperationAndSample(telemetry)) {
+            return;
+        }
+        // only the exceptions which are sampled are counted, so that the first ones per window are tracked in full
+        // and the summary item counts the ones which were suppressed instead of sent
+        if (ExceptionAggregator.INSTANCE.isEnabled() && !ExceptionAggregator.INSTANCE.shouldTrack(exception)) {
+            // counted towards the summary item of its fingerprint instead
+            return;
+        }
         telemetry.setException(exception);
         telemetry.setSeverityLevel(SeverityLevel.Error);
         MapUtil.copy(properties, telemetry.getProperties());
         MapUtil.copy(metrics, telemetry.getMetrics());
 
-        track(telemetry);
+        // this is not null because sdk instrumentation is not added until Global.setTelemetryClient() is called
+        checkNotNull(Global.getTelemetryClient()).track(telemetry);
     }
 
     private SeverityLevel getSeverityLevel(int value) {
@@ -204,6 +221,14 @@ public class BytecodeUtilImpl implements BytecodeUtilDelegate {
     }
 
     private static void track(Telemetry telemetry) {
+        if (setOperationAndSample(telemetry)) {
+            // this is not null because sdk instrumentation is not added until Global.setTelemetryClient() is called
+            checkNotNull(Global.getTelemetryClient()).track(telemetry);
+        }
+    }
+
+    // returns false if the telemetry is sampled out
+    private static boolean setOperationAndSample(Telemetry telemetry) {
         SpanContext context = Span.current().getSpanContext();
         if (context.isValid()) {
             String traceId = context.getTraceIdAsHexString();
@@ -212,13 +237,13 @@ public class BytecodeUtilImpl implements BytecodeUtilDelegate {
             telemetry.getContext().getOperation().setParentId(spanId);
         }
         double samplingPercentage = Global.getSamplingPercentage();
-        if (sample(telemetry, samplingPercentage)) {
-            if (telemetry instanceof SupportSampling && samplingPercentage != 100) {
-                ((SupportSampling) telemetry).setSamplingPercentage(samplingPercentage);
-            }
-            // this is not null because sdk instrumentation is not added until Global.setTelemetryClient() is called
-            checkNotNull(Global.getTelemetryClient()).track(telemetry);
+        if (!sample(telemetry, samplingPercentage)) {
+            return false;
         }
+        if (telemetry instanceof SupportSampling && samplingPercentage != 100) {
+            ((SupportSampling) telemetry).setSamplingPercentage(samplingPercentage);
+        }
+        return true;
     }
 
     private static boolean sample(Telemetry telemetry, double samplingPercentage) {
@@ -1,17 +1,20 @@
 package com.microsoft.applicationinsights.agent.internal.processors;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorAttribute;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorIncludeExclude;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorMatchType;
 import io.opentelemetry.api.common.AttributeKey;
-import io.opentelemetry.sdk.trace.data.SpanData;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public abstract class AgentProcessor {
@@ -36,20 +39,42 @@ public abstract class AgentProcessor {
         return exclude;
     }
 
+    // Applies this processor to the span, unless the span is not included or is excluded
+    public void process(ProcessedSpan span) {
+        if (include != null && !include.isMatch(span)) {
+            //If Not included we can skip further processing
+            return;
+        }
+        if (exclude != null && exclude.isMatch(span)) {
+            return;
+        }
+        processActions(span);
+    }
+
+    protected abstract void processActions(ProcessedSpan span);
+
     public static abstract class IncludeExclude {
         // Function to compare span with user provided span names or span patterns
-        public abstract boolean isMatch(SpanData span);
+        public abstract boolean isMatch(ProcessedSpan span);
 
     }
 
     // ok to have this class cover both spanNames and logNames
     public static class StrictIncludeExclude extends IncludeExclude {
-        private final List<ProcessorAttribute> attributes;
-        private final List<String> spanNames;
+        // attribute keys are built once here instead of on every span
+        private final AttributeKey<String>[] attributeKeys;
+        private final @Nullable String[] attributeValues;
+        private final Set<String> spanNames;
 
         public StrictIncludeExclude(List<ProcessorAttribute> attributes, List<String> spanNames) {
-            this.attributes = attributes;
-            this.spanNames = spanNames;
+            this.attributeKeys = newAttributeKeyArray(attributes.size());
+            this.attributeValues = new String[attributes.size()];
+            for (int i = 0; i < attributes.size(); i++) {
+                ProcessorAttribute attribute = attributes.get(i);
+                attributeKeys[i] = AttributeKey.stringKey(attribute.key);
+                attributeValues[i] = attribute.value;
+            }
+            this.spanNames = new HashSet<>(spanNames);
         }
 
         public static StrictIncludeExclude create(ProcessorIncludeExclude includeExclude) {
@@ -65,7 +90,7 @@ public abstract class AgentProcessor {
         }
 
         // Function to compare span with user provided span names
-        public boolean isMatch(SpanData span) {
+        public boolean isMatch(ProcessedSpan span) {
             if (!spanNames.isEmpty() && !spanNames.contains(span.getName())) {
                 // span name doesn't match
                 return false;
@@ -74,18 +99,16 @@ public abstract class AgentProcessor {
         }
 
         // Function to compare span with user provided attributes list
-        private boolean checkAttributes(SpanData span) {
-            for (ProcessorAttribute attribute : attributes) {
+        private boolean checkAttributes(ProcessedSpan span) {
+            for (int i = 0; i < attributeKeys.length; i++) {
                 //All of these attributes must match exactly for a match to occur.
-                Object existingAttributeValue = span.getAttributes().get(AttributeKey.stringKey(attribute.key));
-                // to get the string value
-                //existingAttributeValue.toString()
-                //String.valueOf(existingAttributeValue);
-                if (!(existingAttributeValue instanceof String)) {
+                String existingAttributeValue = span.getStringAttribute(attributeKeys[i]);
+                if (existingAttributeValue == null) {
                     // user specified key not found
                     return false;
                 }
-                if (attribute.value != null && !((String)existingAttributeValue).equals(attribute.value)) {
+                String attributeValue = attributeValues[i];
+                if (attributeValue != null && !existingAttributeValue.equals(attributeValue)) {
                     // user specified value doesn't match
                     return false;
                 }
@@ -97,20 +120,49 @@ public abstract class AgentProcessor {
 
     public static class RegexpIncludeExclude extends IncludeExclude {
 
+        // span names are typically low-cardinality (e.g. route templates), so the result of matching them against
+        // the span patterns is cached, up to this many distinct span names
+        static final int MAX_CACHED_SPAN_NAMES = 1000;
+
+        // flags and back references can change meaning when the patterns are combined into a single alternation
+        private static final Pattern UNSAFE_TO_COMBINE = Pattern.compile("\\\\[0-9k]|\\(\\?[a-zA-Z-]");
+
         private final List<Pattern> spanPatterns;
-        private final Map<AttributeKey<?>, Pattern> attributeValuePatterns;
+        // all of the span patterns combined into a single alternation, or null if they could not be combined
+        private final @Nullable Pattern combinedSpanPattern;
+        private final @Nullable Map<String, Boolean> spanNameMatchCache;
+        private final int maxCachedSpanNames;
+        private final AttributeKey<String>[] attributeKeys;
+        private final Pattern[] attributeValuePatterns;
+
+        public RegexpIncludeExclude(List<Pattern> spanPatterns, Map<String, Pattern> attributeValuePatterns) {
+            this(spanPatterns, attributeValuePatterns, MAX_CACHED_SPAN_NAMES);
+        }
 
-        public RegexpIncludeExclude(List<Pattern> spanPatterns, Map<AttributeKey<?>, Pattern> attributeValuePatterns) {
+        // a maxCachedSpanNames of zero disables the span name cache
+        public RegexpIncludeExclude(List<Pattern> spanPatterns, Map<String, Pattern> attributeValuePatterns,
+                                    int maxCachedSpanNames) {
             this.spanPatterns = spanPatterns;
-            this.attributeValuePatterns = attributeValuePatterns;
+            this.combinedSpanPattern = combine(spanPatterns);
+            this.spanNameMatchCache = maxCachedSpanNames > 0 && !spanPatterns.isEmpty()
+                    ? new ConcurrentHashMap<String, Boolean>() : null;
+            this.maxCachedSpanNames = maxCachedSpanNames;
+            this.attributeKeys = newAttributeKeyArray(attributeValuePatterns.size());
+            this.attributeValuePatterns = new Pattern[attributeValuePatterns.size()];
+            int i = 0;
+            for (Entry<String, Pattern> entry : attributeValuePatterns.entrySet()) {
+                this.attributeKeys[i] = AttributeKey.stringKey(entry.getKey());
+                this.attributeValuePatterns[i] = entry.getValue();
+                i++;
+            }
         }
 
         public static RegexpIncludeExclude create(ProcessorIncludeExclude includeExclude) {
             List<ProcessorAttribute> attributes = includeExclude.attributes;
-            Map<AttributeKey<?>, Pattern> attributeKeyValuePatterns = new HashMap<>();
+            Map<String, Pattern> attributeKeyValuePatterns = new LinkedHashMap<>();
             if (attributes != null) {
                 for (ProcessorAttribute attribute : attributes) {
-                    attributeKeyValuePatterns.put(AttributeKey.stringKey(attribute.key), Pattern.compile(attribute.value));
+                    attributeKeyValuePatterns.put(attribute.key, Pattern.compile(attribute.value));
                 }
             }
             List<Pattern> spanPatterns = new ArrayList<>();
@@ -123,14 +175,60 @@ public abstract class AgentProcessor {
             return new RegexpIncludeExclude(spanPatterns, attributeKeyValuePatterns);
         }
 
+        // a single alternation lets the regex engine try all of the patterns in one scan of the span name, instead
+        // of one scan per pattern
+        //
+        // returns null if the patterns cannot be combined safely, in which case they need to be tried one by one
+        // (also used for the span names of the sampling rules)
+        public static @Nullable Pattern combine(List<Pattern> patterns) {
+            if (patterns.size() < 2) {
+                return patterns.isEmpty() ? null : patterns.get(0);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Pattern pattern : patterns) {
+                if (pattern.flags() != 0 || UNSAFE_TO_COMBINE.matcher(pattern.pattern()).find()) {
+                    return null;
+                }
+                if (sb.length() > 0) {
+                    sb.append('|');
+                }
+                sb.append("(?:").append(pattern.pattern()).append(')');
+            }
+            try {
+                return Pattern.compile(sb.toString());
+            } catch (PatternSyntaxException e) {
+                // e.g. the same named group used in more than one pattern
+                return null;
+            }
+        }
+
         // Function to compare span attribute value with user provided value
         private static boolean isAttributeValueMatch(String attributeValue, Pattern valuePattern) {
             return valuePattern.matcher(attributeValue).find();
         }
 
-        private boolean isPatternFound(SpanData span) {
+        private boolean isPatternFound(ProcessedSpan span) {
+            String spanName = span.getName();
+            if (spanNameMatchCache == null) {
+                return isPatternFound(spanName);
+            }
+            Boolean cached = spanNameMatchCache.get(spanName);
+            if (cached != null) {
+                return cached;
+            }
+            boolean found = isPatternFound(spanName);
+            if (spanNameMatchCache.size() < maxCachedSpanNames) {
+                spanNameMatchCache.put(spanName, found);
+            }
+            return found;
+        }
+
+        private boolean isPatternFound(String spanName) {
+            if (combinedSpanPattern != null) {
+                return combinedSpanPattern.matcher(spanName).find();
+            }
             for (Pattern pattern : spanPatterns) {
-                if (pattern.matcher(span.getName()).find()) {
+                if (pattern.matcher(spanName).find()) {
                     // pattern matches the span!!!
                     return true;
                 }
@@ -140,7 +238,7 @@ public abstract class AgentProcessor {
         }
 
         // Function to compare span with user provided span patterns
-        public boolean isMatch(SpanData span) {
+        public boolean isMatch(ProcessedSpan span) {
             if (!spanPatterns.isEmpty() && !isPatternFound(span)) {
                 return false;
             }
@@ -148,15 +246,16 @@ public abstract class AgentProcessor {
         }
 
         // Function to compare span with user provided attributes list
-        private boolean checkAttributes(SpanData span) {
-            for (Entry<AttributeKey<?>, Pattern> attributeEntry : attributeValuePatterns.entrySet()) {
+        private boolean checkAttributes(ProcessedSpan span) {
+            for (int i = 0; i < attributeKeys.length; i++) {
                 //All of these attributes must match exactly for a match to occur.
-                Object existingAttributeValue = span.getAttributes().get(attributeEntry.getKey());
-                if (!(existingAttributeValue instanceof String)) {
+                String existingAttributeValue = span.getStringAttribute(attributeKeys[i]);
+                if (existingAttributeValue == null) {
                     // user specified key not found
                     return false;
                 }
-                if (attributeEntry.getValue() != null && !isAttributeValueMatch((String) existingAttributeValue, attributeEntry.getValue())) {
+                Pattern valuePattern = attributeValuePatterns[i];
+                if (valuePattern != null && !isAttributeValueMatch(existingAttributeValue, valuePattern)) {
                     // user specified value doesn't match
                     return false;
                 }
@@ -167,4 +266,8 @@ public abstract class AgentProcessor {
 
     }
 
+    @SuppressWarnings("unchecked")
+    private static AttributeKey<String>[] newAttributeKeyArray(int size) {
+        return (AttributeKey<String>[]) new AttributeKey<?>[size];
+    }
 }
@@ -0,0 +1,100 @@
+package com.microsoft.applicationinsights.agent.internal.processors;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorAction;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorHashAlgorithm;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+// hashes attribute values for the "hash" action
+//
+// the hashed attributes are typically user ids, tenant ids and similar, which repeat heavily across spans, so the
+// hashes are memoized in a bounded cache
+abstract class AttributeHasher {
+
+    static final int MAX_CACHED_HASHES = 1000;
+
+    private final LruCache<String, String> cache = new LruCache<>(MAX_CACHED_HASHES);
+
+    static AttributeHasher create(ProcessorAction action) {
+        ProcessorHashAlgorithm algorithm = action.hashAlgorithm == null ? ProcessorHashAlgorithm.sha1 : action.hashAlgorithm;
+        switch (algorithm) {
+            case hmacSha256:
+                return new HmacSha256(action.hashKey);
+            case fnv1a64:
+                return new Fnv1a64();
+            case sha1:
+            default:
+                return new Sha1();
+        }
+    }
+
+    String hash(String value) {
+        String hash = cache.get(value);
+        if (hash == null) {
+            hash = computeHash(value);
+            cache.put(value, hash);
+        }
+        return hash;
+    }
+
+    LruCache<String, String> getCache() {
+        return cache;
+    }
+
+    abstract String computeHash(String value);
+
+    private static class Sha1 extends AttributeHasher {
+        @Override
+        String computeHash(String value) {
+            return DigestUtils.sha1Hex(value);
+        }
+    }
+
+    // keyed hash, so that the hashed values cannot be reversed by hashing candidate values without the key
+    private static class HmacSha256 extends AttributeHasher {
+
+        private final Mac mac;
+
+        private HmacSha256(String key) {
+            try {
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        String computeHash(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            // Mac is not thread safe
+            synchronized (mac) {
+                return Hex.encodeHexString(mac.doFinal(bytes));
+            }
+        }
+    }
+
+    // non-cryptographic, only suitable for pseudonymization, but much cheaper than the digests above
+    private static class Fnv1a64 extends AttributeHasher {
+
+        private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long PRIME = 0x100000001b3L;
+
+        @Override
+        String computeHash(String value) {
+            long hash = OFFSET_BASIS;
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= (b & 0xff);
+                hash *= PRIME;
+            }
+            String hex = Long.toHexString(hash);
+            // pad to a fixed width, same as the digests above
+            return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+        }
+    }
+}
@@ -5,19 +5,14 @@ import java.util.List;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorAction;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorActionType;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorConfig;
-import io.opentelemetry.api.common.AttributeConsumer;
-import io.opentelemetry.api.common.AttributeKey;
-import io.opentelemetry.api.common.Attributes;
-import io.opentelemetry.api.common.Attributes.Builder;
-import io.opentelemetry.api.common.ReadableAttributes;
-import io.opentelemetry.sdk.trace.data.SpanData;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 // structure which only allows valid data
 // normalization has to occur before construction
 public class AttributeProcessor extends AgentProcessor {
     private final List<ProcessorAction> actions;
+    // hashers for the hash actions, at the same index as the action
+    private final @Nullable AttributeHasher[] hashers;
 
     private AttributeProcessor(
             List<ProcessorAction> actions,
@@ -25,6 +20,12 @@ public class AttributeProcessor extends AgentProcessor {
             @Nullable IncludeExclude exclude) {
         super(include, exclude);
         this.actions = actions;
+        this.hashers = new AttributeHasher[actions.size()];
+        for (int i = 0; i < actions.size(); i++) {
+            if (actions.get(i).action == ProcessorActionType.hash) {
+                hashers[i] = AttributeHasher.create(actions.get(i));
+            }
+        }
     }
 
     // Creates a Span Processor object
@@ -36,89 +37,69 @@ public class AttributeProcessor extends AgentProcessor {
 
     // Copy from existing attribute.
     // Returns true if attribute has been found and copied. Else returns false.
-    // ToDo store fromAttribute as AttributeKey<?> to avoid creating AttributeKey each time
-    private static boolean copyFromExistingAttribute(Attributes.Builder insertBuilder, ReadableAttributes existingSpanAttributes, ProcessorAction actionObj) {
-        Object existingSpanAttributeValue = existingSpanAttributes.get(AttributeKey.stringKey(actionObj.fromAttribute));
-        if (existingSpanAttributeValue instanceof String) {
-            insertBuilder.put(actionObj.key, (String) existingSpanAttributeValue);
+    private static boolean copyFromExistingAttribute(ProcessedSpan span, ProcessorAction actionObj) {
+        String existingSpanAttributeValue = span.getStringAttribute(actionObj.fromAttribute);
+        if (existingSpanAttributeValue != null) {
+            span.putAttribute(actionObj.key, existingSpanAttributeValue);
             return true;
         }
         return false;
     }
 
     // Function to process actions
-    public SpanData processActions(SpanData span) {
-        SpanData updatedSpan = span;
-        for (ProcessorAction actionObj : actions) {
-            updatedSpan = actionObj.action == ProcessorActionType.insert ? processInsertAction(updatedSpan, actionObj) : processOtherAction(updatedSpan, actionObj);
+    @Override
+    protected void processActions(ProcessedSpan span) {
+        for (int i = 0; i < actions.size(); i++) {
+            ProcessorAction actionObj = actions.get(i);
+            if (actionObj.action == ProcessorActionType.insert) {
+                processInsertAction(span, actionObj);
+            } else {
+                processOtherAction(span, actionObj, hashers[i]);
+            }
         }
-        return updatedSpan;
     }
 
-    private SpanData processOtherAction(SpanData span, ProcessorAction actionObj) {
-        ReadableAttributes existingSpanAttributes = span.getAttributes();
-        final Attributes.Builder builder = Attributes.builder();
-        final boolean[] spanUpdateFlag = new boolean[1]; // This is for optimization. If none of the attributes are updated, we can skip the attributes.build step
-        existingSpanAttributes.forEach(new AttributeConsumer() {
-            @Override
-            public <T> void accept(AttributeKey<T> key, T value) {
-                boolean attributeUpdatedFlag = false;// flag to check if a attribute is updated
-                if (key.getKey().equals(actionObj.key)) {
-                    switch (actionObj.action) {
-                        case update:
-                            if (applyUpdateAction(actionObj, existingSpanAttributes, builder)) {
-                                attributeUpdatedFlag = true;
-                            }
-                            break;
-                        case delete:
-                            // Return without copying the existing span attribute, but still update spanUpdateFlag
-                            spanUpdateFlag[0] = true;
-                            return;
-                        case hash:
-                            if (value instanceof String) {
-                                // Currently we only support String
-                                builder.put(actionObj.key, DigestUtils.sha1Hex((String) value));
-                                attributeUpdatedFlag = true;
-                            }
-                            break;
-                        default:
-                            break; // no action. Added to escape spotbug failures.
-                    }
-                }
-                if (!attributeUpdatedFlag) {
-                    builder.put(key, value);
-                } else {
-                    spanUpdateFlag[0] = true;
+    private void processOtherAction(ProcessedSpan span, ProcessorAction actionObj, @Nullable AttributeHasher hasher) {
+        Object existingSpanAttributeValue = span.getAttribute(actionObj.key);
+        if (existingSpanAttributeValue == null) {
+            // the actions only apply to an existing attribute
+            return;
+        }
+        switch (actionObj.action) {
+            case update:
+                applyUpdateAction(actionObj, span);
+                break;
+            case delete:
+                span.removeAttribute(actionObj.key);
+                break;
+            case hash:
+                if (existingSpanAttributeValue instanceof String && hasher != null) {
+                    // Currently we only support String
+                    span.putAttribute(actionObj.key, hasher.hash((String) existingSpanAttributeValue));
                 }
-            }
-        });
-        return spanUpdateFlag[0] ? new MySpanData(span, builder.build()) : span;
+                break;
+            default:
+                break; // no action. Added to escape spotbug failures.
+        }
     }
 
-    private SpanData processInsertAction(SpanData span, ProcessorAction actionObj) {
-        ReadableAttributes existingSpanAttributes = span.getAttributes();
-        if (existingSpanAttributes.get(AttributeKey.stringKey(actionObj.key)) != null) {
+    private void processInsertAction(ProcessedSpan span, ProcessorAction actionObj) {
+        if (span.getStringAttribute(actionObj.key) != null) {
             // this check is needed due to https://github.com/open-telemetry/opentelemetry-java/issues/2043
             // TODO once the above issue is fixed in OpenTelemetry, then we can remove this condition
-            return span;
-        }
-        final Builder insertBuilder = Attributes.builder();
-        if (applyUpdateAction(actionObj, existingSpanAttributes, insertBuilder)) {
-            // Copy all existing attributes
-            existingSpanAttributes.forEach(insertBuilder::put);
-            return new MySpanData(span, insertBuilder.build());
+            return;
         }
-        return span;
+        applyUpdateAction(actionObj, span);
     }
 
 
-    private boolean applyUpdateAction(ProcessorAction actionObj, ReadableAttributes existingSpanAttributes, Attributes.Builder builder) {
+    private boolean applyUpdateAction(ProcessorAction actionObj, ProcessedSpan span) {
         //Update from existing attribute
         if (actionObj.value != null) {
             //update to new value
-            builder.put(actionObj.key, actionObj.value);
+            span.putAttribute(actionObj.key, actionObj.value);
             return true;
-        } else return copyFromExistingAttribute(builder, existingSpanAttributes, actionObj);
+        } else return copyFromExistingAttribute(span, actionObj);
     }
 
 
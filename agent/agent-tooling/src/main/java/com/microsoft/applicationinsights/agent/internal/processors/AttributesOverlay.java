@@ -0,0 +1,111 @@
+package com.microsoft.applicationinsights.agent.internal.processors;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.opentelemetry.api.common.AttributeConsumer;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.AttributeType;
+import io.opentelemetry.api.common.ReadableAttributes;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// copy-on-write view of a span's attributes after processing
+//
+// only the attributes added, replaced or removed by the processors are held here, everything else is read from the
+// original attributes, so processing a span with many attributes does not copy all of them
+//
+// attributes are matched by key name, same as when the attributes are built with Attributes.builder()
+//
+// the processors only add string attributes, other components may add string, boolean, long or double attributes
+class AttributesOverlay implements ReadableAttributes {
+
+    private final ReadableAttributes original;
+
+    // attributes which have been added or replaced, removed attributes have a null value
+    private final Map<String, ?> updates;
+
+    private @Nullable Map<AttributeKey<?>, Object> map;
+
+    AttributesOverlay(ReadableAttributes original, Map<String, ?> updates) {
+        this.original = original;
+        this.updates = updates;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> @Nullable T get(AttributeKey<T> key) {
+        String name = key.getKey();
+        if (updates.containsKey(name)) {
+            Object value = updates.get(name);
+            return value != null && key.getType() == getType(value) ? (T) value : null;
+        }
+        return original.get(key);
+    }
+
+    @Override
+    public void forEach(final AttributeConsumer consumer) {
+        original.forEach(new AttributeConsumer() {
+            @Override
+            public <T> void accept(AttributeKey<T> key, T value) {
+                if (!updates.containsKey(key.getKey())) {
+                    consumer.accept(key, value);
+                }
+            }
+        });
+        for (Map.Entry<String, ?> entry : updates.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                consumer.accept(AttributeKey.stringKey(entry.getKey()), (String) value);
+            } else if (value instanceof Boolean) {
+                consumer.accept(AttributeKey.booleanKey(entry.getKey()), (Boolean) value);
+            } else if (value instanceof Long) {
+                consumer.accept(AttributeKey.longKey(entry.getKey()), (Long) value);
+            } else if (value instanceof Double) {
+                consumer.accept(AttributeKey.doubleKey(entry.getKey()), (Double) value);
+            }
+        }
+    }
+
+    private static @Nullable AttributeType getType(Object value) {
+        if (value instanceof String) {
+            return AttributeType.STRING;
+        } else if (value instanceof Boolean) {
+            return AttributeType.BOOLEAN;
+        } else if (value instanceof Long) {
+            return AttributeType.LONG;
+        } else if (value instanceof Double) {
+            return AttributeType.DOUBLE;
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return asMap().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return asMap().isEmpty();
+    }
+
+    // the merged attributes are only materialized when they are requested as a whole
+    public Map<AttributeKey<?>, Object> asMap() {
+        if (map == null) {
+            final Map<AttributeKey<?>, Object> merged = new LinkedHashMap<>();
+            forEach(new AttributeConsumer() {
+                @Override
+                public <T> void accept(AttributeKey<T> key, T value) {
+                    merged.put(key, value);
+                }
+            });
+            map = merged;
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+}
@@ -1,58 +1,20 @@
 package com.microsoft.applicationinsights.agent.internal.processors;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-
+import java.util.Collections;
 
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorConfig;
-import com.microsoft.applicationinsights.agent.internal.processors.AgentProcessor.IncludeExclude;
-import io.opentelemetry.sdk.common.CompletableResultCode;
-import io.opentelemetry.sdk.trace.data.SpanData;
 import io.opentelemetry.sdk.trace.export.SpanExporter;
 
-public class ExporterWithAttributeProcessor implements SpanExporter {
-
-    private final SpanExporter delegate;
-    private final AttributeProcessor attributeProcessor;
+// a single attribute processor, see ExporterWithProcessors for applying several processors
+public class ExporterWithAttributeProcessor extends ExporterWithProcessors {
 
     // caller should check config.isValid before creating
     public ExporterWithAttributeProcessor(ProcessorConfig config, SpanExporter delegate) {
-        config.validate();
-        attributeProcessor = AttributeProcessor.create(config);
-        this.delegate = delegate;
-    }
-
-    @Override
-    public CompletableResultCode export(Collection<SpanData> spans) {
-        // we need to filter attributes before passing on to delegate
-            List<SpanData> copy = new ArrayList<>();
-            for (SpanData span : spans) {
-                copy.add(process(span));
-            }
-            return delegate.export(copy);
+        super(Collections.singletonList(create(config)), delegate);
     }
 
-    private SpanData process(SpanData span) {
-        IncludeExclude include = attributeProcessor.getInclude();
-        if (include != null && !include.isMatch(span)) {
-            //If Not included we can skip further processing
-            return span;
-        }
-        IncludeExclude exclude = attributeProcessor.getExclude();
-        if (exclude != null && exclude.isMatch(span)) {
-            return span;
-        }
-        return attributeProcessor.processActions(span);
-    }
-
-    @Override
-    public CompletableResultCode flush() {
-        return delegate.flush();
-    }
-
-    @Override
-    public CompletableResultCode shutdown() {
-        return delegate.shutdown();
+    private static AttributeProcessor create(ProcessorConfig config) {
+        config.validate();
+        return AttributeProcessor.create(config);
     }
 }
@@ -0,0 +1,48 @@
+package com.microsoft.applicationinsights.agent.internal.processors;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorConfig;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// drops the spans which are included (and not excluded), before any telemetry is built for them
+public class FilterProcessor extends AgentProcessor {
+
+    private final String name;
+    private final AtomicLong droppedCount = new AtomicLong();
+    // the dropped count as of the last report, see takeDroppedCountSinceLastReport()
+    private final AtomicLong reportedCount = new AtomicLong();
+
+    private FilterProcessor(String name, @Nullable IncludeExclude include, @Nullable IncludeExclude exclude) {
+        super(include, exclude);
+        this.name = name;
+    }
+
+    public static FilterProcessor create(ProcessorConfig config) {
+        IncludeExclude normalizedInclude = config.include != null ? getNormalizedIncludeExclude(config.include) : null;
+        IncludeExclude normalizedExclude = config.exclude != null ? getNormalizedIncludeExclude(config.exclude) : null;
+        String name = config.processorName != null ? config.processorName : "filter";
+        return new FilterProcessor(name, normalizedInclude, normalizedExclude);
+    }
+
+    @Override
+    protected void processActions(ProcessedSpan span) {
+        span.drop();
+        droppedCount.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // number of spans dropped by this processor
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    // number of spans dropped by this processor since the last call
+    long takeDroppedCountSinceLastReport() {
+        long dropped = droppedCount.get();
+        return dropped - reportedCount.getAndSet(dropped);
+    }
+}
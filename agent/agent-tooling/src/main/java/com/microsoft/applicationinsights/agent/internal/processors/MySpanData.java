@@ -1,6 +1,7 @@
 package com.microsoft.applicationinsights.agent.internal.processors;
 
 import java.util.List;
+import java.util.Map;
 
 import io.opentelemetry.api.common.ReadableAttributes;
 import io.opentelemetry.sdk.common.InstrumentationLibraryInfo;
@@ -25,6 +26,12 @@ public class MySpanData implements SpanData {
     this.spanName = spanName;
   }
 
+  // the attribute updates (null values for removed attributes) are overlaid on the delegate's attributes
+  // instead of being copied together with them into new attributes
+  public MySpanData(SpanData delegate, Map<String, ?> attributeUpdates, String spanName) {
+    this(delegate, new AttributesOverlay(delegate.getAttributes(), attributeUpdates), spanName);
+  }
+
   @Override public String getTraceId() {
     return delegate.getTraceId();
   }
@@ -0,0 +1,111 @@
+package com.microsoft.applicationinsights.agent.internal.processors;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.opentelemetry.api.common.AttributeConsumer;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.ReadableAttributes;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// working state of a span while it goes through all of the configured processors
+//
+// processors read and write the span name and attributes through this class, changes are recorded as a delta
+// over the original span, and the resulting span is only created once, after the last processor
+public class ProcessedSpan {
+
+    private final SpanData span;
+
+    private String name;
+
+    private boolean dropped;
+
+    // string attributes which have been added or replaced, removed attributes have a null value
+    private final Map<String, String> updates = new LinkedHashMap<>();
+
+    // lazily built index of the original attribute names, only needed by actions which match on key name
+    private @Nullable Map<String, AttributeKey<?>> originalKeys;
+
+    public ProcessedSpan(SpanData span) {
+        this.span = span;
+        this.name = span.getName();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    // returns the current value of the attribute, if it is a string attribute
+    public @Nullable String getStringAttribute(String key) {
+        if (updates.containsKey(key)) {
+            return updates.get(key);
+        }
+        return span.getAttributes().get(AttributeKey.stringKey(key));
+    }
+
+    // same as above, for callers which look up the same attribute on every span and so can build the key once
+    public @Nullable String getStringAttribute(AttributeKey<String> key) {
+        String name = key.getKey();
+        if (updates.containsKey(name)) {
+            return updates.get(name);
+        }
+        return span.getAttributes().get(key);
+    }
+
+    // returns the current value of the attribute, whatever its type
+    public @Nullable Object getAttribute(String key) {
+        if (updates.containsKey(key)) {
+            return updates.get(key);
+        }
+        AttributeKey<?> attributeKey = getOriginalKeys().get(key);
+        return attributeKey == null ? null : span.getAttributes().get(attributeKey);
+    }
+
+    public void putAttribute(String key, String value) {
+        updates.put(key, value);
+    }
+
+    public void removeAttribute(String key) {
+        updates.put(key, null);
+    }
+
+    // the span will not be exported, and no further processors will be applied to it
+    public void drop() {
+        dropped = true;
+    }
+
+    public boolean isDropped() {
+        return dropped;
+    }
+
+    // returns the original span if nothing was changed
+    //
+    // the changed attributes are not copied, the returned span overlays them on top of the original attributes
+    public SpanData toSpanData() {
+        if (updates.isEmpty()) {
+            return name.equals(span.getName()) ? span : new MySpanData(span, span.getAttributes(), name);
+        }
+        return new MySpanData(span, updates, name);
+    }
+
+    private Map<String, AttributeKey<?>> getOriginalKeys() {
+        if (originalKeys == null) {
+            ReadableAttributes attributes = span.getAttributes();
+            final Map<String, AttributeKey<?>> keys = new HashMap<>(attributes.size() * 2);
+            attributes.forEach(new AttributeConsumer() {
+                @Override
+                public <T> void accept(AttributeKey<T> key, T value) {
+                    keys.put(key.getKey(), key);
+                }
+            });
+            originalKeys = keys;
+        }
+        return originalKeys;
+    }
+}
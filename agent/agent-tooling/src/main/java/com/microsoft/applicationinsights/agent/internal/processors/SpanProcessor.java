@@ -6,41 +6,49 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorConfig;
-import io.opentelemetry.api.common.AttributeKey;
-import io.opentelemetry.api.common.Attributes;
-import io.opentelemetry.api.common.ReadableAttributes;
-import io.opentelemetry.sdk.trace.data.SpanData;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 
 public class SpanProcessor extends AgentProcessor {
     private static final Pattern capturingGroupNames = Pattern.compile("\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>");
-    private final List<AttributeKey<?>> fromAttributes;
+    private final List<String> fromAttributes;
     private final List<Pattern> toAttributeRulePatterns;
     private final List<List<String>> groupNames;
     private final String separator;
+    // the toAttributes rules only depend on the span name, so their result is cached per span name
+    private final @Nullable LruCache<String, SpanNameRewrite> spanNameRewriteCache;
 
     public SpanProcessor(@Nullable IncludeExclude include,
                          @Nullable IncludeExclude exclude,
-                         List<AttributeKey<?>> fromAttributes,
+                         List<String> fromAttributes,
                          List<Pattern> toAttributeRulePatterns,
                          List<List<String>> groupNames,
                          String separator) {
+        this(include, exclude, fromAttributes, toAttributeRulePatterns, groupNames, separator, 0);
+    }
+
+    public SpanProcessor(@Nullable IncludeExclude include,
+                         @Nullable IncludeExclude exclude,
+                         List<String> fromAttributes,
+                         List<Pattern> toAttributeRulePatterns,
+                         List<List<String>> groupNames,
+                         String separator,
+                         int maxCachedSpanNames) {
         super(include, exclude);
         this.fromAttributes = fromAttributes;
         this.toAttributeRulePatterns = toAttributeRulePatterns;
         this.groupNames = groupNames;
         this.separator = separator;
+        this.spanNameRewriteCache = maxCachedSpanNames > 0 && !toAttributeRulePatterns.isEmpty()
+                ? new LruCache<String, SpanNameRewrite>(maxCachedSpanNames) : null;
     }
 
     public static SpanProcessor create(ProcessorConfig config) {
         IncludeExclude normalizedInclude = config.include != null ? getNormalizedIncludeExclude(config.include) : null;
         IncludeExclude normalizedExclude = config.exclude != null ? getNormalizedIncludeExclude(config.exclude) : null;
-        List<AttributeKey<?>> fromAttributes = new ArrayList<>();
+        List<String> fromAttributes = new ArrayList<>();
         if (config.name.fromAttributes != null) {
-            for (String attribute : config.name.fromAttributes) {
-                fromAttributes.add(AttributeKey.stringKey(attribute));
-            }
+            fromAttributes.addAll(config.name.fromAttributes);
         }
         List<String> toAttributeRules = new ArrayList<>();
         if (config.name.toAttributes != null) {
@@ -54,8 +62,9 @@ public class SpanProcessor extends AgentProcessor {
         }
         List<List<String>> groupNames = getGroupNames(toAttributeRules);
         String separator = config.name.separator != null ? config.name.separator : "";
+        int maxCachedSpanNames = config.name.toAttributes != null ? config.name.toAttributes.maxCachedSpanNames : 0;
         return new SpanProcessor(normalizedInclude, normalizedExclude,
-                fromAttributes, toAttributeRulePatterns, groupNames, separator);
+                fromAttributes, toAttributeRulePatterns, groupNames, separator, maxCachedSpanNames);
     }
 
     private static List<List<String>> getGroupNames(List<String> toAttributeRules) {
@@ -71,55 +80,80 @@ public class SpanProcessor extends AgentProcessor {
         return groupNames;
     }
 
+    @Override
+    protected void processActions(ProcessedSpan span) {
+        processFromAttributes(span);
+        processToAttributes(span);
+    }
+
     //fromAttributes represents the attribute keys to pull the values from to generate the new span name.
-    public SpanData processFromAttributes(SpanData span) {
+    public void processFromAttributes(ProcessedSpan span) {
         if (spanHasAllFromAttributeKeys(span)) {
-            StringBuffer updatedSpanBuffer = new StringBuffer();
-            ReadableAttributes existingSpanAttributes = span.getAttributes();
-            for (AttributeKey<?> attributeKey : fromAttributes) {
-                updatedSpanBuffer.append(existingSpanAttributes.get(attributeKey));
+            StringBuilder updatedSpanBuffer = new StringBuilder();
+            for (String attributeKey : fromAttributes) {
+                updatedSpanBuffer.append(span.getStringAttribute(attributeKey));
                 updatedSpanBuffer.append(separator);
             }
             // Removing the last appended separator
             if (separator.length() > 0) {
                 updatedSpanBuffer.setLength(updatedSpanBuffer.length() - separator.length());
             }
-            return new MySpanData(span, span.getAttributes(), new String(updatedSpanBuffer));
+            span.setName(updatedSpanBuffer.toString());
         }
-        return span;
     }
 
-    private boolean spanHasAllFromAttributeKeys(SpanData span) {
+    private boolean spanHasAllFromAttributeKeys(ProcessedSpan span) {
         if (fromAttributes.isEmpty()) return false;
-        ReadableAttributes existingSpanAttributes = span.getAttributes();
-        for (AttributeKey<?> attributeKey : fromAttributes) {
-            if (existingSpanAttributes.get(attributeKey) == null) return false;
+        for (String attributeKey : fromAttributes) {
+            if (span.getStringAttribute(attributeKey) == null) return false;
         }
         return true;
     }
 
     //The following function extracts attributes from span name and replaces extracted parts with attribute names
-    public SpanData processToAttributes(SpanData span) {
+    public void processToAttributes(ProcessedSpan span) {
         if (toAttributeRulePatterns.isEmpty()) {
-            return span;
+            return;
         }
 
         String spanName = span.getName();
-        final Attributes.Builder builder = Attributes.builder();
-        // copy existing attributes.
+        SpanNameRewrite rewrite = spanNameRewriteCache == null ? null : spanNameRewriteCache.get(spanName);
+        if (rewrite == null) {
+            rewrite = rewrite(spanName);
+            if (spanNameRewriteCache != null) {
+                spanNameRewriteCache.put(spanName, rewrite);
+            }
+        }
+        for (int i = 0; i < rewrite.attributeKeys.size(); i++) {
+            span.putAttribute(rewrite.attributeKeys.get(i), rewrite.attributeValues.get(i));
+        }
+        span.setName(rewrite.spanName);
+    }
+
+    // number of span names whose toAttributes rewrite was found in the cache
+    public long getSpanNameRewriteCacheHitCount() {
+        return spanNameRewriteCache == null ? 0 : spanNameRewriteCache.getHitCount();
+    }
+
+    // number of span names whose toAttributes rewrite had to be computed
+    public long getSpanNameRewriteCacheMissCount() {
+        return spanNameRewriteCache == null ? 0 : spanNameRewriteCache.getMissCount();
+    }
+
+    private SpanNameRewrite rewrite(String spanName) {
+        SpanNameRewrite rewrite = new SpanNameRewrite();
         // According to Collector docs, The matched portion
         // in the span name is replaced by extracted attribute name. If the attributes exist
-        // they will be overwritten. Need a way to optimize this.
-        span.getAttributes().forEach(builder::put);
+        // they will be overwritten.
         for (int i = 0; i < groupNames.size(); i++) {
-            spanName = applyRule(groupNames.get(i), toAttributeRulePatterns.get(i), span, spanName, builder);
+            spanName = applyRule(groupNames.get(i), toAttributeRulePatterns.get(i), spanName, rewrite);
         }
-        return new MySpanData(span, builder.build(), spanName);
-
+        rewrite.spanName = spanName;
+        return rewrite;
     }
 
     private String applyRule(List<String> groupNamesList, Pattern pattern,
-                             SpanData span, String spanName, Attributes.Builder builder) {
+                             String spanName, SpanNameRewrite rewrite) {
         if (groupNamesList.isEmpty()) return spanName;
         Matcher matcher = pattern.matcher(spanName);
         StringBuilder sb = new StringBuilder();
@@ -133,7 +167,8 @@ public class SpanProcessor extends AgentProcessor {
                 sb.append("{");
                 sb.append(groupNamesList.get(i - 1));
                 // add attribute key=groupNames.get(i-1), value=matcher.group(i)
-                builder.put(groupNamesList.get(i - 1), matcher.group(i));
+                rewrite.attributeKeys.add(groupNamesList.get(i - 1));
+                rewrite.attributeValues.add(matcher.group(i));
                 sb.append("}");
                 innerLastEnd = matcher.end(i);
             }
@@ -144,5 +179,11 @@ public class SpanProcessor extends AgentProcessor {
 
         return sb.toString();
     }
-}
 
+    // the resulting span name and the attributes extracted from the original span name, in the order they are put
+    private static class SpanNameRewrite {
+        private String spanName;
+        private final List<String> attributeKeys = new ArrayList<>();
+        private final List<String> attributeValues = new ArrayList<>();
+    }
+}
@@ -0,0 +1,121 @@
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+import com.microsoft.applicationinsights.agent.internal.Global;
+import io.opentelemetry.api.common.ReadableAttributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// trace id based sampler whose sampling percentage is adjusted to keep the sampled span volume under a maximum
+// number of items per second
+//
+// the sampling percentage is re-evaluated at a fixed interval from an exponential moving average of the observed
+// (pre-sampling) span volume, and is always rounded to 1/N, same as a configured sampling percentage
+public final class AdaptiveSampler implements Sampler {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveSampler.class);
+
+    // weight of the most recent interval in the moving average
+    private static final double MOVING_AVERAGE_RATIO = 0.25;
+
+    // 1/1000
+    private static final double MIN_SAMPLING_PERCENTAGE = 0.1;
+
+    private final double maxItemsPerSecond;
+    private final double maxSamplingPercentage;
+    private final long evaluationIntervalNanos;
+    private final boolean updateGlobalSamplingPercentage;
+    private final Ticker ticker;
+
+    private final LongAdder observedCount = new LongAdder();
+    private final AtomicLong nextEvaluationNanos;
+
+    // only accessed by the thread which won the evaluation
+    private double movingAverage = -1;
+
+    // stamps the current sampling percentage into ai.internal.sampling.percentage of the sampled spans
+    private volatile TraceIdBasedSampler delegate;
+
+    public AdaptiveSampler(double maxSamplingPercentage, double maxItemsPerSecond, int evaluationIntervalSeconds) {
+        this(maxSamplingPercentage, maxItemsPerSecond, evaluationIntervalSeconds, true);
+    }
+
+    // updateGlobalSamplingPercentage is false when this sampler only applies to some of the spans
+    AdaptiveSampler(double maxSamplingPercentage, double maxItemsPerSecond, int evaluationIntervalSeconds,
+                    boolean updateGlobalSamplingPercentage) {
+        this(maxSamplingPercentage, maxItemsPerSecond, evaluationIntervalSeconds, updateGlobalSamplingPercentage,
+                Ticker.systemTicker());
+    }
+
+    AdaptiveSampler(double maxSamplingPercentage, double maxItemsPerSecond, int evaluationIntervalSeconds,
+                    boolean updateGlobalSamplingPercentage, Ticker ticker) {
+        this.maxSamplingPercentage = maxSamplingPercentage;
+        this.maxItemsPerSecond = maxItemsPerSecond;
+        this.evaluationIntervalNanos = TimeUnit.SECONDS.toNanos(evaluationIntervalSeconds);
+        this.updateGlobalSamplingPercentage = updateGlobalSamplingPercentage;
+        this.ticker = ticker;
+        this.nextEvaluationNanos = new AtomicLong(ticker.read() + evaluationIntervalNanos);
+        this.delegate = new TraceIdBasedSampler(maxSamplingPercentage);
+    }
+
+    @Override
+    public SamplingResult shouldSample(@Nullable Context parentContext,
+                                       String traceId,
+                                       String name,
+                                       Span.Kind spanKind,
+                                       ReadableAttributes attributes,
+                                       List<SpanData.Link> parentLinks) {
+        observedCount.increment();
+        long now = ticker.read();
+        long next = nextEvaluationNanos.get();
+        if (now - next >= 0 && nextEvaluationNanos.compareAndSet(next, now + evaluationIntervalNanos)) {
+            // the previous evaluation was at next - evaluationIntervalNanos
+            evaluate(now - next + evaluationIntervalNanos);
+        }
+        return delegate.shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
+    }
+
+    private void evaluate(long elapsedNanos) {
+        double itemsPerSecond = observedCount.sumThenReset() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        if (movingAverage < 0) {
+            movingAverage = itemsPerSecond;
+        } else {
+            movingAverage = movingAverage * (1 - MOVING_AVERAGE_RATIO) + itemsPerSecond * MOVING_AVERAGE_RATIO;
+        }
+        double samplingPercentage = maxSamplingPercentage;
+        if (movingAverage > 0) {
+            samplingPercentage = Math.min(samplingPercentage, 100 * maxItemsPerSecond / movingAverage);
+        }
+        samplingPercentage = SamplingPercentage.roundToNearestQuietly(Math.max(samplingPercentage, MIN_SAMPLING_PERCENTAGE));
+        if (samplingPercentage != delegate.getSamplingPercentage()) {
+            logger.debug("Adjusting sampling percentage from {} to {} ({} items per second observed)",
+                    delegate.getSamplingPercentage(), samplingPercentage, movingAverage);
+            delegate = new TraceIdBasedSampler(samplingPercentage);
+            if (updateGlobalSamplingPercentage) {
+                // so that telemetry tracked through the 2.x SDK is sampled consistently with the spans
+                Global.setSamplingPercentage(samplingPercentage);
+            }
+        }
+    }
+
+    public double getSamplingPercentage() {
+        return delegate.getSamplingPercentage();
+    }
+
+    @Override
+    public String getDescription() {
+        return "ApplicationInsights-specific adaptive trace id based sampler, with max items per second: "
+                + maxItemsPerSecond;
+    }
+}
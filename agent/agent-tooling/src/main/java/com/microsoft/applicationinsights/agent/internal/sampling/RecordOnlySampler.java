@@ -0,0 +1,57 @@
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.ReadableAttributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult.Decision;
+
+// records the spans which the delegate samples out instead of dropping them,
+// so that the standard metrics can still be extracted from them when they end (see StandardMetricsExporter)
+//
+// the spans are still not sampled, so they are not exported and the sampled flag is not propagated
+public final class RecordOnlySampler implements Sampler {
+
+    private static final SamplingResult RECORD_ONLY = new SamplingResult() {
+        @Override
+        public Decision getDecision() {
+            return Decision.RECORD_ONLY;
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return Attributes.empty();
+        }
+    };
+
+    private final Sampler delegate;
+
+    public RecordOnlySampler(Sampler delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public SamplingResult shouldSample(@Nullable Context parentContext,
+                                       String traceId,
+                                       String name,
+                                       Span.Kind spanKind,
+                                       ReadableAttributes attributes,
+                                       List<SpanData.Link> parentLinks) {
+        SamplingResult result = delegate.shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
+        if (result.getDecision() == Decision.DROP) {
+            return RECORD_ONLY;
+        }
+        return result;
+    }
+
+    @Override
+    public String getDescription() {
+        return "ApplicationInsights-specific record only sampler, with delegate: " + delegate.getDescription();
+    }
+}
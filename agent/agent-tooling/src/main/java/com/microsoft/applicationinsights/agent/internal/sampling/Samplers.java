@@ -1,9 +1,56 @@
 package com.microsoft.applicationinsights.agent.internal.sampling;
 
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.AdaptiveSampling;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.PreviewConfiguration;
 import io.opentelemetry.sdk.trace.samplers.Sampler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Samplers {
 
+    private static final Logger logger = LoggerFactory.getLogger(Samplers.class);
+
+    // when adaptive sampling is enabled, the sampling percentage is the maximum sampling percentage
+    //
+    // sampling rules take precedence, the sampling percentage only applies to spans which do not match any rule
+    //
+    // when tail sampling is enabled, every span which does not match a sampling rule is sampled here, since the tail
+    // sampler only sees the spans which have been sampled, it applies its own percentage once the trace has ended
+    //
+    // when standard metrics are enabled, the spans which are sampled out are still recorded (but not exported)
+    public static Sampler getSampler(double samplingPercentage, PreviewConfiguration preview) {
+        AdaptiveSampling adaptiveSampling = preview.adaptiveSampling;
+        Sampler sampler;
+        if (preview.tailSampling.enabled) {
+            if (samplingPercentage != 100 || adaptiveSampling.maxItemsPerSecond > 0) {
+                logger.warn("sampling percentage {} and adaptive sampling are ignored, since tail sampling is enabled"
+                        + " (tail sampling percentage {})", samplingPercentage, preview.tailSampling.percentage);
+            }
+            sampler = getSampler(100);
+        } else if (adaptiveSampling.maxItemsPerSecond > 0) {
+            sampler = new AdaptiveSampler(samplingPercentage, adaptiveSampling.maxItemsPerSecond,
+                    Math.max(1, adaptiveSampling.evaluationIntervalSeconds));
+        } else {
+            sampler = getSampler(samplingPercentage);
+        }
+        if (!preview.samplingRules.isEmpty()) {
+            sampler = new SamplingRulesSampler(preview.samplingRules, sampler);
+        }
+        if (preview.standardMetrics.enabled) {
+            sampler = new RecordOnlySampler(sampler);
+        }
+        return sampler;
+    }
+
+    // the sampling percentage for Global.setSamplingPercentage(), which BytecodeUtilImpl applies to the 2.x SDK
+    // telemetry
+    //
+    // when tail sampling is enabled, the spans are not head sampled at the sampling percentage either, and the 2.x SDK
+    // telemetry never reaches the tail sampler, so it is not sampled at all
+    public static double getGlobalSamplingPercentage(double samplingPercentage, PreviewConfiguration preview) {
+        return preview.tailSampling.enabled ? 100 : samplingPercentage;
+    }
+
     public static Sampler getSampler(double samplingPercentage) {
         if (samplingPercentage != 100) {
             return new TraceIdBasedSampler(samplingPercentage);
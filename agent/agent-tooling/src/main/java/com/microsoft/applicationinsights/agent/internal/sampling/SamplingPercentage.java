@@ -29,11 +29,7 @@ public class SamplingPercentage {
     private static final Logger startupLogger = LoggerFactory.getLogger("com.microsoft.applicationinsights.agent");
 
     public static double roundToNearest(double samplingPercentage) {
-        if (samplingPercentage == 0) {
-            return 0;
-        }
-        double itemCount = 100 / samplingPercentage;
-        double rounded = 100.0 / Math.round(itemCount);
+        double rounded = roundToNearestQuietly(samplingPercentage);
 
         if (Math.abs(samplingPercentage - rounded) >= 1) {
             // TODO include link to docs in this warning message
@@ -42,4 +38,13 @@ public class SamplingPercentage {
 
         return rounded;
     }
+
+    // same as above, without the warning, for sampling percentages which are computed instead of configured
+    static double roundToNearestQuietly(double samplingPercentage) {
+        if (samplingPercentage == 0) {
+            return 0;
+        }
+        double itemCount = 100 / samplingPercentage;
+        return 100.0 / Math.round(itemCount);
+    }
 }
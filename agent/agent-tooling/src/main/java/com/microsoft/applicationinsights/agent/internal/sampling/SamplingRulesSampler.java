@@ -0,0 +1,272 @@
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorAttribute;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorMatchType;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.SamplingRule;
+import com.microsoft.applicationinsights.agent.internal.processors.AgentProcessor.RegexpIncludeExclude;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.ReadableAttributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult.Decision;
+
+// applies the first sampling rule which matches the span, falling back to the default sampler
+//
+// each rule has its own trace id based sampler (with either a fixed or an adaptive sampling percentage), the rules
+// are only applied to the local root spans, local child spans follow the sampled flag of their parent (and carry
+// the sampling percentage of their parent forward), so that they follow the root even when they would match a
+// different rule
+public final class SamplingRulesSampler implements Sampler {
+
+    private static final int EVALUATION_INTERVAL_SECONDS = 15;
+
+    // the number of traces whose local root decision is remembered, well above the number of traces which are
+    // typically in progress at the same time
+    private static final int MAX_TRACKED_TRACES = 10000;
+
+    private static final AttributeKey<Double> AI_SAMPLING_PERCENTAGE = AttributeKey.doubleKey("ai.internal.sampling.percentage");
+
+    private static final SamplingResult DROP = new ChildSamplingResult(Decision.DROP, Attributes.empty());
+    private static final SamplingResult SAMPLE = new ChildSamplingResult(Decision.RECORD_AND_SAMPLE, Attributes.empty());
+    // more than one local root of the same trace was sampled, with different sampling percentages
+    private static final SamplingResult AMBIGUOUS = new ChildSamplingResult(Decision.RECORD_AND_SAMPLE, Attributes.empty());
+
+    private final Sampler defaultSampler;
+
+    // candidate rules for span names which are listed in strict rules, in rule order
+    private final Map<String, Rule[]> rulesBySpanName;
+    // candidate rules for all other span names, in rule order
+    private final Rule[] rulesForOtherSpanNames;
+
+    // decisions for the sampled local child spans by the sampling percentage of their parent, there are only a few
+    // distinct sampling percentages, since they are all rounded to 100/N
+    private final ConcurrentMap<Double, SamplingResult> childDecisions = new ConcurrentHashMap<>();
+
+    // decisions for the sampled local child spans by trace id, remembered when the local root is sampled, so that
+    // the sampling percentage of the parent does not need to be read from a snapshot of the parent span
+    private final Cache<String, SamplingResult> childDecisionsByTraceId =
+            CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_TRACES).build();
+
+    public SamplingRulesSampler(List<SamplingRule> samplingRules, Sampler defaultSampler) {
+        this.defaultSampler = defaultSampler;
+        List<Rule> rules = new ArrayList<>();
+        List<Rule> otherRules = new ArrayList<>();
+        for (SamplingRule samplingRule : samplingRules) {
+            Rule rule = new Rule(samplingRule);
+            rules.add(rule);
+            if (rule.spanNames == null) {
+                otherRules.add(rule);
+            }
+        }
+        rulesBySpanName = new HashMap<>();
+        for (Rule rule : rules) {
+            if (rule.spanNames == null) {
+                continue;
+            }
+            for (String spanName : rule.spanNames) {
+                if (rulesBySpanName.containsKey(spanName)) {
+                    continue;
+                }
+                List<Rule> candidates = new ArrayList<>();
+                for (Rule candidate : rules) {
+                    if (candidate.spanNames == null || candidate.spanNames.contains(spanName)) {
+                        candidates.add(candidate);
+                    }
+                }
+                rulesBySpanName.put(spanName, candidates.toArray(new Rule[0]));
+            }
+        }
+        rulesForOtherSpanNames = otherRules.toArray(new Rule[0]);
+    }
+
+    @Override
+    public SamplingResult shouldSample(@Nullable Context parentContext,
+                                       String traceId,
+                                       String name,
+                                       Span.Kind spanKind,
+                                       ReadableAttributes attributes,
+                                       List<SpanData.Link> parentLinks) {
+        SpanContext parentSpanContext = parentContext == null ? null : Span.fromContext(parentContext).getSpanContext();
+        // remote parents are ignored, since Application Insights SDKs do not propagate the sampled flag
+        boolean localChild = parentSpanContext != null && parentSpanContext.isValid() && !parentSpanContext.isRemote();
+        if (localChild) {
+            return parentSpanContext.isSampled() ? getSampledChildDecision(traceId, Span.fromContext(parentContext))
+                    : DROP;
+        }
+        SamplingResult result = getSampler(name, spanKind, attributes)
+                .shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
+        if (result.getDecision() == Decision.RECORD_AND_SAMPLE) {
+            rememberChildDecision(traceId, getChildDecision(result.getAttributes().get(AI_SAMPLING_PERCENTAGE)));
+        }
+        return result;
+    }
+
+    private void rememberChildDecision(String traceId, SamplingResult childDecision) {
+        SamplingResult previous = childDecisionsByTraceId.asMap().putIfAbsent(traceId, childDecision);
+        if (previous != null && previous != childDecision) {
+            childDecisionsByTraceId.put(traceId, AMBIGUOUS);
+        }
+    }
+
+    private SamplingResult getSampledChildDecision(String traceId, Span parent) {
+        SamplingResult result = childDecisionsByTraceId.getIfPresent(traceId);
+        if (result != null && result != AMBIGUOUS) {
+            return result;
+        }
+        // e.g. the local root was sampled by another sampler, or so long ago that its decision has been evicted
+        if (!(parent instanceof ReadableSpan)) {
+            return SAMPLE;
+        }
+        return getChildDecision(((ReadableSpan) parent).toSpanData().getAttributes().get(AI_SAMPLING_PERCENTAGE));
+    }
+
+    private SamplingResult getChildDecision(@Nullable Double samplingPercentage) {
+        if (samplingPercentage == null) {
+            return SAMPLE;
+        }
+        SamplingResult result = childDecisions.get(samplingPercentage);
+        if (result == null) {
+            result = new ChildSamplingResult(Decision.RECORD_AND_SAMPLE,
+                    Attributes.of(AI_SAMPLING_PERCENTAGE, samplingPercentage));
+            childDecisions.putIfAbsent(samplingPercentage, result);
+        }
+        return result;
+    }
+
+    private Sampler getSampler(String name, Span.Kind spanKind, ReadableAttributes attributes) {
+        Rule[] candidates = rulesBySpanName.get(name);
+        if (candidates == null) {
+            candidates = rulesForOtherSpanNames;
+        }
+        for (Rule rule : candidates) {
+            if (rule.isMatch(name, spanKind, attributes)) {
+                return rule.sampler;
+            }
+        }
+        return defaultSampler;
+    }
+
+    @Override
+    public String getDescription() {
+        return "ApplicationInsights-specific sampling rules sampler, with default: " + defaultSampler.getDescription();
+    }
+
+    private static final class ChildSamplingResult implements SamplingResult {
+
+        private final Decision decision;
+        private final Attributes attributes;
+
+        private ChildSamplingResult(Decision decision, Attributes attributes) {
+            this.decision = decision;
+            this.attributes = attributes;
+        }
+
+        @Override
+        public Decision getDecision() {
+            return decision;
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return attributes;
+        }
+    }
+
+    private static class Rule {
+
+        // null if the rule does not match on strict span names
+        private final @Nullable List<String> spanNames;
+        // null if the rule does not match on span name patterns
+        private final @Nullable List<Pattern> spanNamePatterns;
+        // the span name patterns combined into a single alternation, or null if they could not be combined
+        private final @Nullable Pattern combinedSpanNamePattern;
+        private final @Nullable Span.Kind spanKind;
+        private final AttributeKey<String>[] attributeKeys;
+        private final @Nullable String[] attributeValues;
+        private final Sampler sampler;
+
+        @SuppressWarnings("unchecked")
+        private Rule(SamplingRule samplingRule) {
+            boolean regexp = samplingRule.matchType == ProcessorMatchType.regexp;
+            if (samplingRule.spanNames == null || samplingRule.spanNames.isEmpty()) {
+                spanNames = null;
+                spanNamePatterns = null;
+                combinedSpanNamePattern = null;
+            } else if (regexp) {
+                spanNames = null;
+                spanNamePatterns = new ArrayList<>();
+                for (String regex : samplingRule.spanNames) {
+                    spanNamePatterns.add(Pattern.compile(regex));
+                }
+                combinedSpanNamePattern = RegexpIncludeExclude.combine(spanNamePatterns);
+            } else {
+                spanNames = samplingRule.spanNames;
+                spanNamePatterns = null;
+                combinedSpanNamePattern = null;
+            }
+            spanKind = samplingRule.kind == null ? null
+                    : Span.Kind.valueOf(samplingRule.kind.name().toUpperCase(Locale.ROOT));
+            List<ProcessorAttribute> attributes = samplingRule.attributes;
+            int attributeCount = attributes == null ? 0 : attributes.size();
+            attributeKeys = (AttributeKey<String>[]) new AttributeKey<?>[attributeCount];
+            attributeValues = new String[attributeCount];
+            for (int i = 0; i < attributeCount; i++) {
+                attributeKeys[i] = AttributeKey.stringKey(attributes.get(i).key);
+                attributeValues[i] = attributes.get(i).value;
+            }
+            double percentage = samplingRule.percentage == null ? 100 : samplingRule.percentage;
+            if (samplingRule.maxItemsPerSecond > 0) {
+                sampler = new AdaptiveSampler(SamplingPercentage.roundToNearest(percentage),
+                        samplingRule.maxItemsPerSecond, EVALUATION_INTERVAL_SECONDS, false);
+            } else {
+                sampler = new TraceIdBasedSampler(SamplingPercentage.roundToNearest(percentage));
+            }
+        }
+
+        private boolean isMatch(String name, Span.Kind kind, ReadableAttributes attributes) {
+            if (spanNamePatterns != null && !isSpanNamePatternFound(name)) {
+                return false;
+            }
+            if (spanKind != null && spanKind != kind) {
+                return false;
+            }
+            for (int i = 0; i < attributeKeys.length; i++) {
+                String value = attributes.get(attributeKeys[i]);
+                if (value == null || (attributeValues[i] != null && !value.equals(attributeValues[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isSpanNamePatternFound(String name) {
+            if (combinedSpanNamePattern != null) {
+                return combinedSpanNamePattern.matcher(name).find();
+            }
+            for (Pattern pattern : spanNamePatterns) {
+                if (pattern.matcher(name).find()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
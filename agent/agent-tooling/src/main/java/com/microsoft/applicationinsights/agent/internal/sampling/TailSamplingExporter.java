@@ -0,0 +1,286 @@
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.microsoft.applicationinsights.agent.internal.processors.MySpanData;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.ReadableAttributes;
+import io.opentelemetry.api.trace.SpanId;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// buffers ended spans per trace, and decides whether to keep the trace once its local root span has ended
+// (or the trace has been buffered for longer than the decision timeout, or has to be evicted to stay under the
+// maximum number of buffered spans)
+//
+// traces with an error or a span slower than the latency threshold are always kept, other traces are kept based on
+// their trace id and the sampling percentage (so the decision is consistent with head sampling and other services),
+// in which case the sampling percentage is stamped into ai.internal.sampling.percentage so that counts stay correct
+public class TailSamplingExporter implements SpanExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TailSamplingExporter.class);
+
+    private static final AttributeKey<Double> AI_SAMPLING_PERCENTAGE = AttributeKey.doubleKey("ai.internal.sampling.percentage");
+
+    private static final int LOG_EVICTED_TRACES_MODULUS = 10000;
+
+    // decisions are remembered for a while so that spans which end after their local root follow the decision
+    private static final int MAX_REMEMBERED_DECISIONS = 10000;
+
+    private static final double DROPPED = 0;
+
+    private final SpanExporter delegate;
+    private final double samplingPercentage;
+    private final long latencyThresholdNanos;
+    private final long decisionTimeoutNanos;
+    private final int maxBufferedSpans;
+    private final Ticker ticker;
+
+    // the following are guarded by this
+    // oldest trace first
+    private final LinkedHashMap<String, BufferedTrace> traces = new LinkedHashMap<>();
+    private int bufferedSpanCount;
+    // sampling percentage of the kept traces, DROPPED for dropped traces
+    private final Map<String, Double> decisions = new LinkedHashMap<String, Double>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+            return size() > MAX_REMEMBERED_DECISIONS;
+        }
+    };
+
+    private final AtomicLong bufferedTraceCount = new AtomicLong();
+    private final AtomicLong evictedTraceCount = new AtomicLong();
+    private final AtomicLong keptTraceCount = new AtomicLong();
+    private final AtomicLong droppedTraceCount = new AtomicLong();
+
+    private final ScheduledExecutorService scheduledExecutor;
+
+    public TailSamplingExporter(SpanExporter delegate, double samplingPercentage, long latencyThresholdMillis,
+                                int decisionTimeoutSeconds, int maxBufferedSpans) {
+        this(delegate, samplingPercentage, latencyThresholdMillis, decisionTimeoutSeconds, maxBufferedSpans,
+                Ticker.systemTicker());
+        scheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    exportTimedOutTraces();
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // timed out traces are only checked when spans are exported
+    TailSamplingExporter(SpanExporter delegate, double samplingPercentage, long latencyThresholdMillis,
+                         int decisionTimeoutSeconds, int maxBufferedSpans, Ticker ticker) {
+        if (maxBufferedSpans < 1) {
+            throw new IllegalArgumentException("maxBufferedSpans must be positive: " + maxBufferedSpans);
+        }
+        this.delegate = delegate;
+        this.samplingPercentage = samplingPercentage;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+        this.decisionTimeoutNanos = TimeUnit.SECONDS.toNanos(decisionTimeoutSeconds);
+        this.maxBufferedSpans = maxBufferedSpans;
+        this.ticker = ticker;
+        this.scheduledExecutor = Executors.newSingleThreadScheduledExecutor(
+                ThreadPoolUtils.createDaemonThreadFactory(TailSamplingExporter.class));
+    }
+
+    @Override
+    public synchronized CompletableResultCode export(Collection<SpanData> spans) {
+        List<SpanData> kept = new ArrayList<>();
+        for (SpanData span : spans) {
+            String traceId = span.getTraceId();
+            Double decision = decisions.get(traceId);
+            if (decision != null) {
+                // the local root has already ended
+                if (decision != DROPPED) {
+                    kept.add(stamp(span, decision));
+                }
+                continue;
+            }
+            BufferedTrace trace = traces.get(traceId);
+            if (trace == null) {
+                trace = new BufferedTrace(traceId, ticker.read());
+                traces.put(traceId, trace);
+                bufferedTraceCount.incrementAndGet();
+            }
+            trace.add(span);
+            bufferedSpanCount++;
+            if (!SpanId.isValid(span.getParentSpanId()) || span.hasRemoteParent()) {
+                decide(trace, kept);
+            }
+        }
+        evictOldestTraces(kept);
+        decideTimedOutTraces(kept);
+        return exportKept(kept);
+    }
+
+    private void evictOldestTraces(List<SpanData> kept) {
+        Iterator<BufferedTrace> i = traces.values().iterator();
+        while (bufferedSpanCount > maxBufferedSpans && i.hasNext()) {
+            BufferedTrace trace = i.next();
+            i.remove();
+            long evicted = evictedTraceCount.incrementAndGet();
+            if (evicted % LOG_EVICTED_TRACES_MODULUS == 1) {
+                logger.warn("tail sampling buffer is full, {} traces decided before their local root ended so far", evicted);
+            }
+            decideRemoved(trace, kept);
+        }
+    }
+
+    private void decideTimedOutTraces(List<SpanData> kept) {
+        long now = ticker.read();
+        Iterator<BufferedTrace> i = traces.values().iterator();
+        while (i.hasNext()) {
+            BufferedTrace trace = i.next();
+            if (now - trace.startNanos < decisionTimeoutNanos) {
+                // the remaining traces were buffered later
+                return;
+            }
+            i.remove();
+            decideRemoved(trace, kept);
+        }
+    }
+
+    private synchronized void exportTimedOutTraces() {
+        List<SpanData> kept = new ArrayList<>();
+        decideTimedOutTraces(kept);
+        exportKept(kept);
+    }
+
+    private void decide(BufferedTrace trace, List<SpanData> kept) {
+        traces.remove(trace.traceId);
+        decideRemoved(trace, kept);
+    }
+
+    private void decideRemoved(BufferedTrace trace, List<SpanData> kept) {
+        bufferedSpanCount -= trace.spans.size();
+        double decision;
+        if (trace.error || trace.slow) {
+            decision = 100;
+        } else if (SamplingScoreGeneratorV2.getSamplingScore(trace.traceId) < samplingPercentage) {
+            decision = samplingPercentage;
+        } else {
+            decision = DROPPED;
+        }
+        decisions.put(trace.traceId, decision);
+        if (decision == DROPPED) {
+            droppedTraceCount.incrementAndGet();
+            return;
+        }
+        keptTraceCount.incrementAndGet();
+        for (SpanData span : trace.spans) {
+            kept.add(stamp(span, decision));
+        }
+    }
+
+    private CompletableResultCode exportKept(List<SpanData> kept) {
+        if (kept.isEmpty()) {
+            return CompletableResultCode.ofSuccess();
+        }
+        return delegate.export(kept);
+    }
+
+    private static SpanData stamp(SpanData span, double decision) {
+        if (decision == 100) {
+            return span;
+        }
+        ReadableAttributes attributes = span.getAttributes();
+        Double headSamplingPercentage = attributes.get(AI_SAMPLING_PERCENTAGE);
+        // head sampling uses the same trace id based score, so the traces kept here are a subset
+        // of the ones kept by head sampling (or the other way around)
+        double samplingPercentage = headSamplingPercentage == null ? decision : Math.min(headSamplingPercentage, decision);
+        // the other attributes are not copied, the sampling percentage is overlaid on top of them
+        return new MySpanData(span,
+                Collections.singletonMap(AI_SAMPLING_PERCENTAGE.getKey(), samplingPercentage), span.getName());
+    }
+
+    // decides all of the buffered traces
+    @Override
+    public CompletableResultCode flush() {
+        synchronized (this) {
+            List<SpanData> kept = new ArrayList<>();
+            Iterator<BufferedTrace> i = traces.values().iterator();
+            while (i.hasNext()) {
+                BufferedTrace trace = i.next();
+                i.remove();
+                decideRemoved(trace, kept);
+            }
+            exportKept(kept);
+        }
+        return delegate.flush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        flush();
+        scheduledExecutor.shutdown();
+        return delegate.shutdown();
+    }
+
+    // the number of traces which have been buffered
+    public long getBufferedTraceCount() {
+        return bufferedTraceCount.get();
+    }
+
+    // the number of traces which were decided before their local root ended, to stay under the buffer limit
+    public long getEvictedTraceCount() {
+        return evictedTraceCount.get();
+    }
+
+    public long getKeptTraceCount() {
+        return keptTraceCount.get();
+    }
+
+    public long getDroppedTraceCount() {
+        return droppedTraceCount.get();
+    }
+
+    // the number of spans currently buffered
+    public synchronized int getBufferedSpanCount() {
+        return bufferedSpanCount;
+    }
+
+    private class BufferedTrace {
+
+        private final String traceId;
+        private final long startNanos;
+        private final List<SpanData> spans = new ArrayList<>();
+        private boolean error;
+        private boolean slow;
+
+        private BufferedTrace(String traceId, long startNanos) {
+            this.traceId = traceId;
+            this.startNanos = startNanos;
+        }
+
+        private void add(SpanData span) {
+            spans.add(span);
+            if (!span.getStatus().isOk()) {
+                error = true;
+            }
+            if (span.getEndEpochNanos() - span.getStartEpochNanos() > latencyThresholdNanos) {
+                slow = true;
+            }
+        }
+    }
+}
@@ -60,6 +60,10 @@ public final class TraceIdBasedSampler implements Sampler {
         return alwaysOnDecision;
     }
 
+    public double getSamplingPercentage() {
+        return samplingPercentage;
+    }
+
     @Override
     public String getDescription() {
         return "ApplicationInsights-specific trace id based sampler, with sampling percentage: " + samplingPercentage;
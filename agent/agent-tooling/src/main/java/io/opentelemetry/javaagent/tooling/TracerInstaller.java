@@ -1,19 +1,29 @@
 package io.opentelemetry.javaagent.tooling;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.agent.AsyncExporter;
+import com.microsoft.applicationinsights.agent.DependencyAggregator;
 import com.microsoft.applicationinsights.agent.Exporter;
+import com.microsoft.applicationinsights.agent.LogCaptureLimiter;
+import com.microsoft.applicationinsights.agent.StandardMetricsExporter;
 import com.microsoft.applicationinsights.agent.bootstrap.MainEntryPoint;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.DependencyAggregation;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ExportQueue;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ExportQueueDropPolicy;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.LogCaptureLimits;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.LoggerLimit;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorConfig;
-import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorType;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.StandardMetrics;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.TailSampling;
 import com.microsoft.applicationinsights.agent.internal.Global;
 import com.microsoft.applicationinsights.agent.internal.sampling.Samplers;
-import com.microsoft.applicationinsights.agent.internal.processors.ExporterWithAttributeProcessor;
-import com.microsoft.applicationinsights.agent.internal.processors.ExporterWithSpanProcessor;
+import com.microsoft.applicationinsights.agent.internal.sampling.SamplingPercentage;
+import com.microsoft.applicationinsights.agent.internal.sampling.TailSamplingExporter;
+import com.microsoft.applicationinsights.agent.internal.processors.ExporterWithProcessors;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.context.propagation.DefaultContextPropagators;
 import io.opentelemetry.instrumentation.api.aiappid.AiHttpTraceContext;
@@ -27,9 +37,6 @@ public class TracerInstaller {
     public static void installAgentTracer() {
         TelemetryClient telemetryClient = Global.getTelemetryClient();
         Configuration config = MainEntryPoint.getConfiguration();
-        List<ProcessorConfig> processors = new ArrayList<>(config.preview.processors);
-        // Reversing the order of processors before passing it to SpanProcessor
-        Collections.reverse(processors);
         if (telemetryClient == null) {
             // agent failed during startup
             return;
@@ -40,31 +47,67 @@ public class TracerInstaller {
 
         OpenTelemetrySdk.getGlobalTracerManagement().updateActiveTraceConfig(
                 TraceConfig.getDefault().toBuilder()
-                        .setSampler(Samplers.getSampler(Global.getSamplingPercentage()))
+                        .setSampler(Samplers.getSampler(
+                                SamplingPercentage.roundToNearest(config.sampling.percentage), config.preview))
                         .build());
-        // if changing the span processor to something async, flush it in the shutdown hook before flushing TelemetryClient
-        if (!processors.isEmpty()) {
-            SpanExporter currExporter = null;
-            for (ProcessorConfig processorConfig : processors) {
-
-                if (currExporter == null) {
-                    currExporter = processorConfig.type == ProcessorType.attribute ?
-                            new ExporterWithAttributeProcessor(processorConfig, new Exporter(telemetryClient)) :
-                            new ExporterWithSpanProcessor(processorConfig, new Exporter(telemetryClient));
 
-                } else {
-                    currExporter = processorConfig.type == ProcessorType.attribute ?
-                            new ExporterWithAttributeProcessor(processorConfig, currExporter) :
-                            new ExporterWithSpanProcessor(processorConfig, currExporter);
-                }
+        StandardMetrics standardMetrics = config.preview.standardMetrics;
+        DependencyAggregation dependencyAggregation = config.preview.dependencyAggregation;
+        DependencyAggregator dependencyAggregator = null;
+        if (!dependencyAggregation.types.isEmpty()) {
+            dependencyAggregator = new DependencyAggregator(dependencyAggregation.types,
+                    dependencyAggregation.maxDurationMillis, Math.max(1, dependencyAggregation.maxAgeSeconds));
+        }
+        LogCaptureLimits logCaptureLimits = config.preview.logCaptureLimits;
+        LogCaptureLimiter logCaptureLimiter = null;
+        if (!logCaptureLimits.loggers.isEmpty()) {
+            List<LogCaptureLimiter.Rule> rules = new ArrayList<>();
+            for (LoggerLimit limit : logCaptureLimits.loggers) {
+                rules.add(new LogCaptureLimiter.Rule(limit.loggerNamePrefix, limit.threshold, limit.maxPerSecond,
+                        limit.burst));
             }
+            logCaptureLimiter = new LogCaptureLimiter(rules, Math.max(1, logCaptureLimits.reportIntervalSeconds));
+        }
+        SpanExporter currExporter = Exporter.builder(telemetryClient)
+                .setStandardMetricsExtracted(standardMetrics.enabled)
+                .setDependencyAggregator(dependencyAggregator)
+                .setLogCaptureLimiter(logCaptureLimiter)
+                .setTelemetryPoolSize(Math.max(0, config.preview.telemetryPoolSize))
+                .setMaxExceptionStackFrames(config.preview.maxExceptionStackFrames)
+                .build();
+        List<ProcessorConfig> processors = config.preview.processors;
+        if (!processors.isEmpty()) {
+            // all of the processors are applied in a single pass, in the configured order
+            currExporter = ExporterWithProcessors.create(processors, currExporter);
+        }
+
+        TailSampling tailSampling = config.preview.tailSampling;
+        if (tailSampling.enabled) {
+            // ahead of the processors, so that they are not applied to the spans which are dropped
+            currExporter = new TailSamplingExporter(currExporter,
+                    SamplingPercentage.roundToNearest(tailSampling.percentage), tailSampling.latencyThresholdMillis,
+                    tailSampling.decisionTimeoutSeconds, tailSampling.maxBufferedSpans);
+        }
 
-            OpenTelemetrySdk.getGlobalTracerManagement().addSpanProcessor(SimpleSpanProcessor.builder(currExporter).build());
+        // the async exporter is flushed in the shutdown hook before flushing TelemetryClient
+        ExportQueue exportQueue = config.preview.exportQueue;
+        AsyncExporter asyncExporter = new AsyncExporter(currExporter, exportQueue.maxQueueSize,
+                exportQueue.maxExportBatchSize, exportQueue.dropPolicy == ExportQueueDropPolicy.dropOldest);
+        Global.setAsyncExporter(asyncExporter);
+        currExporter = asyncExporter;
 
-        } else {
-            OpenTelemetrySdk.getGlobalTracerManagement()
-                    .addSpanProcessor(SimpleSpanProcessor.builder(new Exporter(telemetryClient)).build());
+        if (standardMetrics.enabled) {
+            // the metrics are extracted from every span, including the spans which are not sampled
+            // (see RecordOnlySampler), on the threads which end the spans, and ahead of the export queue and tail
+            // sampling, so that only the sampled spans are queued and the spans which the queue drops are still counted
+            StandardMetricsExporter standardMetricsExporter =
+                    new StandardMetricsExporter(currExporter, telemetryClient, standardMetrics.maxSeries);
+            Global.setStandardMetricsExporter(standardMetricsExporter);
+            currExporter = standardMetricsExporter;
         }
+
+        OpenTelemetrySdk.getGlobalTracerManagement().addSpanProcessor(SimpleSpanProcessor.builder(currExporter)
+                .setExportOnlySampled(!standardMetrics.enabled).build());
     }
 
     public static void logVersionInfo() {
@@ -0,0 +1,52 @@
+package com.microsoft.applicationinsights.agent.internal.processors;
+
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorAction;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorActionType;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorHashAlgorithm;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class AttributeHasherTest {
+
+    @Test
+    public void sha1IsDefaultTest() {
+        AttributeHasher hasher = AttributeHasher.create(createAction(null, null));
+        assertEquals(DigestUtils.sha1Hex("user1"), hasher.hash("user1"));
+    }
+
+    @Test
+    public void hmacSha256Test() {
+        // test case 2 from RFC 4231
+        AttributeHasher hasher = AttributeHasher.create(createAction(ProcessorHashAlgorithm.hmacSha256, "Jefe"));
+        assertEquals("5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843",
+                hasher.hash("what do ya want for nothing?"));
+    }
+
+    @Test
+    public void fnv1a64Test() {
+        AttributeHasher hasher = AttributeHasher.create(createAction(ProcessorHashAlgorithm.fnv1a64, null));
+        assertEquals("cbf29ce484222325", hasher.hash(""));
+        assertEquals("af63dc4c8601ec8c", hasher.hash("a"));
+    }
+
+    @Test
+    public void repeatedValuesAreMemoizedTest() {
+        AttributeHasher hasher = AttributeHasher.create(createAction(null, null));
+        String hash = hasher.hash("tenant1");
+        assertEquals(hash, hasher.hash("tenant1"));
+        assertEquals(hash, hasher.hash("tenant1"));
+        assertEquals(2, hasher.getCache().getHitCount());
+        assertEquals(1, hasher.getCache().getMissCount());
+    }
+
+    private static ProcessorAction createAction(ProcessorHashAlgorithm algorithm, String key) {
+        ProcessorAction action = new ProcessorAction();
+        action.key = "enduser.id";
+        action.action = ProcessorActionType.hash;
+        action.hashAlgorithm = algorithm;
+        action.hashKey = key;
+        return action;
+    }
+}
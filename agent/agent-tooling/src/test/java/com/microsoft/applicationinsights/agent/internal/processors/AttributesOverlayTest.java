@@ -0,0 +1,68 @@
+package com.microsoft.applicationinsights.agent.internal.processors;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.opentelemetry.api.common.AttributeConsumer;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class AttributesOverlayTest {
+
+    @Test
+    public void mergedViewTest() {
+        Attributes original = Attributes.of(
+                AttributeKey.stringKey("one"), "1",
+                AttributeKey.longKey("two"), 2L,
+                AttributeKey.stringKey("three"), "3");
+
+        Map<String, String> updates = new LinkedHashMap<>();
+        updates.put("one", "uno");
+        updates.put("two", null);
+        updates.put("four", "4");
+
+        AttributesOverlay overlay = new AttributesOverlay(original, updates);
+
+        assertEquals("uno", overlay.get(AttributeKey.stringKey("one")));
+        assertNull(overlay.get(AttributeKey.longKey("two")));
+        assertEquals("3", overlay.get(AttributeKey.stringKey("three")));
+        assertEquals("4", overlay.get(AttributeKey.stringKey("four")));
+        assertNull(overlay.get(AttributeKey.longKey("four")));
+        assertEquals(3, overlay.size());
+
+        final Map<String, Object> visited = new LinkedHashMap<>();
+        overlay.forEach(new AttributeConsumer() {
+            @Override
+            public <T> void accept(AttributeKey<T> key, T value) {
+                visited.put(key.getKey(), value);
+            }
+        });
+        assertEquals(3, visited.size());
+        assertEquals("uno", visited.get("one"));
+        assertEquals("3", visited.get("three"));
+        assertEquals("4", visited.get("four"));
+    }
+
+    @Test
+    public void typedUpdatesTest() {
+        Attributes original = Attributes.of(
+                AttributeKey.stringKey("one"), "1",
+                AttributeKey.doubleKey("two"), 2.0);
+
+        Map<String, Object> updates = new LinkedHashMap<>();
+        updates.put("two", 0.5);
+        updates.put("three", 3L);
+
+        AttributesOverlay overlay = new AttributesOverlay(original, updates);
+
+        assertEquals(Double.valueOf(0.5), overlay.get(AttributeKey.doubleKey("two")));
+        assertNull(overlay.get(AttributeKey.stringKey("two")));
+        assertEquals(Long.valueOf(3), overlay.get(AttributeKey.longKey("three")));
+        assertEquals(3, overlay.size());
+        assertEquals(Double.valueOf(0.5), overlay.asMap().get(AttributeKey.doubleKey("two")));
+        assertEquals(Long.valueOf(3), overlay.asMap().get(AttributeKey.longKey("three")));
+    }
+}
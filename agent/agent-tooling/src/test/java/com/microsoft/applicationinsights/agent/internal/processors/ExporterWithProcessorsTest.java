@@ -0,0 +1,166 @@
+package com.microsoft.applicationinsights.agent.internal.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.NameConfig;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorAction;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorActionType;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorAttribute;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorConfig;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorIncludeExclude;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorMatchType;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorType;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.ConfigurationBuilder.ConfigurationException;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class ExporterWithProcessorsTest {
+
+    @Test
+    public void laterProcessorsSeeEarlierChangesTest() {
+        MockExporter mockExporter = new MockExporter();
+
+        ProcessorConfig insertConfig = new ProcessorConfig();
+        insertConfig.type = ProcessorType.attribute;
+        insertConfig.processorName = "insert";
+        ProcessorAction insertAction = new ProcessorAction();
+        insertAction.key = "region";
+        insertAction.value = "west";
+        insertAction.action = ProcessorActionType.insert;
+        insertConfig.actions = Collections.singletonList(insertAction);
+
+        ProcessorConfig renameConfig = new ProcessorConfig();
+        renameConfig.type = ProcessorType.span;
+        renameConfig.processorName = "rename";
+        renameConfig.include = new ProcessorIncludeExclude();
+        renameConfig.include.matchType = ProcessorMatchType.strict;
+        ProcessorAttribute includeAttribute = new ProcessorAttribute();
+        includeAttribute.key = "region";
+        includeAttribute.value = "west";
+        renameConfig.include.attributes = Collections.singletonList(includeAttribute);
+        renameConfig.name = new NameConfig();
+        renameConfig.name.fromAttributes = Arrays.asList("db.svc", "region");
+        renameConfig.name.separator = "::";
+
+        ProcessorConfig deleteConfig = new ProcessorConfig();
+        deleteConfig.type = ProcessorType.attribute;
+        deleteConfig.processorName = "delete";
+        ProcessorAction deleteAction = new ProcessorAction();
+        deleteAction.key = "region";
+        deleteAction.action = ProcessorActionType.delete;
+        deleteConfig.actions = Collections.singletonList(deleteAction);
+
+        SpanExporter exampleExporter = ExporterWithProcessors.create(
+                Arrays.asList(insertConfig, renameConfig, deleteConfig), mockExporter);
+
+        Span span = OpenTelemetry.getGlobalTracer("test").spanBuilder("svcA")
+                .setAttribute("db.svc", "location")
+                .setAttribute("two", 2L)
+                .startSpan();
+
+        SpanData spanData = ((ReadableSpan) span).toSpanData();
+
+        List<SpanData> spans = new ArrayList<>();
+        spans.add(spanData);
+        exampleExporter.export(spans);
+
+        // verify that resulting spans are filtered in the way we want
+        List<SpanData> result = mockExporter.getSpans();
+        SpanData resultSpan = result.get(0);
+        assertEquals("location::west", resultSpan.getName());
+        assertNull(resultSpan.getAttributes().get(AttributeKey.stringKey("region")));
+        assertEquals("location", resultSpan.getAttributes().get(AttributeKey.stringKey("db.svc")));
+        assertEquals(Long.valueOf(2L), resultSpan.getAttributes().get(AttributeKey.longKey("two")));
+    }
+
+    @Test
+    public void unchangedSpanIsNotRebuiltTest() {
+        MockExporter mockExporter = new MockExporter();
+
+        ProcessorConfig config = new ProcessorConfig();
+        config.type = ProcessorType.attribute;
+        config.processorName = "update";
+        ProcessorAction action = new ProcessorAction();
+        action.key = "missing";
+        action.value = "value";
+        action.action = ProcessorActionType.update;
+        config.actions = Collections.singletonList(action);
+
+        SpanExporter exampleExporter = ExporterWithProcessors.create(Collections.singletonList(config), mockExporter);
+
+        Span span = OpenTelemetry.getGlobalTracer("test").spanBuilder("svcA")
+                .setAttribute("one", "1")
+                .startSpan();
+
+        SpanData spanData = ((ReadableSpan) span).toSpanData();
+
+        List<SpanData> spans = new ArrayList<>();
+        spans.add(spanData);
+        exampleExporter.export(spans);
+
+        assertSame(spanData, mockExporter.getSpans().get(0));
+    }
+
+    @Test
+    public void filterDropsMatchingSpansTest() {
+        MockExporter mockExporter = new MockExporter();
+
+        ProcessorConfig filterConfig = new ProcessorConfig();
+        filterConfig.type = ProcessorType.filter;
+        filterConfig.processorName = "healthChecks";
+        filterConfig.include = new ProcessorIncludeExclude();
+        filterConfig.include.matchType = ProcessorMatchType.strict;
+        filterConfig.include.spanNames = Arrays.asList("GET /health", "GET /ready");
+
+        ProcessorConfig insertConfig = new ProcessorConfig();
+        insertConfig.type = ProcessorType.attribute;
+        insertConfig.processorName = "insert";
+        ProcessorAction insertAction = new ProcessorAction();
+        insertAction.key = "region";
+        insertAction.value = "west";
+        insertAction.action = ProcessorActionType.insert;
+        insertConfig.actions = Collections.singletonList(insertAction);
+
+        FilterProcessor filterProcessor = (FilterProcessor) ExporterWithProcessors.createProcessor(filterConfig);
+        AgentProcessor insertProcessor = ExporterWithProcessors.createProcessor(insertConfig);
+        SpanExporter exampleExporter = new ExporterWithProcessors(
+                Arrays.asList(filterProcessor, insertProcessor), mockExporter);
+
+        List<SpanData> spans = new ArrayList<>();
+        for (String name : Arrays.asList("GET /health", "GET /users", "GET /ready")) {
+            Span span = OpenTelemetry.getGlobalTracer("test").spanBuilder(name).startSpan();
+            spans.add(((ReadableSpan) span).toSpanData());
+        }
+        exampleExporter.export(spans);
+
+        List<SpanData> result = mockExporter.getSpans();
+        assertEquals(1, result.size());
+        assertEquals("GET /users", result.get(0).getName());
+        assertEquals("west", result.get(0).getAttributes().get(AttributeKey.stringKey("region")));
+        assertEquals(2, filterProcessor.getDroppedCount());
+        assertEquals(2, filterProcessor.takeDroppedCountSinceLastReport());
+        assertEquals(0, filterProcessor.takeDroppedCountSinceLastReport());
+
+        exampleExporter.export(spans);
+        assertEquals(4, filterProcessor.getDroppedCount());
+        assertEquals(2, filterProcessor.takeDroppedCountSinceLastReport());
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void filterWithoutIncludeIsInvalidTest() {
+        ProcessorConfig config = new ProcessorConfig();
+        config.type = ProcessorType.filter;
+        config.processorName = "everything";
+        ExporterWithProcessors.createProcessor(config);
+    }
+}
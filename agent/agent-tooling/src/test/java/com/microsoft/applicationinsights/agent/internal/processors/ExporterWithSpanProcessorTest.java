@@ -442,4 +442,32 @@ public class ExporterWithSpanProcessorTest {
         assertEquals("donot/change", resultSpanD.getName());
 
     }
+
+    @Test
+    public void ExtractAttributesFromCachedSpanNameTest() {
+        ProcessorConfig config = new ProcessorConfig();
+        config.type = ProcessorType.span;
+        config.processorName = "ExtractAttributesFromCachedSpanName";
+        config.name = new NameConfig();
+        ToAttributeConfig toAttributeConfig = new ToAttributeConfig();
+        toAttributeConfig.rules = Arrays.asList("^/api/v1/document/(?<documentId>.*)/update$");
+        config.name.toAttributes = toAttributeConfig;
+        SpanProcessor spanProcessor = SpanProcessor.create(config);
+
+        for (int i = 0; i < 3; i++) {
+            Span span = OpenTelemetry.getGlobalTracer("test").spanBuilder("/api/v1/document/12345678/update")
+                    .setAttribute("one", "1")
+                    .startSpan();
+            ProcessedSpan processedSpan = new ProcessedSpan(((ReadableSpan) span).toSpanData());
+            spanProcessor.process(processedSpan);
+            SpanData resultSpan = processedSpan.toSpanData();
+
+            assertEquals("/api/v1/document/{documentId}/update", resultSpan.getName());
+            assertEquals("12345678", resultSpan.getAttributes().get(AttributeKey.stringKey("documentId")));
+            assertEquals("1", resultSpan.getAttributes().get(AttributeKey.stringKey("one")));
+        }
+
+        assertEquals(2, spanProcessor.getSpanNameRewriteCacheHitCount());
+        assertEquals(1, spanProcessor.getSpanNameRewriteCacheMissCount());
+    }
 }
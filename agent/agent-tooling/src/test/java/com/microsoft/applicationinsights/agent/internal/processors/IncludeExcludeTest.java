@@ -0,0 +1,76 @@
+package com.microsoft.applicationinsights.agent.internal.processors;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorAttribute;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorIncludeExclude;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorMatchType;
+import com.microsoft.applicationinsights.agent.internal.processors.AgentProcessor.IncludeExclude;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class IncludeExcludeTest {
+
+    @Test
+    public void strictMatchTest() {
+        ProcessorIncludeExclude config = new ProcessorIncludeExclude();
+        config.matchType = ProcessorMatchType.strict;
+        config.spanNames = Arrays.asList("svcA", "svcB");
+        ProcessorAttribute attribute = new ProcessorAttribute();
+        attribute.key = "one";
+        attribute.value = "1";
+        config.attributes = Collections.singletonList(attribute);
+
+        IncludeExclude includeExclude = AgentProcessor.getNormalizedIncludeExclude(config);
+
+        assertTrue(includeExclude.isMatch(createSpan("svcB", "1")));
+        assertFalse(includeExclude.isMatch(createSpan("svcC", "1")));
+        assertFalse(includeExclude.isMatch(createSpan("svcA", "2")));
+    }
+
+    @Test
+    public void regexpMatchTest() {
+        ProcessorIncludeExclude config = new ProcessorIncludeExclude();
+        config.matchType = ProcessorMatchType.regexp;
+        config.spanNames = Arrays.asList("^svc[AB]$", "^GET /users/.*");
+        ProcessorAttribute attribute = new ProcessorAttribute();
+        attribute.key = "one";
+        attribute.value = "^[0-9]+$";
+        config.attributes = Collections.singletonList(attribute);
+
+        IncludeExclude includeExclude = AgentProcessor.getNormalizedIncludeExclude(config);
+
+        assertTrue(includeExclude.isMatch(createSpan("svcA", "1")));
+        assertTrue(includeExclude.isMatch(createSpan("GET /users/{id}", "12")));
+        assertFalse(includeExclude.isMatch(createSpan("svcC", "1")));
+        assertFalse(includeExclude.isMatch(createSpan("svcA", "x")));
+        // second time around the span name result comes from the cache
+        assertTrue(includeExclude.isMatch(createSpan("svcA", "1")));
+        assertFalse(includeExclude.isMatch(createSpan("svcC", "1")));
+    }
+
+    @Test
+    public void regexpWithBackReferencesMatchTest() {
+        ProcessorIncludeExclude config = new ProcessorIncludeExclude();
+        config.matchType = ProcessorMatchType.regexp;
+        config.spanNames = Arrays.asList("^(a)\\1$", "^(b)\\1$");
+
+        IncludeExclude includeExclude = AgentProcessor.getNormalizedIncludeExclude(config);
+
+        assertTrue(includeExclude.isMatch(createSpan("aa", "1")));
+        assertTrue(includeExclude.isMatch(createSpan("bb", "1")));
+        assertFalse(includeExclude.isMatch(createSpan("ab", "1")));
+    }
+
+    private static ProcessedSpan createSpan(String name, String one) {
+        Span span = OpenTelemetry.getGlobalTracer("test").spanBuilder(name)
+                .setAttribute("one", one)
+                .startSpan();
+        return new ProcessedSpan(((ReadableSpan) span).toSpanData());
+    }
+}
@@ -0,0 +1,81 @@
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveSamplerTest {
+
+    private static final String TRACE_ID = "0123456789abcdef0123456789abcdef";
+
+    @Test
+    public void testAdjustsToObservedVolume() {
+        FakeTicker ticker = new FakeTicker();
+        AdaptiveSampler sampler = new AdaptiveSampler(100, 10, 1, false, ticker);
+
+        assertEquals(100, sampler.getSamplingPercentage(), 0);
+
+        // peak: ~1000 spans per second
+        for (int i = 0; i < 999; i++) {
+            shouldSample(sampler);
+        }
+        ticker.advance(1);
+        shouldSample(sampler);
+
+        assertEquals(1, sampler.getSamplingPercentage(), 0);
+
+        // night: 1 span per second, the moving average slowly decays
+        for (int i = 0; i < 5; i++) {
+            ticker.advance(1);
+            shouldSample(sampler);
+        }
+        double samplingPercentage = sampler.getSamplingPercentage();
+        assertTrue(samplingPercentage > 1 && samplingPercentage < 100);
+        // always rounded to 1/N
+        assertEquals(Math.round(100 / samplingPercentage), 100 / samplingPercentage, 0.0001);
+
+        for (int i = 0; i < 30; i++) {
+            ticker.advance(1);
+            shouldSample(sampler);
+        }
+        assertEquals(100, sampler.getSamplingPercentage(), 0);
+    }
+
+    @Test
+    public void testNeverExceedsMaxSamplingPercentage() {
+        FakeTicker ticker = new FakeTicker();
+        AdaptiveSampler sampler = new AdaptiveSampler(50, 1000, 1, false, ticker);
+
+        for (int i = 0; i < 10; i++) {
+            ticker.advance(1);
+            shouldSample(sampler);
+        }
+        assertEquals(50, sampler.getSamplingPercentage(), 0);
+    }
+
+    private static void shouldSample(AdaptiveSampler sampler) {
+        sampler.shouldSample(null, TRACE_ID, "test", Span.Kind.SERVER, Attributes.empty(),
+                Collections.<SpanData.Link>emptyList());
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long seconds) {
+            nanos += TimeUnit.SECONDS.toNanos(seconds);
+        }
+    }
+}
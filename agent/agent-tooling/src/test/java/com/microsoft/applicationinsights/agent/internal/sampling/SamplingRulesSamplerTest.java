@@ -0,0 +1,170 @@
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorAttribute;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorMatchType;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.SamplingRule;
+import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.SamplingRuleSpanKind;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.ReadableAttributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult.Decision;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class SamplingRulesSamplerTest {
+
+    private static final String TRACE_ID = "0123456789abcdef0123456789abcdef";
+    private static final String SPAN_ID = "0123456789abcdef";
+
+    private static final AttributeKey<Double> AI_SAMPLING_PERCENTAGE =
+            AttributeKey.doubleKey("ai.internal.sampling.percentage");
+
+    @Test
+    public void testFirstMatchingRuleApplies() {
+        SamplingRule health = new SamplingRule();
+        health.spanNames = Arrays.asList("GET /health", "GET /ready");
+        health.percentage = 0.0;
+
+        SamplingRule redis = new SamplingRule();
+        redis.kind = SamplingRuleSpanKind.client;
+        ProcessorAttribute dbSystem = new ProcessorAttribute();
+        dbSystem.key = "db.system";
+        dbSystem.value = "redis";
+        redis.attributes = Collections.singletonList(dbSystem);
+        redis.percentage = 0.0;
+
+        SamplingRule users = new SamplingRule();
+        users.spanNames = Collections.singletonList("^GET /users/");
+        users.matchType = ProcessorMatchType.regexp;
+        users.percentage = 100.0;
+
+        SamplingRule everythingElse = new SamplingRule();
+        everythingElse.kind = SamplingRuleSpanKind.server;
+        everythingElse.percentage = 0.0;
+
+        Sampler sampler = new SamplingRulesSampler(Arrays.asList(health, redis, users, everythingElse),
+                Sampler.alwaysOn());
+
+        assertEquals(Decision.DROP, shouldSample(sampler, "GET /health", Span.Kind.SERVER, Attributes.empty()));
+        assertEquals(Decision.DROP, shouldSample(sampler, "GET", Span.Kind.CLIENT,
+                Attributes.of(AttributeKey.stringKey("db.system"), "redis")));
+        assertEquals(Decision.RECORD_AND_SAMPLE, shouldSample(sampler, "GET", Span.Kind.CLIENT,
+                Attributes.of(AttributeKey.stringKey("db.system"), "postgresql")));
+        assertEquals(Decision.RECORD_AND_SAMPLE, shouldSample(sampler, "GET /users/{id}", Span.Kind.SERVER,
+                Attributes.empty()));
+        assertEquals(Decision.DROP, shouldSample(sampler, "GET /orders", Span.Kind.SERVER, Attributes.empty()));
+        assertEquals(Decision.RECORD_AND_SAMPLE, shouldSample(sampler, "GET /orders", Span.Kind.INTERNAL,
+                Attributes.empty()));
+    }
+
+    @Test
+    public void testLocalChildFollowsDroppedParent() {
+        SamplingRule everything = new SamplingRule();
+        everything.percentage = 100.0;
+        Sampler sampler = new SamplingRulesSampler(Collections.singletonList(everything), Sampler.alwaysOn());
+
+        Context parent = Context.root().with(Span.wrap(SpanContext.create(TRACE_ID, SPAN_ID,
+                TraceFlags.getDefault(), TraceState.getDefault())));
+        SamplingResult result = sampler.shouldSample(parent, TRACE_ID, "child", Span.Kind.CLIENT, Attributes.empty(),
+                Collections.<SpanData.Link>emptyList());
+        assertEquals(Decision.DROP, result.getDecision());
+    }
+
+    @Test
+    public void testLocalChildFollowsSampledParent() {
+        SamplingRule nothing = new SamplingRule();
+        nothing.percentage = 0.0;
+        Sampler sampler = new SamplingRulesSampler(Collections.singletonList(nothing), Sampler.alwaysOn());
+
+        Span parentSpan = OpenTelemetry.getGlobalTracer("test").spanBuilder("parent")
+                .setAttribute(AI_SAMPLING_PERCENTAGE, 50.0)
+                .startSpan();
+        SamplingResult result = sampler.shouldSample(Context.root().with(parentSpan), TRACE_ID, "child",
+                Span.Kind.CLIENT, Attributes.empty(), Collections.<SpanData.Link>emptyList());
+        assertEquals(Decision.RECORD_AND_SAMPLE, result.getDecision());
+        assertEquals(Double.valueOf(50.0), result.getAttributes().get(AI_SAMPLING_PERCENTAGE));
+    }
+
+    @Test
+    public void testLocalChildCarriesSamplingPercentageOfLocalRoot() {
+        final SamplingResult sampledAt25 = new SamplingResult() {
+            @Override
+            public Decision getDecision() {
+                return Decision.RECORD_AND_SAMPLE;
+            }
+
+            @Override
+            public Attributes getAttributes() {
+                return Attributes.of(AI_SAMPLING_PERCENTAGE, 25.0);
+            }
+        };
+        Sampler defaultSampler = new Sampler() {
+            @Override
+            public SamplingResult shouldSample(Context parentContext, String traceId, String name, Span.Kind spanKind,
+                                               ReadableAttributes attributes, List<SpanData.Link> links) {
+                return sampledAt25;
+            }
+
+            @Override
+            public String getDescription() {
+                return "sampled at 25";
+            }
+        };
+        Sampler sampler = new SamplingRulesSampler(Collections.<SamplingRule>emptyList(), defaultSampler);
+
+        assertEquals(Decision.RECORD_AND_SAMPLE, shouldSample(sampler, "root", Span.Kind.SERVER, Attributes.empty()));
+
+        // the parent is not a ReadableSpan, so the sampling percentage can only come from the local root decision
+        Context parent = Context.root().with(Span.wrap(SpanContext.create(TRACE_ID, SPAN_ID,
+                TraceFlags.getSampled(), TraceState.getDefault())));
+        SamplingResult result = sampler.shouldSample(parent, TRACE_ID, "child", Span.Kind.CLIENT, Attributes.empty(),
+                Collections.<SpanData.Link>emptyList());
+        assertEquals(Decision.RECORD_AND_SAMPLE, result.getDecision());
+        assertEquals(Double.valueOf(25.0), result.getAttributes().get(AI_SAMPLING_PERCENTAGE));
+    }
+
+    @Test
+    public void testSpanNamePatternsWithBackReferencesAreNotCombined() {
+        SamplingRule rule = new SamplingRule();
+        rule.spanNames = Arrays.asList("^(a)x$", "^(b)\\1$");
+        rule.matchType = ProcessorMatchType.regexp;
+        rule.percentage = 0.0;
+        Sampler sampler = new SamplingRulesSampler(Collections.singletonList(rule), Sampler.alwaysOn());
+
+        assertEquals(Decision.DROP, shouldSample(sampler, "ax", Span.Kind.SERVER, Attributes.empty()));
+        assertEquals(Decision.DROP, shouldSample(sampler, "bb", Span.Kind.SERVER, Attributes.empty()));
+        assertEquals(Decision.RECORD_AND_SAMPLE, shouldSample(sampler, "ab", Span.Kind.SERVER, Attributes.empty()));
+    }
+
+    @Test
+    public void testRemoteParentIsIgnored() {
+        SamplingRule nothing = new SamplingRule();
+        nothing.percentage = 0.0;
+        Sampler sampler = new SamplingRulesSampler(Collections.singletonList(nothing), Sampler.alwaysOn());
+
+        Context parent = Context.root().with(Span.wrap(SpanContext.createFromRemoteParent(TRACE_ID, SPAN_ID,
+                TraceFlags.getSampled(), TraceState.getDefault())));
+        SamplingResult result = sampler.shouldSample(parent, TRACE_ID, "request", Span.Kind.SERVER,
+                Attributes.empty(), Collections.<SpanData.Link>emptyList());
+        assertEquals(Decision.DROP, result.getDecision());
+    }
+
+    private static Decision shouldSample(Sampler sampler, String name, Span.Kind kind, ReadableAttributes attributes) {
+        return sampler.shouldSample(null, TRACE_ID, name, kind, attributes, Collections.<SpanData.Link>emptyList())
+                .getDecision();
+    }
+}
@@ -0,0 +1,133 @@
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.microsoft.applicationinsights.agent.internal.processors.MockExporter;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TailSamplingExporterTest {
+
+    private static final String ROOT_SPAN_ID = "0000000000000000";
+
+    private MockExporter mockExporter;
+    private FakeTicker ticker;
+
+    @Before
+    public void setup() {
+        mockExporter = new MockExporter();
+        ticker = new FakeTicker();
+    }
+
+    @Test
+    public void testErroredTraceIsKept() {
+        TailSamplingExporter exporter = new TailSamplingExporter(mockExporter, 0, 1000, 30, 100, ticker);
+
+        SpanData child = createSpan("0123456789abcdef0123456789abcdef", "1111111111111111", false, 10);
+        SpanData root = createSpan("0123456789abcdef0123456789abcdef", ROOT_SPAN_ID, true, 10);
+
+        exporter.export(Collections.singletonList(child));
+        assertTrue(mockExporter.getSpans().isEmpty());
+        assertEquals(1, exporter.getBufferedSpanCount());
+
+        exporter.export(Collections.singletonList(root));
+        assertEquals(Arrays.asList(child, root), mockExporter.getSpans());
+        assertEquals(0, exporter.getBufferedSpanCount());
+        assertEquals(1, exporter.getKeptTraceCount());
+    }
+
+    @Test
+    public void testSlowTraceIsKeptAndFastTraceIsDropped() {
+        TailSamplingExporter exporter = new TailSamplingExporter(mockExporter, 0, 1000, 30, 100, ticker);
+
+        SpanData slow = createSpan("0123456789abcdef0123456789abcdef", ROOT_SPAN_ID, true,
+                TimeUnit.SECONDS.toNanos(2));
+        SpanData fast = createSpan("fedcba9876543210fedcba9876543210", ROOT_SPAN_ID, true, 10);
+        exporter.export(Arrays.asList(slow, fast));
+
+        assertEquals(Collections.singletonList(slow), mockExporter.getSpans());
+        assertEquals(1, exporter.getKeptTraceCount());
+        assertEquals(1, exporter.getDroppedTraceCount());
+
+        // late spans follow the decision made when the local root ended
+        exporter.export(Collections.singletonList(
+                createSpan("fedcba9876543210fedcba9876543210", "1111111111111111", false, 10)));
+        assertEquals(1, mockExporter.getSpans().size());
+    }
+
+    @Test
+    public void testTimedOutAndEvictedTracesAreDecided() {
+        TailSamplingExporter exporter = new TailSamplingExporter(mockExporter, 0, 1000, 30, 2, ticker);
+
+        exporter.export(Collections.singletonList(
+                createSpan("0123456789abcdef0123456789abcdef", "1111111111111111", false, 10)));
+        exporter.export(Collections.singletonList(
+                createSpan("0123456789abcdef0123456789abcdef", "2222222222222222", false, 10)));
+        assertEquals(0, exporter.getEvictedTraceCount());
+
+        SpanData errored = createSpan("fedcba9876543210fedcba9876543210", "3333333333333333", true, 10);
+        exporter.export(Collections.singletonList(errored));
+        assertEquals(1, exporter.getEvictedTraceCount());
+        assertEquals(1, exporter.getBufferedSpanCount());
+        assertTrue(mockExporter.getSpans().isEmpty());
+
+        ticker.advance(31);
+        exporter.export(Collections.<SpanData>emptyList());
+        assertEquals(Collections.singletonList(errored), mockExporter.getSpans());
+        assertEquals(0, exporter.getBufferedSpanCount());
+        assertEquals(2, exporter.getBufferedTraceCount());
+    }
+
+    @Test
+    public void testKeptTraceIsStampedWithSamplingPercentage() {
+        TailSamplingExporter exporter = new TailSamplingExporter(mockExporter, 50, 1000, 30, 100, ticker);
+
+        // the sampling score of this trace id is below 50
+        SpanData root = createSpan("0123456789abcdef0123456789abcdef", ROOT_SPAN_ID, false, 10);
+        when(root.getAttributes()).thenReturn(Attributes.of(AttributeKey.stringKey("one"), "1"));
+        exporter.export(Collections.singletonList(root));
+
+        assertEquals(1, mockExporter.getSpans().size());
+        SpanData stamped = mockExporter.getSpans().get(0);
+        assertEquals(Double.valueOf(50), stamped.getAttributes().get(
+                AttributeKey.doubleKey("ai.internal.sampling.percentage")));
+        assertEquals("1", stamped.getAttributes().get(AttributeKey.stringKey("one")));
+        assertEquals(2, stamped.getAttributes().size());
+    }
+
+    private static SpanData createSpan(String traceId, String parentSpanId, boolean error, long durationNanos) {
+        SpanData.Status status = mock(SpanData.Status.class);
+        when(status.isOk()).thenReturn(!error);
+        SpanData span = mock(SpanData.class);
+        when(span.getTraceId()).thenReturn(traceId);
+        when(span.getParentSpanId()).thenReturn(parentSpanId);
+        when(span.hasRemoteParent()).thenReturn(false);
+        when(span.getStatus()).thenReturn(status);
+        when(span.getStartEpochNanos()).thenReturn(0L);
+        when(span.getEndEpochNanos()).thenReturn(durationNanos);
+        when(span.getAttributes()).thenReturn(Attributes.empty());
+        return span;
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long seconds) {
+            nanos += TimeUnit.SECONDS.toNanos(seconds);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Moves span export off of the application threads.
+ *
+ * Ended spans are placed on a bounded queue, and a single daemon worker drains the queue in batches
+ * into the delegate exporter (e.g. {@link Exporter}), so that telemetry construction, live metrics accounting
+ * and the channel buffer are no longer paid for on the thread that ends the span.
+ *
+ * When the queue is full, either the incoming span or the oldest queued span is dropped (see {@code dropOldest}).
+ *
+ * Only the worker calls the delegate exporter. {@link #flush()} places a marker on the queue behind the spans which
+ * are already queued, and waits for the worker to reach it, at which point everything ahead of it has been exported.
+ * The wait is bounded (see {@code flushTimeoutMillis}), so that a delegate which is stuck cannot hang the caller,
+ * e.g. the shutdown hook.
+ */
+public class AsyncExporter implements SpanExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncExporter.class);
+
+    private static final int LOG_DROPPED_SPANS_MODULUS = 10000;
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private static final long DEFAULT_FLUSH_TIMEOUT_MILLIS = 5000;
+
+    private final SpanExporter delegate;
+    // spans, and the markers of pending flushes
+    private final BlockingQueue<Object> queue;
+    private final int maxExportBatchSize;
+    private final boolean dropOldest;
+    private final long flushTimeoutMillis;
+
+    // markers which were at the head of the queue when it was full and the oldest item was dropped, everything ahead
+    // of them has already been taken by the worker, so they are released once the worker's current batch is exported
+    private final Queue<FlushMarker> displacedMarkers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong exportedCount = new AtomicLong();
+
+    private final Thread worker;
+
+    public AsyncExporter(SpanExporter delegate, int maxQueueSize, int maxExportBatchSize, boolean dropOldest) {
+        this(delegate, maxQueueSize, maxExportBatchSize, dropOldest, DEFAULT_FLUSH_TIMEOUT_MILLIS);
+    }
+
+    // visible for testing
+    AsyncExporter(SpanExporter delegate, int maxQueueSize, int maxExportBatchSize, boolean dropOldest,
+                  long flushTimeoutMillis) {
+        if (maxQueueSize < 1) {
+            throw new IllegalArgumentException("maxQueueSize must be positive: " + maxQueueSize);
+        }
+        if (maxExportBatchSize < 1) {
+            throw new IllegalArgumentException("maxExportBatchSize must be positive: " + maxExportBatchSize);
+        }
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(maxQueueSize);
+        this.maxExportBatchSize = maxExportBatchSize;
+        this.dropOldest = dropOldest;
+        this.flushTimeoutMillis = flushTimeoutMillis;
+        worker = ThreadPoolUtils.createDaemonThreadFactory(AsyncExporter.class).newThread(new Worker());
+        worker.start();
+    }
+
+    @Override
+    public CompletableResultCode export(Collection<SpanData> spans) {
+        for (SpanData span : spans) {
+            enqueue(span);
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private void enqueue(SpanData span) {
+        if (queue.offer(span)) {
+            return;
+        }
+        if (dropOldest) {
+            // the dropped span is the one removed from the head of the queue
+            // (the incoming span can still lose the race against other producers, in which case it is dropped instead)
+            Object oldest = queue.poll();
+            if (oldest instanceof FlushMarker) {
+                // flush markers are never dropped
+                displacedMarkers.add((FlushMarker) oldest);
+            }
+            if (queue.offer(span)) {
+                if (!(oldest instanceof FlushMarker)) {
+                    onDropped();
+                }
+                return;
+            }
+        }
+        onDropped();
+    }
+
+    private void onDropped() {
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped % LOG_DROPPED_SPANS_MODULUS == 1) {
+            logger.warn("span export queue is full, {} spans dropped so far", dropped);
+        }
+    }
+
+    /**
+     * Waits until the worker has exported everything that was queued when this was called, including any batch
+     * that is in the middle of being exported.
+     *
+     * Gives up and returns a failed result if that takes longer than the flush timeout, e.g. because the delegate
+     * is blocked.
+     */
+    @Override
+    public CompletableResultCode flush() {
+        long deadline = System.nanoTime() + MILLISECONDS.toNanos(flushTimeoutMillis);
+        FlushMarker marker = new FlushMarker();
+        try {
+            if (!queue.offer(marker, flushTimeoutMillis, MILLISECONDS)) {
+                if (worker.isAlive()) {
+                    return onFlushTimeout();
+                }
+                // e.g. flushed again after shutdown, nothing else takes from the queue anymore
+                exportRemaining();
+                return delegate.flush();
+            }
+            while (!marker.await(POLL_TIMEOUT_MILLIS)) {
+                if (!worker.isAlive()) {
+                    // only exported from this thread once the worker has stopped, so that the spans are never
+                    // exported concurrently
+                    exportRemaining();
+                    break;
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    return onFlushTimeout();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableResultCode.ofFailure();
+        }
+        return delegate.flush();
+    }
+
+    private CompletableResultCode onFlushTimeout() {
+        logger.warn("span export queue was not flushed within {} ms, {} spans are still queued", flushTimeoutMillis,
+                queue.size());
+        return CompletableResultCode.ofFailure();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        flush();
+        worker.interrupt();
+        return delegate.shutdown();
+    }
+
+    /**
+     * The number of spans currently waiting to be exported.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * The number of spans dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * The number of spans handed off to the delegate exporter.
+     */
+    public long getExportedCount() {
+        return exportedCount.get();
+    }
+
+    private void exportRemaining() {
+        List<Object> items = new ArrayList<>();
+        queue.drainTo(items);
+        List<SpanData> batch = new ArrayList<>(maxExportBatchSize);
+        exportItems(items, batch);
+        releaseDisplacedMarkers();
+    }
+
+    // exports the spans in order, a flush marker is released once the spans ahead of it have been exported
+    //
+    // items and batch are left empty on exit
+    private void exportItems(List<Object> items, List<SpanData> batch) {
+        for (Object item : items) {
+            if (item instanceof FlushMarker) {
+                exportBatch(batch);
+                ((FlushMarker) item).release();
+            } else {
+                batch.add((SpanData) item);
+            }
+        }
+        exportBatch(batch);
+        items.clear();
+    }
+
+    private void exportBatch(List<SpanData> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            delegate.export(batch);
+        } catch (Throwable t) {
+            logger.error(t.getMessage(), t);
+        }
+        exportedCount.addAndGet(batch.size());
+        batch.clear();
+    }
+
+    private void releaseDisplacedMarkers() {
+        FlushMarker marker;
+        while ((marker = displacedMarkers.poll()) != null) {
+            marker.release();
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            List<Object> items = new ArrayList<>(maxExportBatchSize);
+            List<SpanData> batch = new ArrayList<>(maxExportBatchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Object item = queue.poll(POLL_TIMEOUT_MILLIS, MILLISECONDS);
+                    if (item != null) {
+                        items.add(item);
+                        queue.drainTo(items, maxExportBatchSize - 1);
+                        exportItems(items, batch);
+                    }
+                    releaseDisplacedMarkers();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                    // the pending flushes must not wait forever
+                    for (Object item : items) {
+                        if (item instanceof FlushMarker) {
+                            ((FlushMarker) item).release();
+                        }
+                    }
+                    items.clear();
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private static class FlushMarker {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private void release() {
+            latch.countDown();
+        }
+
+        private boolean await(long timeoutMillis) throws InterruptedException {
+            return latch.await(timeoutMillis, MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Ticker;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Collapses successful, fast dependency calls of the configured types into one aggregated dependency item
+ * per operation id, type, target and name, with the count and the min/max duration of the calls as properties
+ * and the mean duration of the calls as the duration.
+ *
+ * The count is also encoded in the sampling percentage of the aggregated item, which is the sampling percentage of
+ * the calls divided by the count, so that the portal counts the item as that many calls of the mean duration, the
+ * same way it counts a sampled item as several items. The per-call attributes and links of the calls are not kept
+ * on an aggregated item, a single call is emitted as it was tracked.
+ *
+ * Failed and slow calls are not aggregated, they are exported individually.
+ *
+ * The aggregated items of an operation are emitted once its request has been exported (the request span ends after
+ * its dependency spans), or once they have been pending for longer than {@code maxAgeSeconds}, e.g. for dependency
+ * calls which are not made as part of a request.
+ */
+public class DependencyAggregator {
+
+    static final String AGGREGATED_COUNT = "aggregatedCount";
+    static final String AGGREGATED_MIN_DURATION = "aggregatedMinDurationMs";
+    static final String AGGREGATED_MAX_DURATION = "aggregatedMaxDurationMs";
+
+    // pending operations beyond this are emitted early, oldest first
+    private static final int MAX_PENDING_OPERATIONS = 10000;
+
+    private final Set<String> types;
+    private final long maxDurationMillis;
+    private final long maxAgeNanos;
+    private final Ticker ticker;
+
+    // in the order the operations were first seen, which is also the order in which they expire
+    private final LinkedHashMap<String, PendingOperation> pendingOperations = new LinkedHashMap<>();
+
+    // operations whose request has been exported since the last drain
+    private final Set<String> completedOperations = new HashSet<>();
+
+    /**
+     * @param types the dependency types to aggregate, e.g. {@code SQL} or {@code redis}
+     * @param maxDurationMillis calls which take longer than this are not aggregated
+     */
+    public DependencyAggregator(Collection<String> types, long maxDurationMillis, int maxAgeSeconds) {
+        this(types, maxDurationMillis, maxAgeSeconds, Ticker.systemTicker());
+    }
+
+    // visible for testing
+    DependencyAggregator(Collection<String> types, long maxDurationMillis, int maxAgeSeconds, Ticker ticker) {
+        this.types = new HashSet<>(types);
+        this.maxDurationMillis = maxDurationMillis;
+        this.maxAgeNanos = SECONDS.toNanos(maxAgeSeconds);
+        this.ticker = ticker;
+    }
+
+    /**
+     * Returns {@code true} if the dependency has been aggregated, in which case it must not be tracked.
+     */
+    synchronized boolean aggregate(RemoteDependencyTelemetry telemetry, Double samplingPercentage) {
+        if (!telemetry.getSuccess() || !types.contains(telemetry.getType())) {
+            return false;
+        }
+        long durationMillis = telemetry.getDuration().getTotalMilliseconds();
+        if (durationMillis > maxDurationMillis) {
+            return false;
+        }
+        String operationId = telemetry.getContext().getOperation().getId();
+        if (operationId == null) {
+            return false;
+        }
+        PendingOperation operation = pendingOperations.get(operationId);
+        if (operation == null) {
+            operation = new PendingOperation(ticker.read());
+            pendingOperations.put(operationId, operation);
+        }
+        String key = telemetry.getType() + '\u0000' + telemetry.getTarget() + '\u0000' + telemetry.getName();
+        AggregatedDependency aggregated = operation.dependencies.get(key);
+        if (aggregated == null) {
+            operation.dependencies.put(key, new AggregatedDependency(telemetry, durationMillis, samplingPercentage));
+        } else {
+            aggregated.add(durationMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Marks the operation as complete, its aggregated dependencies are emitted on the next {@link #drainCompleted}.
+     */
+    synchronized void completeOperation(String operationId) {
+        if (operationId != null && pendingOperations.containsKey(operationId)) {
+            completedOperations.add(operationId);
+        }
+    }
+
+    /**
+     * Returns the aggregated dependencies of the completed and of the expired operations.
+     */
+    synchronized List<RemoteDependencyTelemetry> drainCompleted() {
+        List<RemoteDependencyTelemetry> out = new ArrayList<>();
+        for (String operationId : completedOperations) {
+            PendingOperation operation = pendingOperations.remove(operationId);
+            if (operation != null) {
+                operation.emit(out);
+            }
+        }
+        completedOperations.clear();
+
+        long now = ticker.read();
+        Iterator<PendingOperation> i = pendingOperations.values().iterator();
+        while (i.hasNext()) {
+            PendingOperation operation = i.next();
+            if (now - operation.createdNanos < maxAgeNanos && pendingOperations.size() <= MAX_PENDING_OPERATIONS) {
+                break;
+            }
+            operation.emit(out);
+            i.remove();
+        }
+        return out;
+    }
+
+    /**
+     * Returns the aggregated dependencies of all pending operations.
+     */
+    synchronized List<RemoteDependencyTelemetry> drainAll() {
+        List<RemoteDependencyTelemetry> out = new ArrayList<>();
+        for (PendingOperation operation : pendingOperations.values()) {
+            operation.emit(out);
+        }
+        pendingOperations.clear();
+        completedOperations.clear();
+        return out;
+    }
+
+    synchronized int getPendingOperationCount() {
+        return pendingOperations.size();
+    }
+
+    private static class PendingOperation {
+
+        private final long createdNanos;
+        private final Map<String, AggregatedDependency> dependencies = new LinkedHashMap<>();
+
+        private PendingOperation(long createdNanos) {
+            this.createdNanos = createdNanos;
+        }
+
+        private void emit(List<RemoteDependencyTelemetry> out) {
+            for (AggregatedDependency dependency : dependencies.values()) {
+                out.add(dependency.toTelemetry());
+            }
+        }
+    }
+
+    private static class AggregatedDependency {
+
+        // the first call, its ids and timestamp are used for the aggregated item
+        private final RemoteDependencyTelemetry first;
+        private final Double samplingPercentage;
+
+        private int count = 1;
+        private long totalMillis;
+        private long minMillis;
+        private long maxMillis;
+
+        private AggregatedDependency(RemoteDependencyTelemetry first, long durationMillis, Double samplingPercentage) {
+            this.first = first;
+            this.samplingPercentage = samplingPercentage;
+            totalMillis = durationMillis;
+            minMillis = durationMillis;
+            maxMillis = durationMillis;
+        }
+
+        private void add(long durationMillis) {
+            count++;
+            totalMillis += durationMillis;
+            minMillis = Math.min(minMillis, durationMillis);
+            maxMillis = Math.max(maxMillis, durationMillis);
+        }
+
+        private RemoteDependencyTelemetry toTelemetry() {
+            if (count == 1) {
+                first.setSamplingPercentage(samplingPercentage);
+                return first;
+            }
+            RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(first.getName());
+            telemetry.useSingleOwnerMaps();
+            telemetry.setType(first.getType());
+            telemetry.setTarget(first.getTarget());
+            telemetry.setId(first.getId());
+            telemetry.getContext().getOperation().setId(first.getContext().getOperation().getId());
+            telemetry.getContext().getOperation().setParentId(first.getContext().getOperation().getParentId());
+            telemetry.setTimestamp(new Date(first.getTimestamp().getTime()));
+            telemetry.setDuration(new Duration(Math.round((double) totalMillis / count)));
+            telemetry.setSuccess(true);
+            telemetry.getProperties().put(AGGREGATED_COUNT, Integer.toString(count));
+            telemetry.getProperties().put(AGGREGATED_MIN_DURATION, Long.toString(minMillis));
+            telemetry.getProperties().put(AGGREGATED_MAX_DURATION, Long.toString(maxMillis));
+            telemetry.setSamplingPercentage((samplingPercentage == null ? 100 : samplingPercentage) / count);
+            return telemetry;
+        }
+    }
+}
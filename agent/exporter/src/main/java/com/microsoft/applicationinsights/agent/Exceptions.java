@@ -7,6 +7,7 @@ import java.util.List;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
 import com.microsoft.applicationinsights.internal.schemav2.ExceptionDetails;
+import com.microsoft.applicationinsights.internal.schemav2.StackFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,58 +31,261 @@ public class Exceptions {
         return Arrays.asList(details);
     }
 
-    // THIS IS UNFINISHED WORK
-    // NOT SURE IF IT'S NEEDED
-    // TESTING WITH minimalParse() first
+    /**
+     * The default maximum number of stack frames which are kept per exception by {@link #fullParse(String)}.
+     */
+    public static final int DEFAULT_MAX_FRAMES = 100;
+
+    // frame strings repeat across the stack traces of the same exceptions, and across the exceptions of an application
+    //
+    // shared by the threads which parse stack traces without synchronization, which is only safe because String is
+    // immutable (its fields are final), so a string read from another thread's slot is always fully constructed
+    private static final StringCache frameStrings = new StringCache(4096);
+
+    /**
+     * Parses a stack trace in the format of {@link Throwable#printStackTrace()} into one {@link ExceptionDetails}
+     * per exception, including the "Caused by" and "Suppressed" exceptions, each with its parsed stack frames.
+     *
+     * Falls back to {@link #minimalParse(String)} if the stack trace cannot be parsed.
+     */
     public static List<ExceptionDetails> fullParse(String str) {
-        Parser parser = new Parser();
-        for (String line : lineSplitter.split(str)) {
-            try {
-                parser.process(line);
-            } catch (ParseException e) {
-                logger.error(e.getMessage());
-                return new ArrayList<>();
+        return fullParse(str, DEFAULT_MAX_FRAMES);
+    }
+
+    /**
+     * Same as {@link #fullParse(String)}, keeping at most {@code maxFrames} stack frames per exception.
+     */
+    public static List<ExceptionDetails> fullParse(String str, int maxFrames) {
+        try {
+            List<ExceptionDetails> details = new Parser(str, maxFrames).parse();
+            if (!details.isEmpty()) {
+                return details;
             }
+        } catch (RuntimeException e) {
+            logger.debug(e.getMessage(), e);
         }
-        return parser.getDetails();
+        return minimalParse(str);
     }
 
+    // single pass over the stack trace, without splitting it into lines
     static class Parser {
 
+        private static final String CAUSED_BY = "Caused by: ";
+        private static final String SUPPRESSED = "Suppressed: ";
+        private static final String AT = "at ";
+        private static final String MORE = "... ";
+
+        private final String str;
+        private final int maxFrames;
+
+        private final List<ExceptionDetails> list = new ArrayList<>();
+
+        // the last exception at each indentation level, "Caused by" refers to the last exception at the same level
+        // and "Suppressed" to the last exception at the level above
+        private final List<ExceptionDetails> lastByLevel = new ArrayList<>();
+
         private ExceptionDetails current;
-        private List<ExceptionDetails> list = new ArrayList<>();
+        private int currentFrameCount;
+        private boolean inMessage;
+
+        Parser(String str, int maxFrames) {
+            this.str = str;
+            this.maxFrames = maxFrames;
+        }
+
+        List<ExceptionDetails> parse() {
+            int start = 0;
+            int length = str.length();
+            while (start < length) {
+                int end = start;
+                while (end < length && str.charAt(end) != '\n' && str.charAt(end) != '\r') {
+                    end++;
+                }
+                if (end > start) {
+                    processLine(start, end);
+                }
+                start = end + 1;
+            }
+            return list;
+        }
 
-        void process(String line) throws ParseException {
-            if (line.charAt(0) != '\t') {
-                if (current != null) {
-                    list.add(current);
+        private void processLine(int start, int end) {
+            int level = 0;
+            int i = start;
+            while (i < end && (str.charAt(i) == '\t' || str.charAt(i) == ' ')) {
+                if (str.charAt(i) == '\t') {
+                    level++;
+                }
+                i++;
+            }
+            if (current == null) {
+                startException(i, end, 0, null);
+                return;
+            }
+            if (i > start) {
+                if (str.startsWith(AT, i)) {
+                    addFrame(i + AT.length(), end);
+                    return;
+                }
+                if (str.startsWith(MORE, i)) {
+                    // the remaining frames are the same as the enclosing exception's, which is how the JVM prints them
+                    inMessage = false;
+                    return;
                 }
-                if (line.startsWith("Caused by: ")) {
-                    line = line.substring("Caused by: ".length());
+                if (str.startsWith(SUPPRESSED, i)) {
+                    startException(i + SUPPRESSED.length(), end, level, getLastAtLevel(level - 1));
+                    return;
                 }
-                current = new ExceptionDetails();
-                int index = line.indexOf(": ");
-                if (index != -1) {
-                    current.setTypeName(line.substring(0, index));
-                    current.setMessage(line.substring(index + 2));
+            }
+            if (str.startsWith(CAUSED_BY, i)) {
+                startException(i + CAUSED_BY.length(), end, level, getLastAtLevel(level));
+                return;
+            }
+            if (inMessage) {
+                // a multi-line message
+                String message = current.getMessage();
+                String line = str.substring(start, end);
+                current.setMessage(message == null ? line : message + "\n" + line);
+            }
+        }
+
+        private void startException(int start, int end, int level, ExceptionDetails outer) {
+            ExceptionDetails details = new ExceptionDetails();
+            details.setId(list.size());
+            if (outer != null) {
+                details.setOuterId(outer.getId());
+            }
+            int index = str.indexOf(": ", start);
+            if (index != -1 && index < end) {
+                details.setTypeName(frameStrings.get(str, start, index));
+                details.setMessage(str.substring(index + 2, end));
+            } else {
+                details.setTypeName(frameStrings.get(str, start, end));
+            }
+            details.setParsedStack(new ArrayList<StackFrame>());
+            list.add(details);
+            while (lastByLevel.size() <= level) {
+                lastByLevel.add(null);
+            }
+            lastByLevel.set(level, details);
+            current = details;
+            currentFrameCount = 0;
+            inMessage = true;
+        }
+
+        private ExceptionDetails getLastAtLevel(int level) {
+            if (level < 0 || level >= lastByLevel.size() || lastByLevel.get(level) == null) {
+                return current;
+            }
+            return lastByLevel.get(level);
+        }
+
+        // e.g. "com.example.Foo.bar(Foo.java:12)", "java.base/java.lang.Thread.run(Thread.java:834)"
+        // or "sun.misc.Unsafe.park(Native Method)"
+        private void addFrame(int start, int end) {
+            inMessage = false;
+            int frameIndex = currentFrameCount++;
+            if (frameIndex >= maxFrames) {
+                current.setHasFullStack(false);
+                return;
+            }
+            int open = str.indexOf('(', start);
+            if (open == -1 || open > end) {
+                open = end;
+            }
+            StackFrame frame = new StackFrame();
+            frame.setLevel(frameIndex);
+            int methodStart = start;
+            int slash = getModuleEnd(start, open);
+            if (slash != -1) {
+                int assemblyEnd = slash;
+                while (assemblyEnd > start && str.charAt(assemblyEnd - 1) == '/') {
+                    assemblyEnd--;
+                }
+                frame.setAssembly(frameStrings.get(str, start, assemblyEnd));
+                methodStart = slash + 1;
+            }
+            frame.setMethod(frameStrings.get(str, methodStart, open));
+            int close = end - 1;
+            if (open < close && str.charAt(close) == ')') {
+                int colon = str.lastIndexOf(':', close);
+                if (colon > open) {
+                    frame.setFileName(frameStrings.get(str, open + 1, colon));
+                    frame.setLine(parseLine(colon + 1, close));
+                } else if (str.startsWith("Native Method", open + 1) || str.startsWith("Unknown Source", open + 1)) {
+                    // no file name
                 } else {
-                    current.setTypeName(line);
+                    frame.setFileName(frameStrings.get(str, open + 1, close));
                 }
             }
-            System.out.println(line);
+            current.getParsedStack().add(frame);
         }
 
-        public List<ExceptionDetails> getDetails() {
-            if (current != null) {
-                list.add(current);
+        // returns the index of the last '/' of the class loader and module name prefix (e.g. "app//"
+        // or "java.base/"), or -1 if there is none, skipping the '/' in hidden class names (e.g. "Foo$$Lambda$1/0x1")
+        private int getModuleEnd(int start, int end) {
+            int slash = -1;
+            for (int i = start; i < end; i++) {
+                char c = str.charAt(i);
+                if (c == '$') {
+                    break;
+                }
+                if (c == '/') {
+                    slash = i;
+                }
             }
-            return list;
+            return slash;
+        }
+
+        private int parseLine(int start, int end) {
+            int line = 0;
+            for (int i = start; i < end; i++) {
+                char c = str.charAt(i);
+                if (c < '0' || c > '9') {
+                    return 0;
+                }
+                line = line * 10 + (c - '0');
+            }
+            return line;
         }
     }
 
-    static class ParseException extends Exception {
-        ParseException(String message) {
-            super(message);
+    /**
+     * A bounded, direct-mapped cache of strings which are looked up by a range of another string, so that strings
+     * which are already cached are returned without allocating a new one.
+     *
+     * A cached string is replaced when another string maps to the same slot. Concurrent lookups can race,
+     * in which case a string may be allocated even though it is cached, or be cached twice. The slots are read and
+     * written without synchronization, so this must only hold immutable objects which are safely published
+     * regardless of the thread which created them, such as strings.
+     */
+    static class StringCache {
+
+        private final String[] strings;
+        private final int mask;
+
+        StringCache(int size) {
+            if (Integer.bitCount(size) != 1) {
+                throw new IllegalArgumentException("size must be a power of two: " + size);
+            }
+            strings = new String[size];
+            mask = size - 1;
+        }
+
+        String get(String str, int start, int end) {
+            int length = end - start;
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + str.charAt(i);
+            }
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            String cached = strings[slot];
+            if (cached != null && cached.length() == length && str.regionMatches(start, cached, 0, length)) {
+                return cached;
+            }
+            String value = str.substring(start, end);
+            strings[slot] = value;
+            return value;
         }
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.opentelemetry.api.common.AttributeConsumer;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.ReadableAttributes;
+import io.opentelemetry.api.trace.attributes.SemanticAttributes;
+import io.opentelemetry.instrumentation.api.aiappid.AiAppId;
+
+/**
+ * The attributes of a single span, captured in one pass over {@link ReadableAttributes#forEach(AttributeConsumer)}.
+ *
+ * Attributes that {@link Exporter} maps onto telemetry fields are stored in fixed slots (the slot is found through a
+ * dispatch table built once), everything else is kept in insertion order as "extra" attributes.
+ *
+ * Removing a slot marks it consumed, so that it is not also reported as an extra attribute.
+ * This mirrors the previous behavior of copying the attributes into a map and removing entries from that map.
+ */
+final class ExportAttributes implements AttributeConsumer {
+
+    static final int AI_SAMPLING_PERCENTAGE = 0;
+    static final int AI_INTERNAL_LOG = 1;
+    static final int SPAN_SOURCE = 2;
+    static final int SPAN_TARGET = 3;
+    static final int MESSAGING_SYSTEM = 4;
+    static final int MESSAGING_DESTINATION = 5;
+    static final int PEER_SERVICE = 6;
+    static final int NET_PEER_NAME = 7;
+    static final int NET_PEER_IP = 8;
+    static final int NET_PEER_PORT = 9;
+    static final int HTTP_STATUS_CODE = 10;
+    static final int HTTP_URL = 11;
+    static final int HTTP_METHOD = 12;
+    static final int HTTP_SCHEME = 13;
+    static final int HTTP_HOST = 14;
+    static final int RPC_SYSTEM = 15;
+    static final int DB_SYSTEM = 16;
+    static final int DB_STATEMENT = 17;
+    static final int DB_NAME = 18;
+    static final int LOGGER_LEVEL = 19;
+    static final int LOGGER_LOGGER_NAME = 20;
+    static final int LOGGER_ERROR_STACK = 21;
+
+    // indexed by the slot constants above
+    private static final AttributeKey<?>[] SLOT_KEYS = {
+            AttributeKey.doubleKey("ai.internal.sampling.percentage"),
+            AttributeKey.booleanKey("ai.internal.log"),
+            AttributeKey.stringKey(AiAppId.SPAN_SOURCE_ATTRIBUTE_NAME),
+            AttributeKey.stringKey(AiAppId.SPAN_TARGET_ATTRIBUTE_NAME),
+            SemanticAttributes.MESSAGING_SYSTEM,
+            SemanticAttributes.MESSAGING_DESTINATION,
+            SemanticAttributes.PEER_SERVICE,
+            SemanticAttributes.NET_PEER_NAME,
+            SemanticAttributes.NET_PEER_IP,
+            SemanticAttributes.NET_PEER_PORT,
+            SemanticAttributes.HTTP_STATUS_CODE,
+            SemanticAttributes.HTTP_URL,
+            SemanticAttributes.HTTP_METHOD,
+            SemanticAttributes.HTTP_SCHEME,
+            SemanticAttributes.HTTP_HOST,
+            SemanticAttributes.RPC_SYSTEM,
+            SemanticAttributes.DB_SYSTEM,
+            SemanticAttributes.DB_STATEMENT,
+            SemanticAttributes.DB_NAME,
+            AttributeKey.stringKey("level"),
+            AttributeKey.stringKey("loggerName"),
+            AttributeKey.stringKey("error.stack")
+    };
+
+    // the dispatch table, this is only read after class initialization so does not need to be concurrent
+    private static final Map<AttributeKey<?>, Integer> SLOTS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < SLOT_KEYS.length; i++) {
+            SLOTS.put(SLOT_KEYS[i], i);
+        }
+    }
+
+    private final Object[] values = new Object[SLOT_KEYS.length];
+
+    // bit i is set once slot i has been removed
+    private int consumed;
+
+    // these are only allocated if the span has any extra attributes
+    private List<AttributeKey<?>> extraKeys;
+    private List<Object> extraValues;
+
+    private ExportAttributes() {
+    }
+
+    static ExportAttributes capture(ReadableAttributes attributes) {
+        ExportAttributes exportAttributes = new ExportAttributes();
+        attributes.forEach(exportAttributes);
+        return exportAttributes;
+    }
+
+    @Override
+    public <T> void accept(AttributeKey<T> key, T value) {
+        Integer slot = SLOTS.get(key);
+        if (slot != null) {
+            values[slot] = value;
+            return;
+        }
+        if (extraKeys == null) {
+            extraKeys = new ArrayList<>();
+            extraValues = new ArrayList<>();
+        }
+        extraKeys.add(key);
+        extraValues.add(value);
+    }
+
+    boolean contains(int slot) {
+        return values[slot] != null && !isConsumed(slot);
+    }
+
+    String removeString(int slot) {
+        Object value = remove(slot);
+        return value instanceof String ? (String) value : null;
+    }
+
+    Long removeLong(int slot) {
+        Object value = remove(slot);
+        return value instanceof Long ? (Long) value : null;
+    }
+
+    Double removeDouble(int slot) {
+        Object value = remove(slot);
+        return value instanceof Double ? (Double) value : null;
+    }
+
+    boolean removeBoolean(int slot) {
+        Object value = remove(slot);
+        return value instanceof Boolean ? (Boolean) value : false;
+    }
+
+    /**
+     * Passes every attribute which has not been removed to the visitor, slotted attributes first, then extra attributes.
+     */
+    void forEachRemaining(Visitor visitor) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && !isConsumed(i)) {
+                visitor.visit(SLOT_KEYS[i], values[i]);
+            }
+        }
+        if (extraKeys != null) {
+            for (int i = 0; i < extraKeys.size(); i++) {
+                visitor.visit(extraKeys.get(i), extraValues.get(i));
+            }
+        }
+    }
+
+    private Object remove(int slot) {
+        if (isConsumed(slot)) {
+            return null;
+        }
+        consumed |= 1 << slot;
+        return values[slot];
+    }
+
+    private boolean isConsumed(int slot) {
+        return (consumed & (1 << slot)) != 0;
+    }
+
+    interface Visitor {
+        void visit(AttributeKey<?> key, Object value);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.agent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.opentelemetry.api.trace.Span.Kind;
+import io.opentelemetry.sdk.common.InstrumentationLibraryInfo;
+
+/**
+ * How spans from a given instrumentation library and of a given span kind are mapped to telemetry.
+ *
+ * Plans only depend on the instrumentation library and the span kind, so they are computed once and cached,
+ * which avoids matching the instrumentation library name against {@link #COMPONENT_PATTERN} for every span.
+ */
+final class ExportPlan {
+
+    private static final Pattern COMPONENT_PATTERN = Pattern.compile("io\\.opentelemetry\\.auto\\.([^0-9]*)(-[0-9.]*)?");
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // the number of instrumentation libraries is small and fixed, so there is no need to bound this
+    private static final ConcurrentMap<InstrumentationLibraryInfo, ExportPlan[]> plans = new ConcurrentHashMap<>();
+
+    enum Mapping {
+        // INTERNAL spans are logs, in-proc dependencies or (see requestIfRoot) requests
+        INTERNAL,
+        // CLIENT and PRODUCER spans
+        DEPENDENCY,
+        // CONSUMER spans are requests when they have a remote parent, and dependencies otherwise
+        CONSUMER,
+        // SERVER spans
+        REQUEST
+    }
+
+    final Mapping mapping;
+
+    // null if the instrumentation library is not one of the standard auto-instrumentation libraries
+    final String stdComponent;
+
+    // spans with this plan are not exported when they do not have a parent
+    final boolean dropIfRoot;
+
+    // INTERNAL spans with this plan are exported as requests (instead of in-proc dependencies) when they do not have a parent
+    final boolean requestIfRoot;
+
+    private ExportPlan(Mapping mapping, String stdComponent, boolean dropIfRoot, boolean requestIfRoot) {
+        this.mapping = mapping;
+        this.stdComponent = stdComponent;
+        this.dropIfRoot = dropIfRoot;
+        this.requestIfRoot = requestIfRoot;
+    }
+
+    static ExportPlan get(InstrumentationLibraryInfo instrumentationLibraryInfo, Kind kind) {
+        ExportPlan[] plansByKind = plans.get(instrumentationLibraryInfo);
+        if (plansByKind == null) {
+            plansByKind = create(instrumentationLibraryInfo.getName());
+            ExportPlan[] existing = plans.putIfAbsent(instrumentationLibraryInfo, plansByKind);
+            if (existing != null) {
+                plansByKind = existing;
+            }
+        }
+        return plansByKind[kind.ordinal()];
+    }
+
+    private static ExportPlan[] create(String instrumentationName) {
+        Matcher matcher = COMPONENT_PATTERN.matcher(instrumentationName);
+        String stdComponent = matcher.matches() ? matcher.group(1) : null;
+        ExportPlan[] plansByKind = new ExportPlan[KINDS.length];
+        for (Kind kind : KINDS) {
+            plansByKind[kind.ordinal()] = create(stdComponent, kind);
+        }
+        return plansByKind;
+    }
+
+    private static ExportPlan create(String stdComponent, Kind kind) {
+        switch (kind) {
+            case INTERNAL:
+                // TODO need semantic convention for determining whether to map INTERNAL to request or dependency
+                //  (or need clarification to use SERVER for this)
+                return new ExportPlan(Mapping.INTERNAL, stdComponent, false, "spring-scheduling".equals(stdComponent));
+            case CLIENT:
+            case PRODUCER:
+                return new ExportPlan(Mapping.DEPENDENCY, stdComponent, false, false);
+            case CONSUMER:
+                // no need to capture jms consumer spans without a parent, at least is consistent with prior behavior
+                // these tend to be frameworks pulling messages which are then pushed to consumers
+                // where we capture them
+                return new ExportPlan(Mapping.CONSUMER, stdComponent, "jms".equals(stdComponent), false);
+            case SERVER:
+                return new ExportPlan(Mapping.REQUEST, stdComponent, false, false);
+            default:
+                // this will throw UnsupportedOperationException if a span of this kind is ever exported
+                return null;
+        }
+    }
+}
@@ -22,20 +22,21 @@ package com.microsoft.applicationinsights.agent;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.internal.exceptions.ExceptionAggregator;
 import com.microsoft.applicationinsights.telemetry.Duration;
 import com.microsoft.applicationinsights.telemetry.EventTelemetry;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
@@ -44,11 +45,11 @@ import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.applicationinsights.telemetry.SeverityLevel;
 import com.microsoft.applicationinsights.telemetry.SupportSampling;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
 import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
 import io.opentelemetry.api.common.AttributeConsumer;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
-import io.opentelemetry.api.common.ReadableAttributes;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.Span.Kind;
 import io.opentelemetry.api.trace.SpanId;
@@ -68,21 +69,48 @@ public class Exporter implements SpanExporter {
 
     private static final Logger logger = LoggerFactory.getLogger(Exporter.class);
 
-    private static final Pattern COMPONENT_PATTERN = Pattern.compile("io\\.opentelemetry\\.auto\\.([^0-9]*)(-[0-9.]*)?");
-
     private static final Joiner JOINER = Joiner.on(", ");
 
-    private static final AttributeKey<Double> AI_SAMPLING_PERCENTAGE = AttributeKey.doubleKey("ai.internal.sampling.percentage");
+    private final TelemetryClient telemetryClient;
 
-    private static final AttributeKey<Boolean> AI_INTERNAL_LOG = AttributeKey.booleanKey("ai.internal.log");
+    // whether the standard request and dependency metrics have already been extracted from the spans,
+    // see StandardMetricsExporter
+    private final boolean standardMetricsExtracted;
 
-    private static final AttributeKey<String> SPAN_SOURCE_ATTRIBUTE_NAME = AttributeKey.stringKey(AiAppId.SPAN_SOURCE_ATTRIBUTE_NAME);
-    private static final AttributeKey<String> SPAN_TARGET_ATTRIBUTE_NAME = AttributeKey.stringKey(AiAppId.SPAN_TARGET_ATTRIBUTE_NAME);
+    // null if dependency aggregation is not enabled
+    private final DependencyAggregator dependencyAggregator;
 
-    private final TelemetryClient telemetryClient;
+    // null if no per logger thresholds or rate limits are configured
+    private final LogCaptureLimiter logCaptureLimiter;
+
+    // null if telemetry recycling is not enabled, the request and dependency telemetry are then created for each span
+    private final TelemetryPool<RequestTelemetry> requestPool;
+    private final TelemetryPool<RemoteDependencyTelemetry> dependencyPool;
+
+    // the maximum number of stack frames which are kept per exception, see Exceptions
+    private final int maxExceptionStackFrames;
 
     public Exporter(TelemetryClient telemetryClient) {
-        this.telemetryClient = telemetryClient;
+        this(builder(telemetryClient));
+    }
+
+    private Exporter(Builder builder) {
+        this.telemetryClient = builder.telemetryClient;
+        this.standardMetricsExtracted = builder.standardMetricsExtracted;
+        this.dependencyAggregator = builder.dependencyAggregator;
+        this.logCaptureLimiter = builder.logCaptureLimiter;
+        this.maxExceptionStackFrames = builder.maxExceptionStackFrames;
+        if (builder.telemetryPoolSize > 0) {
+            requestPool = TelemetryPool.forRequests(builder.telemetryPoolSize);
+            dependencyPool = TelemetryPool.forRemoteDependencies(builder.telemetryPoolSize);
+        } else {
+            requestPool = null;
+            dependencyPool = null;
+        }
+    }
+
+    public static Builder builder(TelemetryClient telemetryClient) {
+        return new Builder(telemetryClient);
     }
 
     @Override
@@ -92,82 +120,117 @@ public class Exporter implements SpanExporter {
             return CompletableResultCode.ofSuccess();
         }
 
+        // telemetry produced by this call, it is sent as one batch at the end of the call
+        List<Telemetry> batch = new ArrayList<>();
         try {
             for (SpanData span : spans) {
                 logger.debug("exporting span: {}", span);
-                export(span);
+                export(span, batch);
             }
             return CompletableResultCode.ofSuccess();
         } catch (Throwable t) {
             logger.error(t.getMessage(), t);
             return CompletableResultCode.ofFailure();
+        } finally {
+            if (dependencyAggregator != null) {
+                batch.addAll(markAggregatedDependencies(dependencyAggregator.drainCompleted()));
+            }
+            if (logCaptureLimiter != null) {
+                batch.addAll(logCaptureLimiter.drainSuppressed());
+            }
+            trackBatch(batch);
         }
     }
 
-    private void export(SpanData span) {
-        Kind kind = span.getKind();
-        String instrumentationName = span.getInstrumentationLibraryInfo().getName();
-        Matcher matcher = COMPONENT_PATTERN.matcher(instrumentationName);
-        String stdComponent = matcher.matches() ? matcher.group(1) : null;
-
-        if ("jms".equals(stdComponent) && !SpanId.isValid(span.getParentSpanId()) && kind == Kind.CONSUMER) {
-            // no need to capture these, at least is consistent with prior behavior
-            // these tend to be frameworks pulling messages which are then pushed to consumers
-            // where we capture them
+    private List<RemoteDependencyTelemetry> markAggregatedDependencies(List<RemoteDependencyTelemetry> aggregated) {
+        if (standardMetricsExtracted) {
+            for (RemoteDependencyTelemetry telemetry : aggregated) {
+                telemetry.getProperties().put(StandardMetricsExporter.PROCESSED_BY_METRIC_EXTRACTORS,
+                        StandardMetricsExporter.DEPENDENCIES_EXTRACTOR);
+            }
+        }
+        return aggregated;
+    }
+
+    private void trackBatch(List<Telemetry> batch) {
+        if (batch.isEmpty()) {
             return;
         }
-        Map<AttributeKey<?>, Object> attributes = getAttributesCopy(span.getAttributes());
-        if (kind == Kind.INTERNAL) {
-            boolean isLog = removeAttributeBoolean(attributes, AI_INTERNAL_LOG);
-            if (isLog) {
-                exportLogSpan(span, attributes);
-            } else if ("spring-scheduling".equals(stdComponent) && !SpanId.isValid(span.getParentSpanId())) {
-                // TODO need semantic convention for determining whether to map INTERNAL to request or dependency
-                //  (or need clarification to use SERVER for this)
-                exportRequest(span, attributes);
-            } else {
-                exportRemoteDependency(span, attributes, true);
-            }
-        } else if (kind == Kind.CLIENT || kind == Kind.PRODUCER) {
-            exportRemoteDependency(span, attributes, false);
-        } else if (kind == Kind.CONSUMER && !span.hasRemoteParent()) {
-            // TODO need spec clarification, but it seems polling for messages can be CONSUMER also
-            //  in which case the span will not have a remote parent and should be treated as a dependency instead of a request
-            exportRemoteDependency(span, attributes, false);
-        } else if (kind == Kind.SERVER || kind == Kind.CONSUMER) {
-            exportRequest(span, attributes);
-        } else {
+        try {
+            telemetryClient.trackAll(batch);
+        } catch (Throwable t) {
+            logger.error(t.getMessage(), t);
+        }
+    }
+
+    private void export(SpanData span, List<Telemetry> batch) {
+        Kind kind = span.getKind();
+        ExportPlan plan = ExportPlan.get(span.getInstrumentationLibraryInfo(), kind);
+        if (plan == null) {
             throw new UnsupportedOperationException(kind.name());
         }
+        if (plan.dropIfRoot && !SpanId.isValid(span.getParentSpanId())) {
+            return;
+        }
+        ExportAttributes attributes = ExportAttributes.capture(span.getAttributes());
+        switch (plan.mapping) {
+            case INTERNAL:
+                boolean isLog = attributes.removeBoolean(ExportAttributes.AI_INTERNAL_LOG);
+                if (isLog) {
+                    exportLogSpan(span, attributes, batch);
+                } else if (plan.requestIfRoot && !SpanId.isValid(span.getParentSpanId())) {
+                    exportRequest(span, attributes, batch);
+                } else {
+                    exportRemoteDependency(span, attributes, true, batch);
+                }
+                break;
+            case DEPENDENCY:
+                exportRemoteDependency(span, attributes, false, batch);
+                break;
+            case CONSUMER:
+                if (!span.hasRemoteParent()) {
+                    // TODO need spec clarification, but it seems polling for messages can be CONSUMER also
+                    //  in which case the span will not have a remote parent and should be treated as a dependency instead of a request
+                    exportRemoteDependency(span, attributes, false, batch);
+                } else {
+                    exportRequest(span, attributes, batch);
+                }
+                break;
+            case REQUEST:
+                exportRequest(span, attributes, batch);
+                break;
+            default:
+                throw new UnsupportedOperationException(kind.name());
+        }
     }
 
-    private void exportRequest(SpanData span, Map<AttributeKey<?>, Object> attributes) {
+    private void exportRequest(SpanData span, ExportAttributes attributes, List<Telemetry> batch) {
 
-        RequestTelemetry telemetry = new RequestTelemetry();
+        RequestTelemetry telemetry = newRequestTelemetry();
 
         String source = null;
-        String sourceAppId = removeAttributeString(attributes, SPAN_SOURCE_ATTRIBUTE_NAME);
+        String sourceAppId = attributes.removeString(ExportAttributes.SPAN_SOURCE);
         if (sourceAppId != null && !AiAppId.getAppId().equals(sourceAppId)) {
             source = sourceAppId;
         }
-        if (source == null && attributes.containsKey(SemanticAttributes.MESSAGING_SYSTEM)) {
+        if (source == null && attributes.contains(ExportAttributes.MESSAGING_SYSTEM)) {
             // TODO should this pass default port for messaging.system?
             source = nullAwareConcat(getTargetFromPeerAttributes(attributes, 0),
-                    removeAttributeString(attributes, SemanticAttributes.MESSAGING_DESTINATION), "/");
+                    attributes.removeString(ExportAttributes.MESSAGING_DESTINATION), "/");
             if (source == null) {
-                source = removeAttributeString(attributes, SemanticAttributes.MESSAGING_SYSTEM);
+                source = attributes.removeString(ExportAttributes.MESSAGING_SYSTEM);
             }
         }
         telemetry.setSource(source);
 
         addLinks(telemetry.getProperties(), span.getLinks());
 
-        Object httpStatusCode = attributes.remove(SemanticAttributes.HTTP_STATUS_CODE);
-        if (httpStatusCode instanceof Long) {
-            telemetry.setResponseCode(Long.toString((Long) httpStatusCode));
+        Long httpStatusCode = attributes.removeLong(ExportAttributes.HTTP_STATUS_CODE);
+        if (httpStatusCode != null) {
+            telemetry.setResponseCode(Long.toString(httpStatusCode));
         }
 
-        String httpUrl = removeAttributeString(attributes, SemanticAttributes.HTTP_URL);
+        String httpUrl = attributes.removeString(ExportAttributes.HTTP_URL);
         if (httpUrl != null) {
             telemetry.setUrl(httpUrl);
         }
@@ -178,6 +241,9 @@ public class Exporter implements SpanExporter {
 
         telemetry.setId(span.getSpanId());
         telemetry.getContext().getOperation().setId(span.getTraceId());
+        if (dependencyAggregator != null) {
+            dependencyAggregator.completeOperation(span.getTraceId());
+        }
         String aiLegacyParentId = span.getTraceState().get("ai-legacy-parent-id");
         if (aiLegacyParentId != null) {
             // see behavior specified at https://github.com/microsoft/ApplicationInsights-Java/issues/1174
@@ -202,22 +268,22 @@ public class Exporter implements SpanExporter {
             telemetry.getProperties().put("statusDescription", description);
         }
 
-        Double samplingPercentage = removeAiSamplingPercentage(attributes);
+        Double samplingPercentage = attributes.removeDouble(ExportAttributes.AI_SAMPLING_PERCENTAGE);
 
         addExtraAttributes(telemetry.getProperties(), attributes);
-        track(telemetry, samplingPercentage);
-        trackEvents(span, samplingPercentage);
-    }
-
-    private Map<AttributeKey<?>, Object> getAttributesCopy(ReadableAttributes attributes) {
-        Map<AttributeKey<?>, Object> copy = new HashMap<>();
-        attributes.forEach(copy::put);
-        return copy;
+        if (standardMetricsExtracted) {
+            // otherwise the portal would also count this request towards the standard metrics
+            telemetry.getProperties().put(StandardMetricsExporter.PROCESSED_BY_METRIC_EXTRACTORS,
+                    StandardMetricsExporter.REQUESTS_EXTRACTOR);
+        }
+        track(telemetry, samplingPercentage, batch);
+        trackEvents(span, samplingPercentage, batch);
     }
 
-    private void exportRemoteDependency(SpanData span, Map<AttributeKey<?>, Object> attributes, boolean inProc) {
+    private void exportRemoteDependency(SpanData span, ExportAttributes attributes, boolean inProc,
+                                        List<Telemetry> batch) {
 
-        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry();
+        RemoteDependencyTelemetry telemetry = newRemoteDependencyTelemetry();
 
         addLinks(telemetry.getProperties(), span.getLinks());
 
@@ -243,59 +309,91 @@ public class Exporter implements SpanExporter {
 
         telemetry.setSuccess(span.getStatus().isOk());
 
-        Double samplingPercentage = removeAiSamplingPercentage(attributes);
+        Double samplingPercentage = attributes.removeDouble(ExportAttributes.AI_SAMPLING_PERCENTAGE);
 
         addExtraAttributes(telemetry.getProperties(), attributes);
-        track(telemetry, samplingPercentage);
-        trackEvents(span, samplingPercentage);
+
+        // a single call is emitted as is once its operation completes, the attributes and the links are only dropped
+        // when several calls are aggregated into one item
+        if (dependencyAggregator != null && span.getEvents().isEmpty()
+                && dependencyAggregator.aggregate(telemetry, samplingPercentage)) {
+            return;
+        }
+
+        if (standardMetricsExtracted) {
+            telemetry.getProperties().put(StandardMetricsExporter.PROCESSED_BY_METRIC_EXTRACTORS,
+                    StandardMetricsExporter.DEPENDENCIES_EXTRACTOR);
+        }
+        track(telemetry, samplingPercentage, batch);
+        trackEvents(span, samplingPercentage, batch);
+    }
+
+    private RequestTelemetry newRequestTelemetry() {
+        if (requestPool != null) {
+            return requestPool.acquire();
+        }
+        RequestTelemetry telemetry = new RequestTelemetry();
+        telemetry.useSingleOwnerMaps();
+        return telemetry;
     }
 
-    private void applySemanticConventions(Map<AttributeKey<?>, Object> attributes, RemoteDependencyTelemetry telemetry, Span.Kind spanKind) {
-        String httpMethod = removeAttributeString(attributes, SemanticAttributes.HTTP_METHOD);
+    // the dependency aggregator may hold on to the returned item, but then it is not tracked until the aggregator
+    // releases it, and so it is not recycled before that either
+    private RemoteDependencyTelemetry newRemoteDependencyTelemetry() {
+        if (dependencyPool != null) {
+            return dependencyPool.acquire();
+        }
+        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry();
+        telemetry.useSingleOwnerMaps();
+        return telemetry;
+    }
+
+    private void applySemanticConventions(ExportAttributes attributes, RemoteDependencyTelemetry telemetry, Span.Kind spanKind) {
+        String httpMethod = attributes.removeString(ExportAttributes.HTTP_METHOD);
         if (httpMethod != null) {
             applyHttpClientSpan(attributes, telemetry);
             return;
         }
-        String rpcSystem = removeAttributeString(attributes, SemanticAttributes.RPC_SYSTEM);
+        String rpcSystem = attributes.removeString(ExportAttributes.RPC_SYSTEM);
         if (rpcSystem != null) {
             applyRpcClientSpan(attributes, telemetry, rpcSystem);
             return;
         }
-        String dbSystem = removeAttributeString(attributes, SemanticAttributes.DB_SYSTEM);
+        String dbSystem = attributes.removeString(ExportAttributes.DB_SYSTEM);
         if (dbSystem != null) {
             applyDatabaseClientSpan(attributes, telemetry, dbSystem);
             return;
         }
-        String messagingSystem = removeAttributeString(attributes, SemanticAttributes.MESSAGING_SYSTEM);
+        String messagingSystem = attributes.removeString(ExportAttributes.MESSAGING_SYSTEM);
         if (messagingSystem != null) {
             applyMessagingClientSpan(attributes, telemetry, messagingSystem, spanKind);
             return;
         }
     }
 
-    private static final AttributeKey<String> LOGGER_LEVEL = AttributeKey.stringKey("level");
-    private static final AttributeKey<String> LOGGER_LOGGER_NAME = AttributeKey.stringKey("loggerName");
-    private static final AttributeKey<String> LOGGER_ERROR_STACK = AttributeKey.stringKey("error.stack");
-
-    private void exportLogSpan(SpanData span, Map<AttributeKey<?>, Object> attributes) {
+    private void exportLogSpan(SpanData span, ExportAttributes attributes, List<Telemetry> batch) {
         String message = span.getName();
-        String level = removeAttributeString(attributes, LOGGER_LEVEL);
-        String loggerName = removeAttributeString(attributes, LOGGER_LOGGER_NAME);
-        String errorStack = removeAttributeString(attributes, LOGGER_ERROR_STACK);
-        Double samplingPercentage = removeAiSamplingPercentage(attributes);
+        String level = attributes.removeString(ExportAttributes.LOGGER_LEVEL);
+        String loggerName = attributes.removeString(ExportAttributes.LOGGER_LOGGER_NAME);
+        if (logCaptureLimiter != null && !logCaptureLimiter.tryCapture(loggerName, toSeverityLevel(level))) {
+            return;
+        }
+        String errorStack = attributes.removeString(ExportAttributes.LOGGER_ERROR_STACK);
+        Double samplingPercentage = attributes.removeDouble(ExportAttributes.AI_SAMPLING_PERCENTAGE);
         if (errorStack == null) {
             trackTrace(message, span.getStartEpochNanos(), level, loggerName, span.getTraceId(),
-                    span.getParentSpanId(), samplingPercentage, attributes);
+                    span.getParentSpanId(), samplingPercentage, attributes, batch);
         } else {
             trackTraceAsException(message, span.getStartEpochNanos(), level, loggerName, errorStack, span.getTraceId(),
-                    span.getParentSpanId(), samplingPercentage, attributes);
+                    span.getParentSpanId(), samplingPercentage, attributes, batch);
         }
     }
 
-    private void trackEvents(SpanData span, Double samplingPercentage) {
+    private void trackEvents(SpanData span, Double samplingPercentage, List<Telemetry> batch) {
         boolean foundException = false;
         for (Event event : span.getEvents()) {
             EventTelemetry telemetry = new EventTelemetry(event.getName());
+            telemetry.useSingleOwnerMaps();
             telemetry.getContext().getOperation().setId(span.getTraceId());
             telemetry.getContext().getOperation().setParentId(span.getParentSpanId());
             telemetry.setTimestamp(new Date(NANOSECONDS.toMillis(event.getEpochNanos())));
@@ -309,19 +407,21 @@ public class Exporter implements SpanExporter {
                     // TODO map OpenTelemetry exception to Application Insights exception better
                     String stacktrace = event.getAttributes().get(SemanticAttributes.EXCEPTION_STACKTRACE);
                     if (stacktrace != null) {
-                        trackException(stacktrace, span, telemetry, span.getSpanId(), samplingPercentage);
+                        trackException(stacktrace, span, telemetry, span.getSpanId(), samplingPercentage, batch);
                     }
                 }
                 foundException = true;
             } else {
-                track(telemetry, samplingPercentage);
+                track(telemetry, samplingPercentage, batch);
             }
         }
     }
 
     private void trackTrace(String message, long timeEpochNanos, String level, String loggerName, String traceId,
-                            String parentSpanId, Double samplingPercentage, Map<AttributeKey<?>, Object> attributes) {
+                            String parentSpanId, Double samplingPercentage, ExportAttributes attributes,
+                            List<Telemetry> batch) {
         TraceTelemetry telemetry = new TraceTelemetry(message, toSeverityLevel(level));
+        telemetry.useSingleOwnerMaps();
 
         if (SpanId.isValid(parentSpanId)) {
             telemetry.getContext().getOperation().setId(traceId);
@@ -330,13 +430,18 @@ public class Exporter implements SpanExporter {
 
         setProperties(telemetry.getProperties(), level, loggerName, attributes);
         telemetry.setTimestamp(new Date(NANOSECONDS.toMillis(timeEpochNanos)));
-        track(telemetry, samplingPercentage);
+        track(telemetry, samplingPercentage, batch);
     }
 
     private void trackTraceAsException(String message, long timeEpochNanos, String level, String loggerName,
                                        String errorStack, String traceId, String parentSpanId,
-                                       Double samplingPercentage, Map<AttributeKey<?>, Object> attributes) {
+                                       Double samplingPercentage, ExportAttributes attributes,
+                                       List<Telemetry> batch) {
+        if (isSuppressed(errorStack)) {
+            return;
+        }
         ExceptionTelemetry telemetry = new ExceptionTelemetry();
+        telemetry.useSingleOwnerMaps();
 
         telemetry.setTimestamp(new Date());
 
@@ -345,42 +450,64 @@ public class Exporter implements SpanExporter {
             telemetry.getContext().getOperation().setParentId(parentSpanId);
         }
 
-        telemetry.getData().setExceptions(Exceptions.minimalParse(errorStack));
+        telemetry.getData().setExceptions(Exceptions.fullParse(errorStack, maxExceptionStackFrames));
         telemetry.setSeverityLevel(toSeverityLevel(level));
         telemetry.getProperties().put("Logger Message", message);
         setProperties(telemetry.getProperties(), level, loggerName, attributes);
         telemetry.setTimestamp(new Date(NANOSECONDS.toMillis(timeEpochNanos)));
-        track(telemetry, samplingPercentage);
+        track(telemetry, samplingPercentage, batch);
     }
 
     private void trackException(String errorStack, SpanData span, Telemetry telemetry,
-                                String id, Double samplingPercentage) {
+                                String id, Double samplingPercentage, List<Telemetry> batch) {
+        if (isSuppressed(errorStack)) {
+            return;
+        }
         ExceptionTelemetry exceptionTelemetry = new ExceptionTelemetry();
-        exceptionTelemetry.getData().setExceptions(Exceptions.minimalParse(errorStack));
+        exceptionTelemetry.useSingleOwnerMaps();
+        exceptionTelemetry.getData().setExceptions(Exceptions.fullParse(errorStack, maxExceptionStackFrames));
         exceptionTelemetry.getContext().getOperation().setId(telemetry.getContext().getOperation().getId());
         exceptionTelemetry.getContext().getOperation().setParentId(id);
         exceptionTelemetry.setTimestamp(new Date(NANOSECONDS.toMillis(span.getEndEpochNanos())));
-        track(exceptionTelemetry, samplingPercentage);
+        track(exceptionTelemetry, samplingPercentage, batch);
     }
 
-    private void track(Telemetry telemetry, Double samplingPercentage) {
+    // repeated exceptions are counted towards the summary item of their fingerprint instead of being parsed and tracked
+    private static boolean isSuppressed(String errorStack) {
+        return ExceptionAggregator.INSTANCE.isEnabled() && !ExceptionAggregator.INSTANCE.shouldTrack(errorStack);
+    }
+
+    private static void track(Telemetry telemetry, Double samplingPercentage, List<Telemetry> batch) {
         if (telemetry instanceof SupportSampling) {
             ((SupportSampling) telemetry).setSamplingPercentage(samplingPercentage);
         }
-        telemetryClient.track(telemetry);
+        batch.add(telemetry);
     }
 
     @Override
     public CompletableResultCode flush() {
+        if (dependencyAggregator != null) {
+            // flush() can be called concurrently with export()
+            List<RemoteDependencyTelemetry> aggregated = dependencyAggregator.drainAll();
+            if (!aggregated.isEmpty()) {
+                telemetryClient.trackAll(markAggregatedDependencies(aggregated));
+            }
+        }
+        if (logCaptureLimiter != null) {
+            List<TraceTelemetry> suppressed = logCaptureLimiter.drainAllSuppressed();
+            if (!suppressed.isEmpty()) {
+                telemetryClient.trackAll(suppressed);
+            }
+        }
         return CompletableResultCode.ofSuccess();
     }
 
     @Override
     public CompletableResultCode shutdown() {
-        return CompletableResultCode.ofSuccess();
+        return flush();
     }
 
-    private static void setProperties(Map<String, String> properties, String level, String loggerName, Map<AttributeKey<?>, Object> attributes) {
+    private static void setProperties(Map<String, String> properties, String level, String loggerName, ExportAttributes attributes) {
         if (level != null) {
             properties.put("SourceType", "Logger");
             properties.put("LoggingLevel", level);
@@ -389,23 +516,48 @@ public class Exporter implements SpanExporter {
             properties.put("LoggerName", loggerName);
         }
         if (attributes != null) {
-            for (Map.Entry<AttributeKey<?>, Object> entry : attributes.entrySet()) {
-                Object value = entry.getValue();
-                if (value != null) {
-                    properties.put(entry.getKey().getKey(), String.valueOf(value));
+            attributes.forEachRemaining(new ExportAttributes.Visitor() {
+                @Override
+                public void visit(AttributeKey<?> key, Object value) {
+                    properties.put(key.getKey(), String.valueOf(value));
                 }
-            }
+            });
         }
     }
 
-    private static void applyHttpClientSpan(Map<AttributeKey<?>, Object> attributes, RemoteDependencyTelemetry telemetry) {
+    private static void applyHttpClientSpan(ExportAttributes attributes, RemoteDependencyTelemetry telemetry) {
+
+        String url = attributes.removeString(ExportAttributes.HTTP_URL);
+        String target = getHttpClientTarget(attributes, url);
+
+        String targetAppId = attributes.removeString(ExportAttributes.SPAN_TARGET);
+        if (targetAppId == null || AiAppId.getAppId().equals(targetAppId)) {
+            telemetry.setType("Http");
+            telemetry.setTarget(target);
+        } else {
+            // using "Http (tracked component)" is important for dependencies that go cross-component (have an appId in their target field)
+            // if you use just HTTP, Breeze will remove appid from the target
+            telemetry.setType("Http (tracked component)");
+            telemetry.setTarget(target + " | " + targetAppId);
+        }
+
+        Long httpStatusCode = attributes.removeLong(ExportAttributes.HTTP_STATUS_CODE);
+        if (httpStatusCode != null) {
+            telemetry.setResultCode(Long.toString(httpStatusCode));
+        }
+
+        telemetry.setCommandName(url);
+    }
+
+    // also used for the standard dependency metrics, see StandardMetricsExporter
+    static String getHttpClientTarget(ExportAttributes attributes, String url) {
 
         // from the spec, at least one of the following sets of attributes is required:
         // * http.url
         // * http.scheme, http.host, http.target
         // * http.scheme, net.peer.name, net.peer.port, http.target
         // * http.scheme, net.peer.ip, net.peer.port, http.target
-        String scheme = removeAttributeString(attributes, SemanticAttributes.HTTP_SCHEME);
+        String scheme = attributes.removeString(ExportAttributes.HTTP_SCHEME);
         int defaultPort;
         if ("http".equals(scheme)) {
             defaultPort = 80;
@@ -416,9 +568,8 @@ public class Exporter implements SpanExporter {
         }
         String target = getTargetFromPeerAttributes(attributes, defaultPort);
         if (target == null) {
-            target = removeAttributeString(attributes, SemanticAttributes.HTTP_HOST);
+            target = attributes.removeString(ExportAttributes.HTTP_HOST);
         }
-        String url = removeAttributeString(attributes, SemanticAttributes.HTTP_URL);
         if (target == null && url != null) {
             try {
                 URI uri = new URI(url);
@@ -436,27 +587,10 @@ public class Exporter implements SpanExporter {
             // this should not happen, just a failsafe
             target = "Http";
         }
-
-        String targetAppId = removeAttributeString(attributes, SPAN_TARGET_ATTRIBUTE_NAME);
-        if (targetAppId == null || AiAppId.getAppId().equals(targetAppId)) {
-            telemetry.setType("Http");
-            telemetry.setTarget(target);
-        } else {
-            // using "Http (tracked component)" is important for dependencies that go cross-component (have an appId in their target field)
-            // if you use just HTTP, Breeze will remove appid from the target
-            telemetry.setType("Http (tracked component)");
-            telemetry.setTarget(target + " | " + targetAppId);
-        }
-
-        Object httpStatusCode = attributes.remove(SemanticAttributes.HTTP_STATUS_CODE);
-        if (httpStatusCode instanceof Long) {
-            telemetry.setResultCode(Long.toString((Long) httpStatusCode));
-        }
-
-        telemetry.setCommandName(url);
+        return target;
     }
 
-    private static void applyRpcClientSpan(Map<AttributeKey<?>, Object> attributes, RemoteDependencyTelemetry telemetry, String rpcSystem) {
+    private static void applyRpcClientSpan(ExportAttributes attributes, RemoteDependencyTelemetry telemetry, String rpcSystem) {
         telemetry.setType(rpcSystem);
         String target = getTargetFromPeerAttributes(attributes, 0);
         // not appending /rpc.service for now since that seems too fine-grained
@@ -466,9 +600,9 @@ public class Exporter implements SpanExporter {
         telemetry.setTarget(target);
     }
 
-    private static final Set<String> SQL_DB_SYSTEMS = ImmutableSet.of("db2", "derby", "mariadb", "mssql", "mysql", "oracle", "postgresql", "sqlite", "other_sql", "hsqldb", "h2");
+    static final Set<String> SQL_DB_SYSTEMS = ImmutableSet.of("db2", "derby", "mariadb", "mssql", "mysql", "oracle", "postgresql", "sqlite", "other_sql", "hsqldb", "h2");
 
-    private static void applyDatabaseClientSpan(Map<AttributeKey<?>, Object> attributes, RemoteDependencyTelemetry telemetry, String dbSystem) {
+    private static void applyDatabaseClientSpan(ExportAttributes attributes, RemoteDependencyTelemetry telemetry, String dbSystem) {
         String type;
         if (SQL_DB_SYSTEMS.contains(dbSystem)) {
             type = "SQL";
@@ -480,23 +614,23 @@ public class Exporter implements SpanExporter {
         // while span name is a much more truncated version of the statement
         // (or at least will be in the future, see
         // https://github.com/open-telemetry/opentelemetry-java-instrumentation/issues/1409)
-        telemetry.setCommandName(removeAttributeString(attributes, SemanticAttributes.DB_STATEMENT));
+        telemetry.setCommandName(attributes.removeString(ExportAttributes.DB_STATEMENT));
         String target = nullAwareConcat(getTargetFromPeerAttributes(attributes, getDefaultPortForDbSystem(dbSystem)),
-                removeAttributeString(attributes, SemanticAttributes.DB_NAME), "/");
+                attributes.removeString(ExportAttributes.DB_NAME), "/");
         if (target == null) {
             target = dbSystem;
         }
         telemetry.setTarget(target);
     }
 
-    private void applyMessagingClientSpan(Map<AttributeKey<?>, Object> attributes, RemoteDependencyTelemetry telemetry, String messagingSystem, Kind spanKind) {
+    private void applyMessagingClientSpan(ExportAttributes attributes, RemoteDependencyTelemetry telemetry, String messagingSystem, Kind spanKind) {
         if (spanKind == Kind.PRODUCER) {
             telemetry.setType("Queue Message | " + messagingSystem);
         } else {
             // e.g. CONSUMER kind (without remote parent) and CLIENT kind
             telemetry.setType(messagingSystem);
         }
-        String destination = removeAttributeString(attributes, SemanticAttributes.MESSAGING_DESTINATION);
+        String destination = attributes.removeString(ExportAttributes.MESSAGING_DESTINATION);
         if (destination != null) {
             telemetry.setTarget(destination);
         } else {
@@ -504,28 +638,28 @@ public class Exporter implements SpanExporter {
         }
     }
 
-    private static String getTargetFromPeerAttributes(Map<AttributeKey<?>, Object> attributes, int defaultPort) {
-        String target = removeAttributeString(attributes, SemanticAttributes.PEER_SERVICE);
+    static String getTargetFromPeerAttributes(ExportAttributes attributes, int defaultPort) {
+        String target = attributes.removeString(ExportAttributes.PEER_SERVICE);
         if (target != null) {
             // do not append port if peer.service is provided
             return target;
         }
-        target = removeAttributeString(attributes, SemanticAttributes.NET_PEER_NAME);
+        target = attributes.removeString(ExportAttributes.NET_PEER_NAME);
         if (target == null) {
-            target = removeAttributeString(attributes, SemanticAttributes.NET_PEER_IP);
+            target = attributes.removeString(ExportAttributes.NET_PEER_IP);
         }
         if (target == null) {
             return null;
         }
         // append net.peer.port to target
-        Long port = removeAttributeLong(attributes, SemanticAttributes.NET_PEER_PORT);
+        Long port = attributes.removeLong(ExportAttributes.NET_PEER_PORT);
         if (port != null && port != defaultPort) {
             return target + ":" + port;
         }
         return target;
     }
 
-    private static int getDefaultPortForDbSystem(String dbSystem) {
+    static int getDefaultPortForDbSystem(String dbSystem) {
         switch (dbSystem) {
             // TODO replace these with constants from OpenTelemetry API after upgrading to 0.10.0
             // TODO add these default ports to the OpenTelemetry database semantic conventions spec
@@ -566,20 +700,37 @@ public class Exporter implements SpanExporter {
     // TODO revisit this list and behavior of excluding these attributes
     private static final Set<String> STANDARD_ATTRIBUTE_PREFIXES = ImmutableSet.of("http", "db", "message", "messaging", "rpc", "enduser", "net", "peer", "exception", "thread", "faas");
 
-    private static void addExtraAttributes(Map<String, String> properties, Map<AttributeKey<?>, Object> attributes) {
-        for (Map.Entry<AttributeKey<?>, Object> entry : attributes.entrySet()) {
-            AttributeKey<?> attributeKey = entry.getKey();
-            String stringKey = attributeKey.getKey();
+    // attribute keys are low cardinality in practice, but the cache is capped in case they are not
+    private static final int MAX_STANDARD_ATTRIBUTES_CACHE_SIZE = 1000;
+
+    private static final ConcurrentMap<String, Boolean> standardAttributes = new ConcurrentHashMap<>();
+
+    private static void addExtraAttributes(Map<String, String> properties, ExportAttributes attributes) {
+        attributes.forEachRemaining(new ExportAttributes.Visitor() {
+            @Override
+            public void visit(AttributeKey<?> attributeKey, Object value) {
+                if (isStandardAttribute(attributeKey.getKey())) {
+                    return;
+                }
+                String val = getStringValue(attributeKey, value);
+                if (val != null) {
+                    properties.put(attributeKey.getKey(), val);
+                }
+            }
+        });
+    }
+
+    private static boolean isStandardAttribute(String stringKey) {
+        Boolean standard = standardAttributes.get(stringKey);
+        if (standard == null) {
             int index = stringKey.indexOf(".");
             String prefix = index == -1 ? stringKey : stringKey.substring(0, index);
-            if (STANDARD_ATTRIBUTE_PREFIXES.contains(prefix)) {
-                continue;
-            }
-            String value = getStringValue(attributeKey, entry.getValue());
-            if (value != null) {
-                properties.put(attributeKey.getKey(), value);
+            standard = STANDARD_ATTRIBUTE_PREFIXES.contains(prefix);
+            if (standardAttributes.size() < MAX_STANDARD_ATTRIBUTES_CACHE_SIZE) {
+                standardAttributes.put(stringKey, standard);
             }
         }
+        return standard;
     }
 
     private static void addExtraAttributes(Map<String, String> properties, Attributes attributes) {
@@ -594,46 +745,6 @@ public class Exporter implements SpanExporter {
         });
     }
 
-    private static Double removeAiSamplingPercentage(Map<AttributeKey<?>, Object> attributes) {
-        return removeAttributeDouble(attributes, AI_SAMPLING_PERCENTAGE);
-    }
-
-    private static String removeAttributeString(Map<AttributeKey<?>, Object> attributes, AttributeKey<String> attributeKey) {
-        Object value = attributes.remove(attributeKey);
-        if (value instanceof String) {
-            return (String) value;
-        } else {
-            return null;
-        }
-    }
-
-    private static Long removeAttributeLong(Map<AttributeKey<?>, Object> attributes, AttributeKey<Long> attributeKey) {
-        Object value = attributes.remove(attributeKey);
-        if (value instanceof Long) {
-            return (Long) value;
-        } else {
-            return null;
-        }
-    }
-
-    private static Double removeAttributeDouble(Map<AttributeKey<?>, Object> attributes, AttributeKey<Double> attributeKey) {
-        Object value = attributes.remove(attributeKey);
-        if (value instanceof Double) {
-            return (Double) value;
-        } else {
-            return null;
-        }
-    }
-
-    private static boolean removeAttributeBoolean(Map<AttributeKey<?>, Object> attributes, AttributeKey<Boolean> attributeKey) {
-        Object value = attributes.remove(attributeKey);
-        if (value instanceof Boolean) {
-            return (Boolean) value;
-        } else {
-            return false;
-        }
-    }
-
     private static String getStringValue(AttributeKey<?> attributeKey, Object value) {
         switch (attributeKey.getType()) {
             case STRING:
@@ -652,7 +763,7 @@ public class Exporter implements SpanExporter {
         }
     }
 
-    private static SeverityLevel toSeverityLevel(String level) {
+    static SeverityLevel toSeverityLevel(String level) {
         if (level == null) {
             return null;
         }
@@ -681,7 +792,7 @@ public class Exporter implements SpanExporter {
         }
     }
 
-    private static String nullAwareConcat(String str1, String str2, String separator) {
+    static String nullAwareConcat(String str1, String str2, String separator) {
         if (str1 == null) {
             return str2;
         }
@@ -690,4 +801,65 @@ public class Exporter implements SpanExporter {
         }
         return str1 + separator + str2;
     }
+
+    public static class Builder {
+
+        private final TelemetryClient telemetryClient;
+        private boolean standardMetricsExtracted;
+        private DependencyAggregator dependencyAggregator;
+        private LogCaptureLimiter logCaptureLimiter;
+        private int telemetryPoolSize;
+        private int maxExceptionStackFrames = Exceptions.DEFAULT_MAX_FRAMES;
+
+        private Builder(TelemetryClient telemetryClient) {
+            this.telemetryClient = telemetryClient;
+        }
+
+        /**
+         * Whether the standard request and dependency metrics have already been extracted from the spans,
+         * see {@link StandardMetricsExporter}.
+         */
+        public Builder setStandardMetricsExtracted(boolean standardMetricsExtracted) {
+            this.standardMetricsExtracted = standardMetricsExtracted;
+            return this;
+        }
+
+        /**
+         * Dependency calls are not aggregated if this is not set.
+         */
+        public Builder setDependencyAggregator(DependencyAggregator dependencyAggregator) {
+            this.dependencyAggregator = dependencyAggregator;
+            return this;
+        }
+
+        /**
+         * Logs are captured without per logger thresholds or rate limits if this is not set.
+         */
+        public Builder setLogCaptureLimiter(LogCaptureLimiter logCaptureLimiter) {
+            this.logCaptureLimiter = logCaptureLimiter;
+            return this;
+        }
+
+        /**
+         * The number of request and of dependency telemetry items which are kept for reuse once they have been sent,
+         * see {@link TelemetryPool}, 0 (the default) to not reuse them.
+         */
+        public Builder setTelemetryPoolSize(int telemetryPoolSize) {
+            this.telemetryPoolSize = telemetryPoolSize;
+            return this;
+        }
+
+        /**
+         * The maximum number of stack frames which are kept per exception, the rest are dropped, see
+         * {@link Exceptions#fullParse(String, int)}.
+         */
+        public Builder setMaxExceptionStackFrames(int maxExceptionStackFrames) {
+            this.maxExceptionStackFrames = maxExceptionStackFrames;
+            return this;
+        }
+
+        public Exporter build() {
+            return new Exporter(this);
+        }
+    }
 }
@@ -0,0 +1,203 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Ticker;
+import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Applies per logger name thresholds and rate limits to the captured log events, before they are turned into
+ * trace or exception telemetry.
+ *
+ * Each log event is matched to the rule with the longest matching logger name prefix. Events below the rule's
+ * threshold are dropped. Events over the rule's rate limit are dropped and counted, and the counts are reported
+ * as one "N log messages suppressed" trace per rule every {@code reportIntervalSeconds}.
+ *
+ * The rate limit of a rule is a token bucket which is shared by all of the loggers which match the rule.
+ */
+public class LogCaptureLimiter {
+
+    static final String LOGGER_NAME_PREFIX = "LoggerNamePrefix";
+    static final String SUPPRESSED_COUNT = "SuppressedCount";
+
+    // logger names beyond this are matched against the rules on every event instead of being cached
+    private static final int MAX_CACHED_LOGGER_NAMES = 10000;
+
+    // longest prefix first
+    private final List<RuleState> rules;
+    private final long reportIntervalNanos;
+    private final Ticker ticker;
+
+    private final Map<String, RuleState> ruleByLoggerName = new HashMap<>();
+
+    private long lastReportNanos;
+
+    public LogCaptureLimiter(List<Rule> rules, int reportIntervalSeconds) {
+        this(rules, reportIntervalSeconds, Ticker.systemTicker());
+    }
+
+    // visible for testing
+    LogCaptureLimiter(List<Rule> rules, int reportIntervalSeconds, Ticker ticker) {
+        this.ticker = ticker;
+        this.reportIntervalNanos = SECONDS.toNanos(reportIntervalSeconds);
+        long now = ticker.read();
+        List<RuleState> states = new ArrayList<>();
+        for (Rule rule : rules) {
+            states.add(new RuleState(rule, now));
+        }
+        Collections.sort(states, new Comparator<RuleState>() {
+            @Override
+            public int compare(RuleState a, RuleState b) {
+                return b.rule.loggerNamePrefix.length() - a.rule.loggerNamePrefix.length();
+            }
+        });
+        this.rules = states;
+        this.lastReportNanos = now;
+    }
+
+    /**
+     * Returns {@code true} if the log event should be captured, or {@code false} if it is below the threshold
+     * or over the rate limit of its logger.
+     */
+    synchronized boolean tryCapture(String loggerName, SeverityLevel level) {
+        RuleState rule = getRule(loggerName == null ? "" : loggerName);
+        if (rule == null) {
+            return true;
+        }
+        if (rule.rule.threshold != null && level != null && level.compareTo(rule.rule.threshold) < 0) {
+            return false;
+        }
+        if (rule.rule.maxPerSecond <= 0) {
+            return true;
+        }
+        if (rule.tryAcquire(ticker.read())) {
+            return true;
+        }
+        rule.suppressedCount++;
+        return false;
+    }
+
+    /**
+     * Returns the suppressed log messages report, if the report interval has elapsed since the last report.
+     */
+    synchronized List<TraceTelemetry> drainSuppressed() {
+        if (ticker.read() - lastReportNanos < reportIntervalNanos) {
+            return Collections.emptyList();
+        }
+        return drainAllSuppressed();
+    }
+
+    /**
+     * Returns the suppressed log messages report, regardless of when the last report was made.
+     */
+    synchronized List<TraceTelemetry> drainAllSuppressed() {
+        lastReportNanos = ticker.read();
+        List<TraceTelemetry> out = new ArrayList<>();
+        for (RuleState rule : rules) {
+            if (rule.suppressedCount == 0) {
+                continue;
+            }
+            TraceTelemetry telemetry = new TraceTelemetry(rule.suppressedCount + " log messages suppressed",
+                    SeverityLevel.Warning);
+            telemetry.useSingleOwnerMaps();
+            telemetry.getProperties().put(LOGGER_NAME_PREFIX, rule.rule.loggerNamePrefix);
+            telemetry.getProperties().put(SUPPRESSED_COUNT, Long.toString(rule.suppressedCount));
+            out.add(telemetry);
+            rule.suppressedCount = 0;
+        }
+        return out;
+    }
+
+    private RuleState getRule(String loggerName) {
+        RuleState rule = ruleByLoggerName.get(loggerName);
+        if (rule != null || ruleByLoggerName.containsKey(loggerName)) {
+            return rule;
+        }
+        for (RuleState candidate : rules) {
+            if (loggerName.startsWith(candidate.rule.loggerNamePrefix)) {
+                rule = candidate;
+                break;
+            }
+        }
+        if (ruleByLoggerName.size() < MAX_CACHED_LOGGER_NAMES) {
+            ruleByLoggerName.put(loggerName, rule);
+        }
+        return rule;
+    }
+
+    public static class Rule {
+
+        private final String loggerNamePrefix;
+        private final SeverityLevel threshold;
+        private final double maxPerSecond;
+        private final double burst;
+
+        /**
+         * @param loggerNamePrefix the empty string matches all loggers
+         * @param threshold the lowest level which is captured, e.g. {@code WARN}, or {@code null} for no threshold
+         * @param maxPerSecond the rate limit, or zero for no rate limit
+         * @param burst the number of events which can be captured at once before the rate limit applies,
+         *              or zero for one second worth of events
+         */
+        public Rule(String loggerNamePrefix, String threshold, double maxPerSecond, int burst) {
+            this.loggerNamePrefix = loggerNamePrefix == null ? "" : loggerNamePrefix;
+            this.threshold = Exporter.toSeverityLevel(threshold);
+            this.maxPerSecond = maxPerSecond;
+            this.burst = burst > 0 ? burst : Math.max(1, Math.ceil(maxPerSecond));
+        }
+    }
+
+    private static class RuleState {
+
+        private final Rule rule;
+
+        private double tokens;
+        private long lastRefillNanos;
+        private long suppressedCount;
+
+        private RuleState(Rule rule, long now) {
+            this.rule = rule;
+            this.tokens = rule.burst;
+            this.lastRefillNanos = now;
+        }
+
+        private boolean tryAcquire(long now) {
+            double elapsedSeconds = (now - lastRefillNanos) / (double) SECONDS.toNanos(1);
+            tokens = Math.min(rule.burst, tokens + elapsedSeconds * rule.maxPerSecond);
+            lastRefillNanos = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
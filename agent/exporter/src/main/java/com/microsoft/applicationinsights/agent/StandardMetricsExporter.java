@@ -0,0 +1,267 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.metrics.LatencyPercentiles;
+import com.microsoft.applicationinsights.internal.metrics.MetricAggregator;
+import io.opentelemetry.api.trace.Span.Kind;
+import io.opentelemetry.api.trace.SpanId;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Extracts the standard request and dependency metrics (count, duration and failures) from every span,
+ * including the spans which are not sampled, and passes only the sampled spans on to the delegate.
+ *
+ * This keeps the request and dependency rates and durations exact even when traces are sampled aggressively.
+ * The metrics are pre-aggregated and sent once per interval as {@code MetricTelemetry}, with the same
+ * {@code _MS.MetricId} and dimensions that the ingestion service would otherwise extract from the sampled telemetry.
+ * The {@link Exporter} marks the request and dependency telemetry as already processed by the metric extractors,
+ * so that they are not counted twice. When latency percentiles are enabled, the durations of every span are
+ * also recorded into {@link LatencyPercentiles}.
+ *
+ * The spans which are not sampled are expected to be exported too (see
+ * {@code SimpleSpanProcessor.Builder.setExportOnlySampled}), and this exporter is meant to sit ahead of the
+ * {@link AsyncExporter}, so that the metrics are extracted on the threads which end the spans: only the sampled spans
+ * are queued, and the metrics do not depend on whether the queue had room for the span.
+ *
+ * The dimensions of each span are collected into a map which is reused for the whole batch, the aggregator only
+ * copies them when the span starts a new series.
+ */
+public class StandardMetricsExporter implements SpanExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(StandardMetricsExporter.class);
+
+    static final String PROCESSED_BY_METRIC_EXTRACTORS = "_MS.ProcessedByMetricExtractors";
+    static final String REQUESTS_EXTRACTOR = "(Name:'Requests', Ver:'1.1')";
+    static final String DEPENDENCIES_EXTRACTOR = "(Name:'Dependencies', Ver:'1.1')";
+
+    static final String REQUEST_DURATION_METRIC_NAME = "Server response time";
+    static final String DEPENDENCY_DURATION_METRIC_NAME = "Dependency duration";
+
+    static final String METRIC_ID = "_MS.MetricId";
+    static final String IS_AUTOCOLLECTED = "_MS.IsAutocollected";
+    static final String REQUEST_SUCCESS = "Request.Success";
+    static final String REQUEST_RESULT_CODE = "request/resultCode";
+    static final String OPERATION_NAME = "operation/name";
+    static final String DEPENDENCY_TYPE = "Dependency.Type";
+    static final String DEPENDENCY_TARGET = "dependency/target";
+    static final String DEPENDENCY_SUCCESS = "Dependency.Success";
+
+    private static final String REQUESTS_DURATION = "requests/duration";
+    private static final String DEPENDENCIES_DURATION = "dependencies/duration";
+
+    private static final int DEFAULT_INTERVAL_SECONDS = 60;
+
+    private static final double NANOS_PER_MILLI = MILLISECONDS.toNanos(1);
+
+    private final SpanExporter delegate;
+
+    private final MetricAggregator aggregator;
+
+    /**
+     * The metrics are sent through the given client once per minute.
+     *
+     * @param maxSeries the maximum number of distinct metric series per minute, see {@link MetricAggregator}
+     */
+    public StandardMetricsExporter(SpanExporter delegate, TelemetryClient telemetryClient, int maxSeries) {
+        this(delegate, new MetricAggregator(maxSeries));
+        aggregator.enable(telemetryClient, DEFAULT_INTERVAL_SECONDS, maxSeries);
+    }
+
+    // visible for testing
+    StandardMetricsExporter(SpanExporter delegate, MetricAggregator aggregator) {
+        this.delegate = delegate;
+        this.aggregator = aggregator;
+    }
+
+    @Override
+    public CompletableResultCode export(Collection<SpanData> spans) {
+        boolean allSampled = true;
+        Map<String, String> dimensions = new HashMap<>();
+        for (SpanData span : spans) {
+            try {
+                dimensions.clear();
+                record(span, dimensions);
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+            }
+            allSampled &= span.isSampled();
+        }
+        if (allSampled) {
+            // the common case when the spans are ended one at a time
+            return delegate.export(spans);
+        }
+        List<SpanData> sampled = new ArrayList<>(spans.size());
+        for (SpanData span : spans) {
+            if (span.isSampled()) {
+                sampled.add(span);
+            }
+        }
+        if (sampled.isEmpty()) {
+            return CompletableResultCode.ofSuccess();
+        }
+        return delegate.export(sampled);
+    }
+
+    /**
+     * Sends the metrics aggregated since the last interval.
+     */
+    public void flushMetrics() {
+        aggregator.flush();
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        CompletableResultCode result = delegate.flush();
+        flushMetrics();
+        return result;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        CompletableResultCode result = delegate.shutdown();
+        flushMetrics();
+        return result;
+    }
+
+    // the spans are classified the same way as in Exporter
+    private void record(SpanData span, Map<String, String> dimensions) {
+        Kind kind = span.getKind();
+        ExportPlan plan = ExportPlan.get(span.getInstrumentationLibraryInfo(), kind);
+        if (plan == null) {
+            return;
+        }
+        boolean root = !SpanId.isValid(span.getParentSpanId());
+        if (plan.dropIfRoot && root) {
+            return;
+        }
+        ExportAttributes attributes = ExportAttributes.capture(span.getAttributes());
+        switch (plan.mapping) {
+            case INTERNAL:
+                if (attributes.removeBoolean(ExportAttributes.AI_INTERNAL_LOG)) {
+                    return;
+                }
+                if (plan.requestIfRoot && root) {
+                    recordRequest(span, attributes, dimensions);
+                } else {
+                    recordDependency(span, "InProc", null, dimensions);
+                }
+                return;
+            case DEPENDENCY:
+                recordRemoteDependency(span, attributes, dimensions);
+                return;
+            case CONSUMER:
+                if (span.hasRemoteParent()) {
+                    recordRequest(span, attributes, dimensions);
+                } else {
+                    recordRemoteDependency(span, attributes, dimensions);
+                }
+                return;
+            case REQUEST:
+                recordRequest(span, attributes, dimensions);
+                return;
+            default:
+        }
+    }
+
+    private void recordRequest(SpanData span, ExportAttributes attributes, Map<String, String> properties) {
+        properties.put(METRIC_ID, REQUESTS_DURATION);
+        properties.put(IS_AUTOCOLLECTED, "True");
+        properties.put(REQUEST_SUCCESS, span.getStatus().isOk() ? "True" : "False");
+        properties.put(OPERATION_NAME, span.getName());
+        Long httpStatusCode = attributes.removeLong(ExportAttributes.HTTP_STATUS_CODE);
+        if (httpStatusCode != null) {
+            properties.put(REQUEST_RESULT_CODE, Long.toString(httpStatusCode));
+        }
+        double millis = getDurationMillis(span);
+        aggregator.record(REQUEST_DURATION_METRIC_NAME, properties, millis);
+        if (LatencyPercentiles.INSTANCE.isEnabled()) {
+            LatencyPercentiles.INSTANCE.recordRequest(span.getName(), millis, 1);
+        }
+    }
+
+    private void recordRemoteDependency(SpanData span, ExportAttributes attributes, Map<String, String> dimensions) {
+        // same type and target as in Exporter.applySemanticConventions(),
+        // except that cross-component http calls are not distinguished
+        if (attributes.contains(ExportAttributes.HTTP_METHOD)) {
+            String url = attributes.removeString(ExportAttributes.HTTP_URL);
+            recordDependency(span, "Http", Exporter.getHttpClientTarget(attributes, url), dimensions);
+            return;
+        }
+        String rpcSystem = attributes.removeString(ExportAttributes.RPC_SYSTEM);
+        if (rpcSystem != null) {
+            String target = Exporter.getTargetFromPeerAttributes(attributes, 0);
+            recordDependency(span, rpcSystem, target == null ? rpcSystem : target, dimensions);
+            return;
+        }
+        String dbSystem = attributes.removeString(ExportAttributes.DB_SYSTEM);
+        if (dbSystem != null) {
+            String type = Exporter.SQL_DB_SYSTEMS.contains(dbSystem) ? "SQL" : dbSystem;
+            String target = Exporter.nullAwareConcat(
+                    Exporter.getTargetFromPeerAttributes(attributes, Exporter.getDefaultPortForDbSystem(dbSystem)),
+                    attributes.removeString(ExportAttributes.DB_NAME), "/");
+            recordDependency(span, type, target == null ? dbSystem : target, dimensions);
+            return;
+        }
+        String messagingSystem = attributes.removeString(ExportAttributes.MESSAGING_SYSTEM);
+        if (messagingSystem != null) {
+            String type = span.getKind() == Kind.PRODUCER ? "Queue Message | " + messagingSystem : messagingSystem;
+            String destination = attributes.removeString(ExportAttributes.MESSAGING_DESTINATION);
+            recordDependency(span, type, destination == null ? messagingSystem : destination, dimensions);
+            return;
+        }
+        recordDependency(span, null, null, dimensions);
+    }
+
+    private void recordDependency(SpanData span, String type, String target, Map<String, String> properties) {
+        properties.put(METRIC_ID, DEPENDENCIES_DURATION);
+        properties.put(IS_AUTOCOLLECTED, "True");
+        properties.put(DEPENDENCY_SUCCESS, span.getStatus().isOk() ? "True" : "False");
+        if (type != null) {
+            properties.put(DEPENDENCY_TYPE, type);
+        }
+        if (target != null) {
+            properties.put(DEPENDENCY_TARGET, target);
+        }
+        double millis = getDurationMillis(span);
+        aggregator.record(DEPENDENCY_DURATION_METRIC_NAME, properties, millis);
+        if (LatencyPercentiles.INSTANCE.isEnabled()) {
+            LatencyPercentiles.INSTANCE.recordDependency(type, target, millis, 1);
+        }
+    }
+
+    private static double getDurationMillis(SpanData span) {
+        return (span.getEndEpochNanos() - span.getStartEpochNanos()) / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,223 @@
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.junit.*;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+public class AsyncExporterTest {
+
+    @Test
+    public void testFlushExportsAllQueuedSpans() {
+        // given
+        CollectingExporter delegate = new CollectingExporter(null);
+        AsyncExporter asyncExporter = new AsyncExporter(delegate, 100, 10, false);
+
+        // when
+        for (int i = 0; i < 50; i++) {
+            asyncExporter.export(Collections.singletonList(createSpanData("span" + i)));
+        }
+        asyncExporter.flush();
+
+        // then
+        assertEquals(50, delegate.getSpans().size());
+        assertEquals(50, asyncExporter.getExportedCount());
+        assertEquals(0, asyncExporter.getQueueSize());
+        assertEquals(0, asyncExporter.getDroppedCount());
+
+        asyncExporter.shutdown();
+    }
+
+    @Test
+    public void testDropNewestWhenQueueIsFull() throws InterruptedException {
+        // given
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingExporter delegate = new CollectingExporter(release);
+        AsyncExporter asyncExporter = new AsyncExporter(delegate, 5, 10, false);
+
+        // when
+        asyncExporter.export(Collections.singletonList(createSpanData("first")));
+        assertTrue(delegate.started.await(10, SECONDS));
+        for (int i = 0; i < 7; i++) {
+            asyncExporter.export(Collections.singletonList(createSpanData("span" + i)));
+        }
+
+        // then
+        assertEquals(5, asyncExporter.getQueueSize());
+        assertEquals(2, asyncExporter.getDroppedCount());
+
+        release.countDown();
+        asyncExporter.flush();
+        assertEquals(6, delegate.getSpans().size());
+        assertEquals("span4", delegate.getSpans().get(5).getName());
+
+        asyncExporter.shutdown();
+    }
+
+    @Test
+    public void testDropOldestWhenQueueIsFull() throws InterruptedException {
+        // given
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingExporter delegate = new CollectingExporter(release);
+        AsyncExporter asyncExporter = new AsyncExporter(delegate, 5, 10, true);
+
+        // when
+        asyncExporter.export(Collections.singletonList(createSpanData("first")));
+        assertTrue(delegate.started.await(10, SECONDS));
+        for (int i = 0; i < 7; i++) {
+            asyncExporter.export(Collections.singletonList(createSpanData("span" + i)));
+        }
+
+        // then
+        assertEquals(2, asyncExporter.getDroppedCount());
+
+        release.countDown();
+        asyncExporter.flush();
+        assertEquals(6, delegate.getSpans().size());
+        assertEquals("span2", delegate.getSpans().get(1).getName());
+        assertEquals("span6", delegate.getSpans().get(5).getName());
+
+        asyncExporter.shutdown();
+    }
+
+    @Test
+    public void testFlushWaitsForBatchBeingExported() throws InterruptedException {
+        // given
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingExporter delegate = new CollectingExporter(release);
+        final AsyncExporter asyncExporter = new AsyncExporter(delegate, 5, 10, false);
+        asyncExporter.export(Collections.singletonList(createSpanData("first")));
+        assertTrue(delegate.started.await(10, SECONDS));
+
+        // when
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                asyncExporter.flush();
+            }
+        });
+        flusher.start();
+        flusher.join(200);
+
+        // then
+        assertTrue(flusher.isAlive());
+        release.countDown();
+        flusher.join(10000);
+        assertFalse(flusher.isAlive());
+        assertEquals(1, delegate.getSpans().size());
+
+        asyncExporter.shutdown();
+    }
+
+    @Test
+    public void testFlushIsNotLostWhenOldestIsDropped() throws InterruptedException {
+        // given
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingExporter delegate = new CollectingExporter(release);
+        final AsyncExporter asyncExporter = new AsyncExporter(delegate, 1, 10, true);
+        asyncExporter.export(Collections.singletonList(createSpanData("first")));
+        assertTrue(delegate.started.await(10, SECONDS));
+
+        // when
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                asyncExporter.flush();
+            }
+        });
+        flusher.start();
+        while (asyncExporter.getQueueSize() == 0) {
+            Thread.sleep(1);
+        }
+        // displaces the flush marker
+        asyncExporter.export(Collections.singletonList(createSpanData("second")));
+
+        // then
+        assertEquals(0, asyncExporter.getDroppedCount());
+        release.countDown();
+        flusher.join(10000);
+        assertFalse(flusher.isAlive());
+        assertEquals("first", delegate.getSpans().get(0).getName());
+
+        asyncExporter.shutdown();
+        assertEquals(2, delegate.getSpans().size());
+    }
+
+    @Test
+    public void testFlushGivesUpWhenDelegateIsStuck() throws InterruptedException {
+        // given
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingExporter delegate = new CollectingExporter(release);
+        AsyncExporter asyncExporter = new AsyncExporter(delegate, 1, 10, false, 300);
+        asyncExporter.export(Collections.singletonList(createSpanData("first")));
+        assertTrue(delegate.started.await(10, SECONDS));
+        // fills the queue, so that there is no room for the flush marker
+        asyncExporter.export(Collections.singletonList(createSpanData("second")));
+
+        // when
+        long start = System.nanoTime();
+        CompletableResultCode result = asyncExporter.flush();
+
+        // then
+        assertFalse(result.isSuccess());
+        assertTrue(System.nanoTime() - start < SECONDS.toNanos(5));
+
+        release.countDown();
+        asyncExporter.shutdown();
+        assertEquals(2, delegate.getSpans().size());
+    }
+
+    private static SpanData createSpanData(String name) {
+        return ((ReadableSpan) OpenTelemetry.getGlobalTracer("test").spanBuilder(name).startSpan()).toSpanData();
+    }
+
+    private static class CollectingExporter implements SpanExporter {
+
+        private final List<SpanData> spans = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        private CollectingExporter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        List<SpanData> getSpans() {
+            return spans;
+        }
+
+        @Override
+        public CompletableResultCode export(Collection<SpanData> spans) {
+            started.countDown();
+            if (release != null) {
+                try {
+                    release.await(10, SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            this.spans.addAll(spans);
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode flush() {
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return CompletableResultCode.ofSuccess();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.microsoft.applicationinsights.agent;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.google.common.base.Ticker;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import org.junit.*;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+public class DependencyAggregatorTest {
+
+    private ManualTicker ticker;
+    private DependencyAggregator aggregator;
+
+    @Before
+    public void setup() {
+        ticker = new ManualTicker();
+        aggregator = new DependencyAggregator(Arrays.asList("redis", "SQL"), 100, 10, ticker);
+    }
+
+    @Test
+    public void testFastCallsAreAggregatedPerOperationTypeTargetAndName() {
+        // when
+        assertTrue(aggregator.aggregate(createDependency("op1", "redis", "cache", "GET", 2, true), null));
+        assertTrue(aggregator.aggregate(createDependency("op1", "redis", "cache", "GET", 5, true), null));
+        assertTrue(aggregator.aggregate(createDependency("op1", "redis", "cache", "GET", 3, true), null));
+        RemoteDependencyTelemetry set = createDependency("op1", "redis", "cache", "SET", 1, true);
+        set.getProperties().put("attribute", "value");
+        assertTrue(aggregator.aggregate(set, null));
+        aggregator.completeOperation("op1");
+        List<RemoteDependencyTelemetry> aggregated = aggregator.drainCompleted();
+
+        // then
+        assertEquals(2, aggregated.size());
+        RemoteDependencyTelemetry get = aggregated.get(0);
+        assertEquals("GET", get.getName());
+        assertEquals("redis", get.getType());
+        assertEquals("cache", get.getTarget());
+        assertEquals("op1", get.getContext().getOperation().getId());
+        // the mean duration, the count is encoded in the sampling percentage
+        assertEquals(3, get.getDuration().getTotalMilliseconds());
+        assertEquals(100.0 / 3, get.getSamplingPercentage(), 0.0001);
+        assertEquals("3", get.getProperties().get(DependencyAggregator.AGGREGATED_COUNT));
+        assertEquals("2", get.getProperties().get(DependencyAggregator.AGGREGATED_MIN_DURATION));
+        assertEquals("5", get.getProperties().get(DependencyAggregator.AGGREGATED_MAX_DURATION));
+
+        // a single call is emitted as is
+        assertSame(set, aggregated.get(1));
+        assertEquals("value", set.getProperties().get("attribute"));
+        assertNull(set.getProperties().get(DependencyAggregator.AGGREGATED_COUNT));
+        assertNull(set.getSamplingPercentage());
+
+        assertEquals(0, aggregator.getPendingOperationCount());
+    }
+
+    @Test
+    public void testFailedSlowAndOtherCallsAreNotAggregated() {
+        assertFalse(aggregator.aggregate(createDependency("op1", "redis", "cache", "GET", 2, false), null));
+        assertFalse(aggregator.aggregate(createDependency("op1", "redis", "cache", "GET", 500, true), null));
+        assertFalse(aggregator.aggregate(createDependency("op1", "Http", "example.com", "GET /", 2, true), null));
+        assertEquals(0, aggregator.getPendingOperationCount());
+    }
+
+    @Test
+    public void testOperationsAreEmittedOnlyWhenCompleteOrExpired() {
+        aggregator.aggregate(createDependency("op1", "SQL", "db", "SELECT", 1, true), null);
+        aggregator.aggregate(createDependency("op2", "SQL", "db", "SELECT", 1, true), null);
+
+        assertTrue(aggregator.drainCompleted().isEmpty());
+
+        aggregator.completeOperation("op2");
+        List<RemoteDependencyTelemetry> aggregated = aggregator.drainCompleted();
+        assertEquals(1, aggregated.size());
+        assertEquals("op2", aggregated.get(0).getContext().getOperation().getId());
+
+        ticker.advance(SECONDS.toNanos(11));
+        aggregated = aggregator.drainCompleted();
+        assertEquals(1, aggregated.size());
+        assertEquals("op1", aggregated.get(0).getContext().getOperation().getId());
+    }
+
+    @Test
+    public void testDrainAllEmitsPendingOperations() {
+        aggregator.aggregate(createDependency("op1", "SQL", "db", "SELECT", 1, true), 50.0);
+        aggregator.aggregate(createDependency("op1", "SQL", "db", "SELECT", 1, true), 50.0);
+
+        List<RemoteDependencyTelemetry> aggregated = aggregator.drainAll();
+
+        assertEquals(1, aggregated.size());
+        assertEquals(Double.valueOf(25.0), aggregated.get(0).getSamplingPercentage());
+        assertEquals(0, aggregator.getPendingOperationCount());
+    }
+
+    private static RemoteDependencyTelemetry createDependency(String operationId, String type, String target,
+                                                              String name, long durationMillis, boolean success) {
+        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(name);
+        telemetry.setType(type);
+        telemetry.setTarget(target);
+        telemetry.setId("0123456789abcdef");
+        telemetry.getContext().getOperation().setId(operationId);
+        telemetry.setTimestamp(new Date());
+        telemetry.setDuration(new Duration(durationMillis));
+        telemetry.setSuccess(success);
+        return telemetry;
+    }
+
+    private static class ManualTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long nanos) {
+            this.nanos += nanos;
+        }
+    }
+}
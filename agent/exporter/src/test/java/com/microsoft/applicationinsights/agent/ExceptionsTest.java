@@ -5,6 +5,7 @@ import java.io.StringWriter;
 import java.util.List;
 
 import com.microsoft.applicationinsights.internal.schemav2.ExceptionDetails;
+import com.microsoft.applicationinsights.internal.schemav2.StackFrame;
 import org.junit.*;
 
 import static org.junit.Assert.*;
@@ -66,7 +67,7 @@ public class ExceptionsTest {
     }
 
     @Test
-    public void shouldIgnoreSuppressed() {
+    public void testWithSuppressed() {
         // given
         RuntimeException suppressed = new RuntimeException("the suppressed");
         IllegalStateException exception = new IllegalStateException("test");
@@ -77,11 +78,122 @@ public class ExceptionsTest {
         List<ExceptionDetails> list = Exceptions.fullParse(str);
 
         // then
-        assertEquals(1, list.size());
+        assertEquals(2, list.size());
 
         ExceptionDetails details = list.get(0);
         assertEquals(IllegalStateException.class.getName(), details.getTypeName());
         assertEquals("test", details.getMessage());
+
+        ExceptionDetails suppressedDetails = list.get(1);
+        assertEquals(RuntimeException.class.getName(), suppressedDetails.getTypeName());
+        assertEquals("the suppressed", suppressedDetails.getMessage());
+        assertEquals(0, suppressedDetails.getOuterId());
+    }
+
+    @Test
+    public void testSuppressedWithCausedBy() {
+        // given
+        RuntimeException suppressedCause = new RuntimeException("the suppressed cause");
+        RuntimeException suppressed = new RuntimeException("the suppressed", suppressedCause);
+        RuntimeException causedBy = new RuntimeException("the cause");
+        IllegalStateException exception = new IllegalStateException("test", causedBy);
+        exception.addSuppressed(suppressed);
+        String str = toString(exception);
+
+        // when
+        List<ExceptionDetails> list = Exceptions.fullParse(str);
+
+        // then
+        assertEquals(4, list.size());
+        assertEquals("test", list.get(0).getMessage());
+        assertEquals("the suppressed", list.get(1).getMessage());
+        assertEquals(0, list.get(1).getOuterId());
+        assertEquals("the suppressed cause", list.get(2).getMessage());
+        assertEquals(1, list.get(2).getOuterId());
+        assertEquals("the cause", list.get(3).getMessage());
+        assertEquals(0, list.get(3).getOuterId());
+    }
+
+    @Test
+    public void testStackFrames() {
+        // given
+        String str = "java.lang.IllegalStateException: test\n"
+                + "\tat com.example.Foo.bar(Foo.java:12)\n"
+                + "\tat java.base/java.lang.Thread.run(Thread.java:834)\n"
+                + "\tat sun.misc.Unsafe.park(Native Method)\n"
+                + "Caused by: java.lang.RuntimeException\n"
+                + "\tat com.example.Foo.baz(Foo.java:20)\n"
+                + "\t... 3 more\n";
+
+        // when
+        List<ExceptionDetails> list = Exceptions.fullParse(str);
+
+        // then
+        assertEquals(2, list.size());
+
+        ExceptionDetails details = list.get(0);
+        assertNull(details.getStack());
+        List<StackFrame> frames = details.getParsedStack();
+        assertEquals(3, frames.size());
+        assertEquals(0, frames.get(0).getLevel());
+        assertEquals("com.example.Foo.bar", frames.get(0).getMethod());
+        assertEquals("Foo.java", frames.get(0).getFileName());
+        assertEquals(12, frames.get(0).getLine());
+        assertEquals("java.lang.Thread.run", frames.get(1).getMethod());
+        assertEquals("java.base", frames.get(1).getAssembly());
+        assertEquals("Thread.java", frames.get(1).getFileName());
+        assertEquals(834, frames.get(1).getLine());
+        assertEquals("sun.misc.Unsafe.park", frames.get(2).getMethod());
+        assertNull(frames.get(2).getFileName());
+
+        ExceptionDetails causedByDetails = list.get(1);
+        assertNull(causedByDetails.getMessage());
+        assertEquals(1, causedByDetails.getParsedStack().size());
+        assertEquals("com.example.Foo.baz", causedByDetails.getParsedStack().get(0).getMethod());
+    }
+
+    @Test
+    public void testMaxFrames() {
+        // given
+        String str = toString(new IllegalStateException("test"));
+
+        // when
+        List<ExceptionDetails> list = Exceptions.fullParse(str, 2);
+
+        // then
+        assertEquals(1, list.size());
+        assertEquals(2, list.get(0).getParsedStack().size());
+        assertFalse(list.get(0).getHasFullStack());
+    }
+
+    @Test
+    public void testMultiLineMessage() {
+        // given
+        String str = toString(new IllegalStateException("first\nsecond"));
+
+        // when
+        List<ExceptionDetails> list = Exceptions.fullParse(str);
+
+        // then
+        assertEquals(1, list.size());
+        assertEquals("first\nsecond", list.get(0).getMessage());
+        assertFalse(list.get(0).getParsedStack().isEmpty());
+    }
+
+    @Test
+    public void testFrameStringsAreReused() {
+        // given
+        String str = toString(new IllegalStateException("test"));
+
+        // when
+        List<ExceptionDetails> list1 = Exceptions.fullParse(str);
+        List<ExceptionDetails> list2 = Exceptions.fullParse(new String(str));
+
+        // then
+        StackFrame frame1 = list1.get(0).getParsedStack().get(0);
+        StackFrame frame2 = list2.get(0).getParsedStack().get(0);
+        assertSame(frame1.getMethod(), frame2.getMethod());
+        assertSame(frame1.getFileName(), frame2.getFileName());
     }
 
     private static String toString(final Throwable t) {
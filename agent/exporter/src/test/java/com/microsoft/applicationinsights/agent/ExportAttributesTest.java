@@ -0,0 +1,63 @@
+package com.microsoft.applicationinsights.agent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.attributes.SemanticAttributes;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class ExportAttributesTest {
+
+    @Test
+    public void testRemovedAttributesAreNotRemaining() {
+        // given
+        Attributes attributes = Attributes.of(
+                SemanticAttributes.HTTP_METHOD, "GET",
+                SemanticAttributes.HTTP_STATUS_CODE, 200L,
+                AttributeKey.stringKey("custom"), "value");
+
+        // when
+        ExportAttributes exportAttributes = ExportAttributes.capture(attributes);
+        String httpMethod = exportAttributes.removeString(ExportAttributes.HTTP_METHOD);
+
+        // then
+        assertEquals("GET", httpMethod);
+        assertNull(exportAttributes.removeString(ExportAttributes.HTTP_METHOD));
+        assertFalse(exportAttributes.contains(ExportAttributes.HTTP_METHOD));
+        assertTrue(exportAttributes.contains(ExportAttributes.HTTP_STATUS_CODE));
+
+        Map<String, Object> remaining = getRemaining(exportAttributes);
+        assertEquals(2, remaining.size());
+        assertEquals(200L, remaining.get(SemanticAttributes.HTTP_STATUS_CODE.getKey()));
+        assertEquals("value", remaining.get("custom"));
+    }
+
+    @Test
+    public void testRemoveWithUnexpectedTypeReturnsNull() {
+        // given
+        Attributes attributes = Attributes.of(AttributeKey.stringKey("ai.internal.sampling.percentage"), "50");
+
+        // when
+        ExportAttributes exportAttributes = ExportAttributes.capture(attributes);
+
+        // then
+        assertNull(exportAttributes.removeDouble(ExportAttributes.AI_SAMPLING_PERCENTAGE));
+        assertFalse(exportAttributes.removeBoolean(ExportAttributes.AI_INTERNAL_LOG));
+        assertEquals("50", getRemaining(exportAttributes).get("ai.internal.sampling.percentage"));
+    }
+
+    private static Map<String, Object> getRemaining(ExportAttributes exportAttributes) {
+        final Map<String, Object> remaining = new LinkedHashMap<>();
+        exportAttributes.forEachRemaining(new ExportAttributes.Visitor() {
+            @Override
+            public void visit(AttributeKey<?> key, Object value) {
+                remaining.put(key.getKey(), value);
+            }
+        });
+        return remaining;
+    }
+}
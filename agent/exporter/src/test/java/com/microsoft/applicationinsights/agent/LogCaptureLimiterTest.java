@@ -0,0 +1,91 @@
+package com.microsoft.applicationinsights.agent;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Ticker;
+import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.*;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+public class LogCaptureLimiterTest {
+
+    private ManualTicker ticker;
+    private LogCaptureLimiter limiter;
+
+    @Before
+    public void setup() {
+        ticker = new ManualTicker();
+        limiter = new LogCaptureLimiter(Arrays.asList(
+                new LogCaptureLimiter.Rule("", null, 0, 0),
+                new LogCaptureLimiter.Rule("org.chatty", "ERROR", 0, 0),
+                new LogCaptureLimiter.Rule("com.example", null, 2, 2)), 60, ticker);
+    }
+
+    @Test
+    public void testLongestPrefixThresholdApplies() {
+        assertFalse(limiter.tryCapture("org.chatty.Client", SeverityLevel.Warning));
+        assertTrue(limiter.tryCapture("org.chatty.Client", SeverityLevel.Error));
+        assertTrue(limiter.tryCapture("org.other.Client", SeverityLevel.Warning));
+        assertTrue(limiter.tryCapture(null, SeverityLevel.Information));
+
+        // events below the threshold are not reported as suppressed
+        ticker.advance(SECONDS.toNanos(60));
+        assertTrue(limiter.drainSuppressed().isEmpty());
+    }
+
+    @Test
+    public void testRateLimitRefills() {
+        assertTrue(limiter.tryCapture("com.example.Foo", SeverityLevel.Warning));
+        assertTrue(limiter.tryCapture("com.example.Bar", SeverityLevel.Warning));
+        assertFalse(limiter.tryCapture("com.example.Foo", SeverityLevel.Warning));
+
+        // 2 per second refills one token every 500 milliseconds
+        ticker.advance(MILLISECONDS.toNanos(500));
+        assertTrue(limiter.tryCapture("com.example.Foo", SeverityLevel.Warning));
+        assertFalse(limiter.tryCapture("com.example.Foo", SeverityLevel.Warning));
+
+        // the bucket does not grow beyond the burst
+        ticker.advance(SECONDS.toNanos(10));
+        assertTrue(limiter.tryCapture("com.example.Foo", SeverityLevel.Warning));
+        assertTrue(limiter.tryCapture("com.example.Foo", SeverityLevel.Warning));
+        assertFalse(limiter.tryCapture("com.example.Foo", SeverityLevel.Warning));
+    }
+
+    @Test
+    public void testSuppressedAreReportedOncePerInterval() {
+        for (int i = 0; i < 10; i++) {
+            limiter.tryCapture("com.example.Foo", SeverityLevel.Warning);
+        }
+
+        assertTrue(limiter.drainSuppressed().isEmpty());
+
+        ticker.advance(SECONDS.toNanos(60));
+        List<TraceTelemetry> suppressed = limiter.drainSuppressed();
+        assertEquals(1, suppressed.size());
+        assertEquals("8 log messages suppressed", suppressed.get(0).getMessage());
+        assertEquals("com.example", suppressed.get(0).getProperties().get(LogCaptureLimiter.LOGGER_NAME_PREFIX));
+        assertEquals("8", suppressed.get(0).getProperties().get(LogCaptureLimiter.SUPPRESSED_COUNT));
+
+        ticker.advance(SECONDS.toNanos(60));
+        assertTrue(limiter.drainSuppressed().isEmpty());
+    }
+
+    private static class ManualTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long nanos) {
+            this.nanos += nanos;
+        }
+    }
+}
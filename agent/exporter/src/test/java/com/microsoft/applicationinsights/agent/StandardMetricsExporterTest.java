@@ -0,0 +1,186 @@
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.microsoft.applicationinsights.internal.metrics.MetricAggregator;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.ReadableAttributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.TracerSdkProvider;
+import io.opentelemetry.sdk.trace.config.TraceConfig;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult.Decision;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class StandardMetricsExporterTest {
+
+    private Tracer tracer;
+
+    @Before
+    public void setup() {
+        TracerSdkProvider tracerProvider = TracerSdkProvider.builder().build();
+        // spans whose name starts with "unsampled" are recorded but not sampled
+        tracerProvider.updateActiveTraceConfig(TraceConfig.getDefault().toBuilder()
+                .setSampler(new UnsampledPrefixSampler())
+                .build());
+        tracer = tracerProvider.get("test");
+    }
+
+    @Test
+    public void testMetricsAreExtractedFromAllSpans() {
+        // given
+        CollectingExporter delegate = new CollectingExporter();
+        MetricAggregator aggregator = new MetricAggregator(100);
+        StandardMetricsExporter exporter = new StandardMetricsExporter(delegate, aggregator);
+
+        List<SpanData> spans = new ArrayList<>();
+        spans.add(endSpan(tracer.spanBuilder("GET /users").setSpanKind(Span.Kind.SERVER)
+                .setAttribute("http.status_code", 200L).startSpan()));
+        spans.add(endSpan(tracer.spanBuilder("unsampled GET /users").setSpanKind(Span.Kind.SERVER)
+                .setAttribute("http.status_code", 200L).startSpan()));
+        Span failed = tracer.spanBuilder("unsampled GET /users").setSpanKind(Span.Kind.SERVER)
+                .setAttribute("http.status_code", 500L).startSpan();
+        failed.setStatus(StatusCode.ERROR);
+        spans.add(endSpan(failed));
+        spans.add(endSpan(tracer.spanBuilder("unsampled SELECT orders").setSpanKind(Span.Kind.CLIENT)
+                .setAttribute("db.system", "mysql")
+                .setAttribute("net.peer.name", "dbhost")
+                .setAttribute("db.name", "orders")
+                .startSpan()));
+
+        // when
+        exporter.export(spans);
+
+        // then
+        assertEquals(1, delegate.spans.size());
+        assertEquals("GET /users", delegate.spans.get(0).getName());
+
+        List<MetricTelemetry> metrics = aggregator.drain();
+        assertEquals(4, metrics.size());
+
+        MetricTelemetry ok = find(metrics, "GET /users", "200");
+        assertEquals(StandardMetricsExporter.REQUEST_DURATION_METRIC_NAME, ok.getName());
+        assertEquals(1, ok.getCount().intValue());
+        assertEquals("requests/duration", ok.getProperties().get(StandardMetricsExporter.METRIC_ID));
+        assertEquals("True", ok.getProperties().get(StandardMetricsExporter.REQUEST_SUCCESS));
+
+        MetricTelemetry unsampledOk = find(metrics, "unsampled GET /users", "200");
+        assertEquals(1, unsampledOk.getCount().intValue());
+
+        MetricTelemetry unsampledFailed = find(metrics, "unsampled GET /users", "500");
+        assertEquals("False", unsampledFailed.getProperties().get(StandardMetricsExporter.REQUEST_SUCCESS));
+
+        MetricTelemetry dependency = null;
+        for (MetricTelemetry metric : metrics) {
+            if (metric.getName().equals(StandardMetricsExporter.DEPENDENCY_DURATION_METRIC_NAME)) {
+                dependency = metric;
+            }
+        }
+        assertNotNull(dependency);
+        assertEquals("dependencies/duration", dependency.getProperties().get(StandardMetricsExporter.METRIC_ID));
+        assertEquals("SQL", dependency.getProperties().get(StandardMetricsExporter.DEPENDENCY_TYPE));
+        assertEquals("dbhost/orders", dependency.getProperties().get(StandardMetricsExporter.DEPENDENCY_TARGET));
+        assertEquals("True", dependency.getProperties().get(StandardMetricsExporter.DEPENDENCY_SUCCESS));
+        // the dimensions of the previous spans in the batch are not carried over
+        assertFalse(dependency.getProperties().containsKey(StandardMetricsExporter.OPERATION_NAME));
+        assertFalse(dependency.getProperties().containsKey(StandardMetricsExporter.REQUEST_SUCCESS));
+    }
+
+    @Test
+    public void testNothingIsExportedWhenNoSpanIsSampled() {
+        // given
+        CollectingExporter delegate = new CollectingExporter();
+        MetricAggregator aggregator = new MetricAggregator(100);
+        StandardMetricsExporter exporter = new StandardMetricsExporter(delegate, aggregator);
+
+        List<SpanData> spans = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            spans.add(endSpan(tracer.spanBuilder("unsampled GET /health").setSpanKind(Span.Kind.SERVER).startSpan()));
+        }
+
+        // when
+        exporter.export(spans);
+
+        // then
+        assertEquals(0, delegate.exportCount);
+        List<MetricTelemetry> metrics = aggregator.drain();
+        assertEquals(1, metrics.size());
+        assertEquals(10, metrics.get(0).getCount().intValue());
+    }
+
+    private static SpanData endSpan(Span span) {
+        span.end();
+        return ((ReadableSpan) span).toSpanData();
+    }
+
+    private static MetricTelemetry find(List<MetricTelemetry> metrics, String operationName, String resultCode) {
+        for (MetricTelemetry metric : metrics) {
+            if (operationName.equals(metric.getProperties().get(StandardMetricsExporter.OPERATION_NAME))
+                    && resultCode.equals(metric.getProperties().get(StandardMetricsExporter.REQUEST_RESULT_CODE))) {
+                return metric;
+            }
+        }
+        throw new AssertionError("no metric for " + operationName + " " + resultCode);
+    }
+
+    private static class UnsampledPrefixSampler implements Sampler {
+
+        @Override
+        public SamplingResult shouldSample(Context parentContext, String traceId, String name, Span.Kind spanKind,
+                                           ReadableAttributes attributes, List<SpanData.Link> parentLinks) {
+            final Decision decision = name.startsWith("unsampled") ? Decision.RECORD_ONLY : Decision.RECORD_AND_SAMPLE;
+            return new SamplingResult() {
+                @Override
+                public Decision getDecision() {
+                    return decision;
+                }
+
+                @Override
+                public Attributes getAttributes() {
+                    return Attributes.empty();
+                }
+            };
+        }
+
+        @Override
+        public String getDescription() {
+            return "unsampled prefix";
+        }
+    }
+
+    private static class CollectingExporter implements SpanExporter {
+
+        private final List<SpanData> spans = new ArrayList<>();
+        private int exportCount;
+
+        @Override
+        public CompletableResultCode export(Collection<SpanData> spans) {
+            exportCount++;
+            this.spans.addAll(spans);
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode flush() {
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return CompletableResultCode.ofSuccess();
+        }
+    }
+}
@@ -21,7 +21,10 @@
 
 package com.microsoft.applicationinsights;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -31,6 +34,9 @@ import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.common.CommonUtils;
 import com.microsoft.applicationinsights.extensibility.ContextInitializer;
 import com.microsoft.applicationinsights.extensibility.context.InternalContext;
+import com.microsoft.applicationinsights.internal.exceptions.ExceptionAggregator;
+import com.microsoft.applicationinsights.internal.metrics.LatencyPercentiles;
+import com.microsoft.applicationinsights.internal.metrics.MetricAggregator;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector;
 import com.microsoft.applicationinsights.internal.util.MapUtil;
 import com.microsoft.applicationinsights.telemetry.Duration;
@@ -242,6 +248,16 @@ public class TelemetryClient {
             return;
         }
 
+        if (sampleCount == null && min == null && max == null && stdDev == null
+                && MetricAggregator.INSTANCE.isEnabled()) {
+            if (Strings.isNullOrEmpty(name)) {
+                throw new IllegalArgumentException("The metric name cannot be null or empty");
+            }
+            // a single measurement, which is sent as part of the aggregated metric at the end of the interval
+            MetricAggregator.INSTANCE.record(name, properties, value);
+            return;
+        }
+
         MetricTelemetry mt = new MetricTelemetry(name, value);
         mt.setCount(sampleCount);
         mt.setMin(min);
@@ -280,6 +296,11 @@ public class TelemetryClient {
             return;
         }
 
+        if (ExceptionAggregator.INSTANCE.isEnabled() && !ExceptionAggregator.INSTANCE.shouldTrack(exception)) {
+            // counted towards the summary item of its fingerprint instead
+            return;
+        }
+
         ExceptionTelemetry et = new ExceptionTelemetry(exception);
 
         MapUtil.copy(properties, et.getContext().getProperties());
@@ -401,52 +422,178 @@ public class TelemetryClient {
             return;
         }
 
-        if (telemetry.getTimestamp() == null) {
-            telemetry.setTimestamp(new Date());
+        initialize(telemetry, getInitializedContext());
+
+        try {
+            QuickPulseDataCollector.INSTANCE.add(telemetry);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
         }
 
-        TelemetryContext ctx = this.getContext();
+        recordLatency(telemetry);
 
-        if (Strings.isNullOrEmpty(ctx.getInstrumentationKey())) {
-            ctx.setInstrumentationKey(configuration.getInstrumentationKey());
+        try {
+            getChannel().send(telemetry);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                logger.error("Exception while sending telemetry: '{}'",t.toString());            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
         }
+    }
 
+    private static void recordLatency(Telemetry telemetry) {
+        if (!LatencyPercentiles.INSTANCE.isEnabled()) {
+            return;
+        }
         try {
-            telemetry.getContext().initialize(ctx);
+            LatencyPercentiles.INSTANCE.record(telemetry);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+        }
+    }
+
+    /**
+     * This method is part of the Application Insights infrastructure. Do not call it directly.
+     *
+     * Same as calling {@link #track(Telemetry)} for each of the items, except that the checks and the context
+     * lookup are done once for the whole batch, and the batch is handed to QuickPulse and to the channel at once.
+     *
+     * An item which ends up without an instrumentation key is logged and skipped, the rest of the batch is still sent.
+     * @param telemetries The {@link com.microsoft.applicationinsights.telemetry.Telemetry} instances.
+     * @throws IllegalArgumentException if any of the items is null, in which case none of the items are sent.
+     */
+    public void trackAll(Collection<? extends Telemetry> telemetries) {
+
+        if (telemetries.isEmpty()) {
+            return;
+        }
+
+        long total = generateCounter.addAndGet(telemetries.size());
+        if (total % 10000 < telemetries.size()) {
+            logger.debug("Total events generated till now {}", total);
+        }
+
+        for (Telemetry telemetry : telemetries) {
+            if (telemetry == null) {
+                throw new IllegalArgumentException("telemetry item cannot be null");
+            }
+        }
+
+        if (isDisabled()) {
+            return;
+        }
+
+        TelemetryContext ctx = getInitializedContext();
+        // only copied when an item has to be skipped
+        List<Telemetry> initialized = null;
+        int index = 0;
+        for (Telemetry telemetry : telemetries) {
+            boolean valid = tryInitialize(telemetry, ctx);
+            if (initialized != null) {
+                if (valid) {
+                    initialized.add(telemetry);
+                }
+            } else if (!valid) {
+                initialized = new ArrayList<>(telemetries.size());
+                for (Telemetry previous : telemetries) {
+                    if (initialized.size() == index) {
+                        break;
+                    }
+                    initialized.add(previous);
+                }
+            }
+            index++;
+        }
+        if (initialized != null) {
+            if (initialized.isEmpty()) {
+                return;
+            }
+            telemetries = initialized;
+        }
+
+        try {
+            QuickPulseDataCollector.INSTANCE.addAll(telemetries);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+        }
+
+        if (LatencyPercentiles.INSTANCE.isEnabled()) {
+            for (Telemetry telemetry : telemetries) {
+                recordLatency(telemetry);
+            }
+        }
+
+        try {
+            getChannel().send(telemetries);
         } catch (ThreadDeath td) {
             throw td;
         } catch (Throwable t) {
             try {
-                logger.error("Exception while telemetry context's initialization: '{}'", t.toString());            } catch (ThreadDeath td) {
+                logger.error("Exception while sending telemetry: '{}'",t.toString());            } catch (ThreadDeath td) {
                 throw td;
             } catch (Throwable t2) {
                 // chomp
             }
         }
+    }
 
-        if (Strings.isNullOrEmpty(telemetry.getContext().getInstrumentationKey())) {
-            throw new IllegalArgumentException("Instrumentation key cannot be undefined.");
+    private TelemetryContext getInitializedContext() {
+        TelemetryContext ctx = this.getContext();
+
+        if (Strings.isNullOrEmpty(ctx.getInstrumentationKey())) {
+            ctx.setInstrumentationKey(configuration.getInstrumentationKey());
         }
+        return ctx;
+    }
 
+    // same as initialize, except that an item which cannot be sent is logged instead of failing the whole batch
+    private static boolean tryInitialize(Telemetry telemetry, TelemetryContext ctx) {
         try {
-            QuickPulseDataCollector.INSTANCE.add(telemetry);
+            initialize(telemetry, ctx);
+            return true;
         } catch (ThreadDeath td) {
             throw td;
         } catch (Throwable t) {
+            try {
+                logger.error("Skipping telemetry item which cannot be sent: '{}'", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+            return false;
+        }
+    }
+
+    private static void initialize(Telemetry telemetry, TelemetryContext ctx) {
+        if (telemetry.getTimestamp() == null) {
+            telemetry.setTimestamp(new Date());
         }
 
         try {
-            getChannel().send(telemetry);
+            telemetry.getContext().initialize(ctx);
         } catch (ThreadDeath td) {
             throw td;
         } catch (Throwable t) {
             try {
-                logger.error("Exception while sending telemetry: '{}'",t.toString());            } catch (ThreadDeath td) {
+                logger.error("Exception while telemetry context's initialization: '{}'", t.toString());            } catch (ThreadDeath td) {
                 throw td;
             } catch (Throwable t2) {
                 // chomp
             }
         }
+
+        if (Strings.isNullOrEmpty(telemetry.getContext().getInstrumentationKey())) {
+            throw new IllegalArgumentException("Instrumentation key cannot be undefined.");
+        }
     }
 
     /**
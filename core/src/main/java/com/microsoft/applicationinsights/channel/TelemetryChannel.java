@@ -23,6 +23,7 @@ package com.microsoft.applicationinsights.channel;
 
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -48,6 +49,17 @@ public interface TelemetryChannel {
      */
     void send(Telemetry item);
 
+    /**
+     *  Sends a batch of Telemetry instances through the channel.
+     *  The default implementation sends the items one by one, channels that buffer should override this.
+     * @param items The Telemetry items to send.
+     */
+    default void send(Collection<? extends Telemetry> items) {
+        for (Telemetry item : items) {
+            send(item);
+        }
+    }
+
     /**
      * Stops on going work
      * @param timeout Time to try and stop
@@ -33,10 +33,12 @@ import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -305,20 +307,60 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
     public void send(Telemetry telemetry) {
         Preconditions.checkNotNull(telemetry, "Telemetry item must be non null");
 
-        if (isDeveloperMode()) {
-            telemetry.getContext().getProperties().put("DeveloperMode", "true");
-        }
+        try {
+            if (isDeveloperMode()) {
+                telemetry.getContext().getProperties().put("DeveloperMode", "true");
+            }
 
-        if (!doSend(telemetry)) {
-            return;
+            if (!doSend(telemetry)) {
+                return;
+            }
+
+            if (itemsSent.incrementAndGet() % LOG_TELEMETRY_ITEMS_MODULUS == 0) {
+                logger.debug("items sent till now: {}", itemsSent.get());
+            }
+
+            if (isDeveloperMode()) {
+                writeTelemetryToDebugOutput(telemetry);
+            }
+        } finally {
+            // pooled items are only reused once both the channel and the serializer are done with them
+            TelemetryPool.release(telemetry);
         }
+    }
 
-        if (itemsSent.incrementAndGet() % LOG_TELEMETRY_ITEMS_MODULUS == 0) {
-            logger.debug("items sent till now: {}", itemsSent.get());
+    /**
+     * Sends a batch of Telemetry instances through the channel.
+     */
+    @Override
+    public void send(Collection<? extends Telemetry> telemetries) {
+        boolean developerMode = isDeveloperMode();
+        for (Telemetry telemetry : telemetries) {
+            Preconditions.checkNotNull(telemetry, "Telemetry item must be non null");
+            if (developerMode) {
+                telemetry.getContext().getProperties().put("DeveloperMode", "true");
+            }
         }
 
-        if (isDeveloperMode()) {
-            writeTelemetryToDebugOutput(telemetry);
+        try {
+            if (!doSend(telemetries)) {
+                return;
+            }
+
+            long sent = itemsSent.addAndGet(telemetries.size());
+            if (sent % LOG_TELEMETRY_ITEMS_MODULUS < telemetries.size()) {
+                logger.debug("items sent till now: {}", sent);
+            }
+
+            if (developerMode) {
+                for (Telemetry telemetry : telemetries) {
+                    writeTelemetryToDebugOutput(telemetry);
+                }
+            }
+        } finally {
+            for (Telemetry telemetry : telemetries) {
+                TelemetryPool.release(telemetry);
+            }
         }
     }
 
@@ -329,6 +371,20 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
      */
     protected abstract boolean doSend(Telemetry telemetry);
 
+    /**
+     * Sends a batch of telemetries, by default this calls {@link #doSend(Telemetry)} for each of them.
+     *
+     * @param telemetries
+     * @return true, if the send was successful, false if there was an error
+     */
+    protected boolean doSend(Collection<? extends Telemetry> telemetries) {
+        boolean success = true;
+        for (Telemetry telemetry : telemetries) {
+            success &= doSend(telemetry);
+        }
+        return success;
+    }
+
     private void writeTelemetryToDebugOutput(Telemetry telemetry) {
         logger.trace("{} sending telemetry: {}", this.getClass().getSimpleName(), telemetry.toString());
     }
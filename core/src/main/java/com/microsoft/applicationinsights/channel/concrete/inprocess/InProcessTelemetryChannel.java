@@ -30,8 +30,14 @@ import com.microsoft.applicationinsights.telemetry.Telemetry;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * An implementation of {@link com.microsoft.applicationinsights.channel.TelemetryChannel}
  *
@@ -54,6 +60,8 @@ import java.util.Map;
  */
 public final class InProcessTelemetryChannel extends TelemetryChannelBase<Telemetry> {
 
+    private static final Logger logger = LoggerFactory.getLogger(InProcessTelemetryChannel.class);
+
     public InProcessTelemetryChannel(TelemetryConfiguration configuration) {
         super(configuration);
     }
@@ -99,6 +107,41 @@ public final class InProcessTelemetryChannel extends TelemetryChannelBase<Teleme
         return true;
     }
 
+    // an item which was previously used is logged and skipped, the rest of the batch is still sent
+    @Override
+    protected boolean doSend(Collection<? extends Telemetry> telemetries) {
+        // only copied when an item has to be skipped
+        List<Telemetry> unused = null;
+        int index = 0;
+        for (Telemetry telemetry : telemetries) {
+            // this is temporary until we are convinced that telemetry are never re-used by codeless agent
+            boolean previouslyUsed = telemetry.previouslyUsed();
+            if (previouslyUsed) {
+                logger.error("Telemetry was previously used, it is not sent: {}", telemetry);
+            }
+            if (unused != null) {
+                if (!previouslyUsed) {
+                    unused.add(telemetry);
+                }
+            } else if (previouslyUsed) {
+                unused = new ArrayList<>(telemetries.size());
+                for (Telemetry previous : telemetries) {
+                    if (unused.size() == index) {
+                        break;
+                    }
+                    unused.add(previous);
+                }
+            }
+            index++;
+        }
+        if (unused == null) {
+            telemetryBuffer.addAll(telemetries);
+        } else if (!unused.isEmpty()) {
+            telemetryBuffer.addAll(unused);
+        }
+        return true;
+    }
+
     @Override
     protected ConfiguredTransmitterFactory<Telemetry> createTransmitterFactory() {
         return new InProcessTelemetryTransmitterFactory();
@@ -29,6 +29,7 @@ import com.google.common.base.Preconditions;
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
 import com.squareup.moshi.JsonWriter;
 import okio.Buffer;
 import okio.BufferedSink;
@@ -148,6 +149,10 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
     private boolean compress(BufferedSink sink, Collection<Telemetry> telemetries) throws IOException {
         int counter = 0;
 
+        // a single writer is shared by the whole batch, it needs to be lenient in order to accept
+        // multiple top-level values (the newline separators are written directly to the sink)
+        JsonWriter jsonWriter = newLenientJsonWriter(sink);
+        JsonTelemetryDataSerializer serializer = null;
 
         // The format is:
         // 1. Separate each Telemetry by newline
@@ -159,20 +164,35 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
             }
 
             try {
-                JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(JsonWriter.of(sink));
-                telemetry.serialize(jsonWriter);
-                jsonWriter.close();
+                if (serializer == null) {
+                    serializer = new JsonTelemetryDataSerializer(jsonWriter);
+                } else {
+                    serializer.reset(jsonWriter);
+                }
+                telemetry.serialize(serializer);
+                serializer.close();
                 telemetry.markUsed();
+                // the channel releases the item separately once it is done with it, see TelemetryPool
+                TelemetryPool.release(telemetry);
                 ++counter;
             } catch (IOException e) {
                 logger.error("Failed to serialize Telemetry");
                 logger.trace("Failed to serialize Telemetry", e);
+                // the writer may have been left in the middle of an object
+                jsonWriter = newLenientJsonWriter(sink);
+                serializer = null;
             }
         }
 
         return counter > 0;
     }
 
+    private static JsonWriter newLenientJsonWriter(BufferedSink sink) {
+        JsonWriter jsonWriter = JsonWriter.of(sink);
+        jsonWriter.setLenient(true);
+        return jsonWriter;
+    }
+
     private boolean compressFromStrings(BufferedSink sink, Collection<String> telemetries) throws IOException {
         int counter = 0;
 
@@ -182,24 +182,49 @@ public class TelemetryBuffer<T> {
         Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
 
         synchronized (lock) {
-            telemetries.add(telemetry);
+            addUnderLock(telemetry);
+        }
+    }
+
+    /**
+     * The method assumes that the lock is held before calling it.
+     */
+    private void addUnderLock(T telemetry) {
+        telemetries.add(telemetry);
 
-            int currentSize = telemetries.size();
+        int currentSize = telemetries.size();
 
-            if (currentSize >= maxTelemetriesInBatch) {
-                if (!sender.sendNow(prepareTelemetriesForSend())) {
-                    // 'prepareTelemetriesForSend' already created a new container
-                    // so basically we have nothing to do, the old container is lost
-                    logger.error("Failed to send buffer data to network");
-                }
-            } else if (currentSize == 1) {
-                if (!sender.scheduleSend(new TelemetryBufferTelemetriesFetcher(generation), transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
-                    // We cannot schedule send so we give up the Telemetry
-                    // The reason for this is that in case the maximum buffer size is greater than 2
-                    // than in case a new Telemetry arrives it won't trigger the schedule and might be lost too
-                    logger.error("Failed to schedule send of the buffer to network");
-                    telemetries.clear();
-                }
+        if (currentSize >= maxTelemetriesInBatch) {
+            if (!sender.sendNow(prepareTelemetriesForSend())) {
+                // 'prepareTelemetriesForSend' already created a new container
+                // so basically we have nothing to do, the old container is lost
+                logger.error("Failed to send buffer data to network");
+            }
+        } else if (currentSize == 1) {
+            if (!sender.scheduleSend(new TelemetryBufferTelemetriesFetcher(generation), transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
+                // We cannot schedule send so we give up the Telemetry
+                // The reason for this is that in case the maximum buffer size is greater than 2
+                // than in case a new Telemetry arrives it won't trigger the schedule and might be lost too
+                logger.error("Failed to schedule send of the buffer to network");
+                telemetries.clear();
+            }
+        }
+    }
+
+    /**
+     * The method will add the incoming Telemetries to its internal container of Telemetries
+     *
+     * This behaves the same as calling {@link #add(Object)} for each of the Telemetries, but the lock is
+     * only acquired once for the whole batch.
+     * @param telemetries The {@link com.microsoft.applicationinsights.telemetry.Telemetry} instances to add to the buffer.
+     */
+    public void addAll(Collection<? extends T> telemetries) {
+        Preconditions.checkNotNull(telemetries, "Telemetries must be non null value");
+
+        synchronized (lock) {
+            for (T telemetry : telemetries) {
+                Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
+                addUnderLock(telemetry);
             }
         }
     }
@@ -0,0 +1,240 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.exceptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.schemav2.ExceptionDetails;
+import com.microsoft.applicationinsights.internal.util.IntervalAggregator;
+import com.microsoft.applicationinsights.internal.util.IntervalState;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+
+/**
+ * Suppresses repeated occurrences of the same exception.
+ *
+ * Exceptions are fingerprinted by their type plus their top stack frames (not by their message, which often contains
+ * ids or other variable parts). The first {@code maxPerWindow} occurrences of each fingerprint per window are tracked
+ * in full, the others are only counted, and one summary item carrying the suppressed count is sent per fingerprint at
+ * the end of the window.
+ *
+ * At most {@code maxFingerprints} fingerprints are counted per window, exceptions with other fingerprints are
+ * always tracked in full.
+ *
+ * Deduplication is disabled until {@link #enable} is called.
+ */
+public final class ExceptionAggregator extends IntervalAggregator<ExceptionTelemetry> {
+
+    /**
+     * The property of the summary item which holds the number of suppressed occurrences.
+     */
+    public static final String SUPPRESSED_COUNT_PROPERTY = "SuppressedCount";
+
+    public static final ExceptionAggregator INSTANCE = new ExceptionAggregator(10, 1000, 5);
+
+    // swapped out at the end of every window
+    private final IntervalState<ConcurrentHashMap<String, Occurrences>> occurrences =
+            new IntervalState<>(new IntervalState.Factory<ConcurrentHashMap<String, Occurrences>>() {
+                @Override
+                public ConcurrentHashMap<String, Occurrences> create() {
+                    return new ConcurrentHashMap<>();
+                }
+            });
+
+    private volatile int maxPerWindow;
+    private volatile int maxFingerprints;
+    private volatile int topFrames;
+
+    public ExceptionAggregator(int maxPerWindow, int maxFingerprints, int topFrames) {
+        super("suppressed exception summaries");
+        this.maxPerWindow = maxPerWindow;
+        this.maxFingerprints = maxFingerprints;
+        this.topFrames = topFrames;
+    }
+
+    /**
+     * Starts deduplicating exceptions, the summary items are sent through the given client at the end of every
+     * window of {@code windowSeconds}.
+     */
+    public synchronized void enable(TelemetryClient telemetryClient, int windowSeconds, int maxPerWindow,
+                                    int maxFingerprints, int topFrames) {
+        if (maxPerWindow < 0) {
+            throw new IllegalArgumentException("maxPerWindow must not be negative: " + maxPerWindow);
+        }
+        if (maxFingerprints < 1) {
+            throw new IllegalArgumentException("maxFingerprints must be positive: " + maxFingerprints);
+        }
+        if (topFrames < 1) {
+            throw new IllegalArgumentException("topFrames must be positive: " + topFrames);
+        }
+        if (isEnabled()) {
+            return;
+        }
+        this.maxPerWindow = maxPerWindow;
+        this.maxFingerprints = maxFingerprints;
+        this.topFrames = topFrames;
+        start(telemetryClient, windowSeconds);
+    }
+
+    /**
+     * Returns {@code false} if the exception has already been tracked {@code maxPerWindow} times in the current window,
+     * in which case it must not be tracked.
+     *
+     * Every call counts as an occurrence, so callers which sample must only call this once the exception is sampled.
+     */
+    public boolean shouldTrack(Throwable exception) {
+        String typeName = exception.getClass().getName();
+        return shouldTrack(getFingerprint(exception, typeName), typeName, exception.getMessage());
+    }
+
+    /**
+     * Same as {@link #shouldTrack(Throwable)}, for an exception which has already been converted to a string,
+     * in the format of {@link Throwable#printStackTrace()}.
+     */
+    public boolean shouldTrack(String stackTrace) {
+        int endOfFirstLine = indexOfLineEnd(stackTrace, 0);
+        String firstLine = stackTrace.substring(0, endOfFirstLine);
+        int index = firstLine.indexOf(": ");
+        String typeName = index == -1 ? firstLine : firstLine.substring(0, index);
+        String message = index == -1 ? null : firstLine.substring(index + 2);
+        return shouldTrack(getFingerprint(stackTrace, typeName, endOfFirstLine), typeName, message);
+    }
+
+    private boolean shouldTrack(String fingerprint, String typeName, String message) {
+        IntervalState.Interval<ConcurrentHashMap<String, Occurrences>> interval = occurrences.enter();
+        try {
+            ConcurrentHashMap<String, Occurrences> current = interval.getState();
+            Occurrences o = current.get(fingerprint);
+            if (o == null) {
+                if (current.size() >= maxFingerprints) {
+                    return true;
+                }
+                Occurrences newOccurrences = new Occurrences(typeName, message);
+                o = current.putIfAbsent(fingerprint, newOccurrences);
+                if (o == null) {
+                    o = newOccurrences;
+                }
+            }
+            return o.count.incrementAndGet() <= maxPerWindow;
+        } finally {
+            interval.exit();
+        }
+    }
+
+    /**
+     * Returns the summary items of the current window, and starts a new window.
+     */
+    @Override
+    public List<ExceptionTelemetry> drain() {
+        ConcurrentHashMap<String, Occurrences> previous = occurrences.swap();
+        List<ExceptionTelemetry> summaries = new ArrayList<>();
+        for (Map.Entry<String, Occurrences> entry : previous.entrySet()) {
+            long suppressed = entry.getValue().count.get() - maxPerWindow;
+            if (suppressed > 0) {
+                summaries.add(entry.getValue().toSummary(entry.getKey(), suppressed));
+            }
+        }
+        return summaries;
+    }
+
+    private String getFingerprint(Throwable exception, String typeName) {
+        StringBuilder sb = new StringBuilder(typeName);
+        StackTraceElement[] stackTrace = exception.getStackTrace();
+        int frames = Math.min(topFrames, stackTrace.length);
+        for (int i = 0; i < frames; i++) {
+            // same format as the frames of printStackTrace(), so that both fingerprints match
+            sb.append("\n\tat ").append(stackTrace[i]);
+        }
+        return sb.toString();
+    }
+
+    private String getFingerprint(String stackTrace, String typeName, int endOfFirstLine) {
+        StringBuilder sb = new StringBuilder(typeName);
+        int frames = 0;
+        int start = skipLineEnd(stackTrace, endOfFirstLine);
+        while (frames < topFrames && start < stackTrace.length()) {
+            int end = indexOfLineEnd(stackTrace, start);
+            // the first lines can also be the continuation of a multi-line message, those are not frames
+            if (stackTrace.startsWith("\tat ", start)) {
+                sb.append('\n').append(stackTrace, start, end);
+                frames++;
+            } else if (frames > 0) {
+                // e.g. "Caused by: " or "\t... 5 more"
+                break;
+            }
+            start = skipLineEnd(stackTrace, end);
+        }
+        return sb.toString();
+    }
+
+    private static int indexOfLineEnd(String str, int fromIndex) {
+        for (int i = fromIndex; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return i;
+            }
+        }
+        return str.length();
+    }
+
+    private static int skipLineEnd(String str, int index) {
+        if (index < str.length() && str.charAt(index) == '\r') {
+            index++;
+        }
+        if (index < str.length() && str.charAt(index) == '\n') {
+            index++;
+        }
+        return index;
+    }
+
+    private static final class Occurrences {
+
+        private final String typeName;
+        private final String message;
+        private final AtomicLong count = new AtomicLong();
+
+        private Occurrences(String typeName, String message) {
+            this.typeName = typeName;
+            this.message = message;
+        }
+
+        private ExceptionTelemetry toSummary(String fingerprint, long suppressed) {
+            ExceptionDetails details = new ExceptionDetails();
+            details.setTypeName(typeName);
+            details.setMessage(message);
+            details.setHasFullStack(false);
+            // the top frames, which is all that the occurrences are known to have in common
+            details.setStack(fingerprint);
+
+            ExceptionTelemetry telemetry = new ExceptionTelemetry();
+            telemetry.getData().setExceptions(Collections.singletonList(details));
+            telemetry.getProperties().put(SUPPRESSED_COUNT_PROPERTY, Long.toString(suppressed));
+            return telemetry;
+        }
+    }
+}
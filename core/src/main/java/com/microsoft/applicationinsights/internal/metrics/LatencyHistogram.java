@@ -0,0 +1,130 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-memory latency histogram with a bounded relative error, which can be recorded into concurrently
+ * and merged.
+ *
+ * Durations are recorded into logarithmically sized buckets, so that every quantile is estimated with a relative
+ * error of at most {@link #RELATIVE_ACCURACY}, for durations between one microsecond and one hour. Shorter durations
+ * are recorded as one microsecond, and longer durations as one hour.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The maximum relative error of the estimated quantiles.
+     */
+    public static final double RELATIVE_ACCURACY = 0.02;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private static final double MAX_MICROS = 3600 * 1000 * 1000.0;
+
+    // bucket i holds the durations in (GAMMA^(i-1), GAMMA^i] microseconds
+    private static final int BUCKET_COUNT = (int) Math.ceil(Math.log(MAX_MICROS) / LOG_GAMMA) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Records a duration the given number of times, e.g. the inverse of the sampling ratio of a sampled item.
+     */
+    public void record(double millis, long weight) {
+        if (weight <= 0) {
+            return;
+        }
+        buckets.addAndGet(getBucketIndex(millis), weight);
+        count.add(weight);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Adds the durations recorded into the other histogram to this one.
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long n = other.buckets.get(i);
+            if (n != 0) {
+                buckets.addAndGet(i, n);
+                count.add(n);
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated durations in milliseconds at the given quantiles, which must be in ascending order,
+     * or {@code null} if nothing has been recorded.
+     */
+    public double[] getQuantiles(double... quantiles) {
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return null;
+        }
+        double[] values = new double[quantiles.length];
+        int bucket = 0;
+        long seen = snapshot[0];
+        for (int q = 0; q < quantiles.length; q++) {
+            // the rank of the quantile, between 0 and total - 1
+            long rank = (long) (quantiles[q] * (total - 1));
+            while (seen <= rank && bucket < BUCKET_COUNT - 1) {
+                bucket++;
+                seen += snapshot[bucket];
+            }
+            values[q] = getBucketValue(bucket) / 1000;
+        }
+        return values;
+    }
+
+    private static int getBucketIndex(double millis) {
+        double micros = millis * 1000;
+        if (!(micros > 1)) {
+            // also NaN
+            return 0;
+        }
+        if (micros >= MAX_MICROS) {
+            return BUCKET_COUNT - 1;
+        }
+        return (int) Math.ceil(Math.log(micros) / LOG_GAMMA);
+    }
+
+    // the value which is within RELATIVE_ACCURACY of every duration in the bucket
+    private static double getBucketValue(int index) {
+        if (index == 0) {
+            return 1;
+        }
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+}
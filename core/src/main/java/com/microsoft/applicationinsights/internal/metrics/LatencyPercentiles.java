@@ -0,0 +1,248 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.util.IntervalAggregator;
+import com.microsoft.applicationinsights.internal.util.IntervalState;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * Keeps a {@link LatencyHistogram} of the request durations per operation name and of the dependency durations
+ * per dependency type and target, and sends their p50, p95 and p99 as metrics every interval.
+ *
+ * Each percentile is sent as a single measurement, without a count, since a metric with a count is an aggregate
+ * whose value is the sum of the measurements, which would make the portal divide the percentile by the count.
+ * The number of recorded durations is sent as a separate metric with the same dimensions instead.
+ *
+ * Sampled items are recorded with the inverse of their sampling ratio as weight. Items which the agent marks as
+ * already processed by the metric extractors are not recorded, since the agent records the durations of all spans
+ * before sampling (see {@link #recordRequest} and {@link #recordDependency}).
+ *
+ * A duration which is recorded while the histograms are drained is counted in either interval, but never lost, see
+ * {@link IntervalState}.
+ *
+ * Percentiles are disabled until {@link #enable} is called.
+ */
+public final class LatencyPercentiles extends IntervalAggregator<MetricTelemetry> {
+
+    public static final String REQUEST_DURATION_METRIC_NAME = "Server response time";
+    public static final String DEPENDENCY_DURATION_METRIC_NAME = "Dependency duration";
+
+    public static final String OPERATION_NAME = "operation/name";
+    public static final String DEPENDENCY_TYPE = "Dependency.Type";
+    public static final String DEPENDENCY_TARGET = "dependency/target";
+
+    // set by the agent on the telemetry whose durations it has already recorded
+    private static final String PROCESSED_BY_METRIC_EXTRACTORS = "_MS.ProcessedByMetricExtractors";
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+    private static final String[] QUANTILE_SUFFIXES = {" p50", " p95", " p99"};
+    private static final String SAMPLE_COUNT_SUFFIX = " sample count";
+
+    private static final String OVERFLOW = "Other";
+
+    public static final LatencyPercentiles INSTANCE = new LatencyPercentiles(MetricAggregator.DEFAULT_MAX_SERIES);
+
+    // swapped out on every flush, a duration recorded concurrently with the swap can land in either interval
+    private final IntervalState<ConcurrentHashMap<SeriesKey, LatencyHistogram>> histograms =
+            new IntervalState<>(new IntervalState.Factory<ConcurrentHashMap<SeriesKey, LatencyHistogram>>() {
+                @Override
+                public ConcurrentHashMap<SeriesKey, LatencyHistogram> create() {
+                    return new ConcurrentHashMap<>();
+                }
+            });
+
+    private volatile int maxSeries;
+
+    public LatencyPercentiles(int maxSeries) {
+        super("latency percentiles");
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * Starts recording request and dependency durations, the percentiles are sent through the given client
+     * every {@code intervalSeconds}.
+     */
+    public synchronized void enable(TelemetryClient telemetryClient, int intervalSeconds, int maxSeries) {
+        if (maxSeries < 1) {
+            throw new IllegalArgumentException("maxSeries must be positive: " + maxSeries);
+        }
+        if (isEnabled()) {
+            return;
+        }
+        this.maxSeries = maxSeries;
+        start(telemetryClient, intervalSeconds);
+    }
+
+    /**
+     * Records the duration of a request or dependency item which is being tracked, other items are ignored.
+     */
+    public void record(Telemetry telemetry) {
+        if (telemetry instanceof RequestTelemetry) {
+            RequestTelemetry request = (RequestTelemetry) telemetry;
+            Map<String, String> properties = request.getProperties();
+            if (request.getDuration() == null || properties.containsKey(PROCESSED_BY_METRIC_EXTRACTORS)) {
+                return;
+            }
+            recordRequest(request.getName(), request.getDuration().getTotalMilliseconds(),
+                    getWeight(request.getSamplingPercentage()));
+        } else if (telemetry instanceof RemoteDependencyTelemetry) {
+            RemoteDependencyTelemetry dependency = (RemoteDependencyTelemetry) telemetry;
+            Map<String, String> properties = dependency.getProperties();
+            if (dependency.getDuration() == null || properties.containsKey(PROCESSED_BY_METRIC_EXTRACTORS)) {
+                return;
+            }
+            // dependency items which the agent aggregates from several calls have the mean duration of the calls,
+            // and their sampling percentage is divided by the number of calls, so they are weighted by it too
+            recordDependency(dependency.getType(), dependency.getTarget(),
+                    dependency.getDuration().getTotalMilliseconds(), getWeight(dependency.getSamplingPercentage()));
+        }
+    }
+
+    public void recordRequest(String operationName, double millis, long weight) {
+        record(new SeriesKey(REQUEST_DURATION_METRIC_NAME, operationName, null), millis, weight);
+    }
+
+    public void recordDependency(String type, String target, double millis, long weight) {
+        record(new SeriesKey(DEPENDENCY_DURATION_METRIC_NAME, type, target), millis, weight);
+    }
+
+    private void record(SeriesKey key, double millis, long weight) {
+        IntervalState.Interval<ConcurrentHashMap<SeriesKey, LatencyHistogram>> interval = histograms.enter();
+        try {
+            getOrCreateHistogram(interval.getState(), key).record(millis, weight);
+        } finally {
+            interval.exit();
+        }
+    }
+
+    private LatencyHistogram getOrCreateHistogram(ConcurrentHashMap<SeriesKey, LatencyHistogram> current,
+                                                  SeriesKey key) {
+        LatencyHistogram histogram = current.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+        if (current.size() >= maxSeries) {
+            key = new SeriesKey(key.metricName, OVERFLOW, null);
+        }
+        histogram = current.get(key);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = current.putIfAbsent(key, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the percentiles of the durations recorded since the last call, and starts a new interval.
+     */
+    @Override
+    public List<MetricTelemetry> drain() {
+        ConcurrentHashMap<SeriesKey, LatencyHistogram> previous = histograms.swap();
+        List<MetricTelemetry> metrics = new ArrayList<>(previous.size() * (QUANTILES.length + 1));
+        for (Map.Entry<SeriesKey, LatencyHistogram> entry : previous.entrySet()) {
+            SeriesKey key = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            double[] values = histogram.getQuantiles(QUANTILES);
+            if (values == null) {
+                continue;
+            }
+            for (int i = 0; i < QUANTILES.length; i++) {
+                metrics.add(newMetric(key, QUANTILE_SUFFIXES[i], values[i]));
+            }
+            metrics.add(newMetric(key, SAMPLE_COUNT_SUFFIX, histogram.getCount()));
+        }
+        return metrics;
+    }
+
+    private static MetricTelemetry newMetric(SeriesKey key, String suffix, double value) {
+        MetricTelemetry metric = new MetricTelemetry(key.metricName + suffix, value);
+        if (key.metricName.equals(REQUEST_DURATION_METRIC_NAME)) {
+            putIfNotNull(metric.getProperties(), OPERATION_NAME, key.dimension1);
+        } else {
+            putIfNotNull(metric.getProperties(), DEPENDENCY_TYPE, key.dimension1);
+            putIfNotNull(metric.getProperties(), DEPENDENCY_TARGET, key.dimension2);
+        }
+        return metric;
+    }
+
+    private static long getWeight(Double samplingPercentage) {
+        if (samplingPercentage == null || samplingPercentage <= 0 || samplingPercentage >= 100) {
+            return 1;
+        }
+        return Math.round(100 / samplingPercentage);
+    }
+
+    private static void putIfNotNull(Map<String, String> properties, String name, String value) {
+        if (value != null) {
+            properties.put(name, value);
+        }
+    }
+
+    private static final class SeriesKey {
+
+        private final String metricName;
+        private final String dimension1;
+        private final String dimension2;
+
+        private SeriesKey(String metricName, String dimension1, String dimension2) {
+            this.metricName = metricName;
+            this.dimension1 = dimension1;
+            this.dimension2 = dimension2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey that = (SeriesKey) o;
+            return metricName.equals(that.metricName)
+                    && (dimension1 == null ? that.dimension1 == null : dimension1.equals(that.dimension1))
+                    && (dimension2 == null ? that.dimension2 == null : dimension2.equals(that.dimension2));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = metricName.hashCode();
+            result = 31 * result + (dimension1 == null ? 0 : dimension1.hashCode());
+            result = 31 * result + (dimension2 == null ? 0 : dimension2.hashCode());
+            return result;
+        }
+    }
+}
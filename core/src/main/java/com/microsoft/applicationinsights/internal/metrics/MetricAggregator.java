@@ -0,0 +1,236 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleBinaryOperator;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.util.IntervalAggregator;
+import com.microsoft.applicationinsights.internal.util.IntervalState;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+/**
+ * Pre-aggregates individual metric measurements, so that one aggregated {@link MetricTelemetry} is sent per series
+ * (metric name plus dimensions) per interval, instead of one per measurement.
+ *
+ * Measurements are recorded into striped, lock-free accumulators. The number of series is capped, measurements for
+ * new series beyond the cap are recorded into an overflow series of the same metric name, without its dimensions.
+ *
+ * A measurement which is recorded while the series are drained is counted in either interval, but never lost, see
+ * {@link IntervalState}.
+ *
+ * Pre-aggregation is disabled until {@link #enable} is called.
+ */
+public final class MetricAggregator extends IntervalAggregator<MetricTelemetry> {
+
+    public static final int DEFAULT_MAX_SERIES = 1000;
+
+    /**
+     * The property set on the overflow series.
+     */
+    public static final String OVERFLOW_PROPERTY = "AggregationOverflow";
+
+    private static final Map<String, String> OVERFLOW_PROPERTIES = Collections.singletonMap(OVERFLOW_PROPERTY, "True");
+
+    private static final DoubleBinaryOperator MIN = new DoubleBinaryOperator() {
+        @Override
+        public double applyAsDouble(double left, double right) {
+            return Math.min(left, right);
+        }
+    };
+
+    private static final DoubleBinaryOperator MAX = new DoubleBinaryOperator() {
+        @Override
+        public double applyAsDouble(double left, double right) {
+            return Math.max(left, right);
+        }
+    };
+
+    public static final MetricAggregator INSTANCE = new MetricAggregator(DEFAULT_MAX_SERIES);
+
+    // swapped out on every flush, a measurement recorded concurrently with the swap can land in either interval
+    private final IntervalState<ConcurrentHashMap<SeriesKey, Series>> series =
+            new IntervalState<>(new IntervalState.Factory<ConcurrentHashMap<SeriesKey, Series>>() {
+                @Override
+                public ConcurrentHashMap<SeriesKey, Series> create() {
+                    return new ConcurrentHashMap<>();
+                }
+            });
+
+    private volatile int maxSeries;
+
+    /**
+     * Creates an aggregator which is independent of {@link #INSTANCE}, e.g. for metrics which are
+     * extracted from telemetry instead of being tracked through {@code TelemetryClient.trackMetric}.
+     */
+    public MetricAggregator(int maxSeries) {
+        super("pre-aggregated metrics");
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * Starts pre-aggregating metric measurements, the aggregated metrics are sent through the given client
+     * every {@code intervalSeconds}.
+     */
+    public synchronized void enable(TelemetryClient telemetryClient, int intervalSeconds, int maxSeries) {
+        if (maxSeries < 1) {
+            throw new IllegalArgumentException("maxSeries must be positive: " + maxSeries);
+        }
+        if (isEnabled()) {
+            return;
+        }
+        this.maxSeries = maxSeries;
+        start(telemetryClient, intervalSeconds);
+    }
+
+    /**
+     * Records a single measurement.
+     *
+     * @param properties the dimensions of the series, can be null
+     */
+    public void record(String name, Map<String, String> properties, double value) {
+        if (properties == null) {
+            properties = Collections.emptyMap();
+        }
+        IntervalState.Interval<ConcurrentHashMap<SeriesKey, Series>> interval = series.enter();
+        try {
+            ConcurrentHashMap<SeriesKey, Series> current = interval.getState();
+            // the caller's map is only copied when a new series is created
+            Series s = current.get(new SeriesKey(name, properties));
+            if (s == null) {
+                s = getOrCreateSeries(current, name, properties);
+            }
+            s.record(value);
+        } finally {
+            interval.exit();
+        }
+    }
+
+    private Series getOrCreateSeries(ConcurrentHashMap<SeriesKey, Series> current, String name,
+                                     Map<String, String> properties) {
+        SeriesKey key;
+        if (current.size() < maxSeries) {
+            key = new SeriesKey(name, new HashMap<>(properties));
+        } else {
+            key = new SeriesKey(name, OVERFLOW_PROPERTIES);
+        }
+        Series s = current.get(key);
+        if (s == null) {
+            Series newSeries = new Series();
+            s = current.putIfAbsent(key, newSeries);
+            if (s == null) {
+                s = newSeries;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Returns the metrics aggregated since the last call, and starts a new interval.
+     */
+    @Override
+    public List<MetricTelemetry> drain() {
+        ConcurrentHashMap<SeriesKey, Series> previous = series.swap();
+        List<MetricTelemetry> metrics = new ArrayList<>(previous.size());
+        for (Map.Entry<SeriesKey, Series> entry : previous.entrySet()) {
+            MetricTelemetry metric = entry.getValue().toTelemetry(entry.getKey());
+            if (metric != null) {
+                metrics.add(metric);
+            }
+        }
+        return metrics;
+    }
+
+    private static final class SeriesKey {
+
+        private final String name;
+        private final Map<String, String> properties;
+        private final int hashCode;
+
+        private SeriesKey(String name, Map<String, String> properties) {
+            this.name = name;
+            this.properties = properties;
+            this.hashCode = 31 * name.hashCode() + properties.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey that = (SeriesKey) o;
+            return hashCode == that.hashCode && name.equals(that.name) && properties.equals(that.properties);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Series {
+
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+        private final DoubleAdder sumOfSquares = new DoubleAdder();
+        private final DoubleAccumulator min = new DoubleAccumulator(MIN, Double.POSITIVE_INFINITY);
+        private final DoubleAccumulator max = new DoubleAccumulator(MAX, Double.NEGATIVE_INFINITY);
+
+        private void record(double value) {
+            count.increment();
+            sum.add(value);
+            sumOfSquares.add(value * value);
+            min.accumulate(value);
+            max.accumulate(value);
+        }
+
+        private MetricTelemetry toTelemetry(SeriesKey key) {
+            long n = count.sum();
+            if (n == 0) {
+                return null;
+            }
+            double total = sum.sum();
+            double mean = total / n;
+            double variance = Math.max(0, sumOfSquares.sum() / n - mean * mean);
+
+            MetricTelemetry metric = new MetricTelemetry(key.name, total);
+            metric.setCount((int) Math.min(n, Integer.MAX_VALUE));
+            metric.setMin(min.get());
+            metric.setMax(max.get());
+            metric.setStandardDeviation(Math.sqrt(variance));
+            metric.getProperties().putAll(key.properties);
+            return metric;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * The {@link TelemetryClient} handed to the performance counters by {@link PerformanceCounterContainer}.
+ *
+ * Telemetries tracked by the counters are held until {@link #trackPending()} is called at the end of the
+ * collection cycle, so that all the counters are sent through {@link TelemetryClient#trackAll} as one batch.
+ *
+ * This class is not thread safe, it is only used from the container's single collection thread.
+ */
+final class BatchingTelemetryClient extends TelemetryClient {
+
+    private List<Telemetry> pending = new ArrayList<Telemetry>();
+
+    @Override
+    public void track(Telemetry telemetry) {
+        if (telemetry == null) {
+            throw new IllegalArgumentException("telemetry item cannot be null");
+        }
+        pending.add(telemetry);
+    }
+
+    void trackPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Telemetry> telemetries = pending;
+        pending = new ArrayList<Telemetry>(telemetries.size());
+        trackAll(telemetries);
+    }
+}
@@ -29,7 +29,6 @@ import java.util.concurrent.TimeUnit;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 
-import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
 import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 import org.slf4j.Logger;
@@ -73,7 +72,7 @@ public enum PerformanceCounterContainer implements Stoppable {
     private long startCollectingDelayInMillis = START_COLLECTING_DELAY_IN_MILLIS;
     private long collectionFrequencyInMS = DEFAULT_COLLECTION_FREQUENCY_IN_SEC * 1000;
 
-    private TelemetryClient telemetryClient;
+    private BatchingTelemetryClient telemetryClient;
 
     private ScheduledThreadPoolExecutor threads;
 
@@ -224,7 +223,7 @@ public enum PerformanceCounterContainer implements Stoppable {
                     @Override
                     public void run() {
                         if (telemetryClient == null) {
-                            telemetryClient = new TelemetryClient();
+                            telemetryClient = new BatchingTelemetryClient();
                         }
 
                         for (PerformanceCounter performanceCounter : performanceCounters.values()) {
@@ -242,6 +241,20 @@ public enum PerformanceCounterContainer implements Stoppable {
                                 }
                             }
                         }
+
+                        try {
+                            telemetryClient.trackPending();
+                        } catch (ThreadDeath td) {
+                            throw td;
+                        } catch (Throwable t) {
+                            try {
+                                logger.error("Exception while sending performance counters", t);
+                            } catch (ThreadDeath td) {
+                                throw td;
+                            } catch (Throwable t2) {
+                                // chomp
+                            }
+                        }
                     }
                 },
                 startCollectingDelayInMillis,
@@ -24,9 +24,9 @@ package com.microsoft.applicationinsights.internal.quickpulse;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Collection;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.internal.perfcounter.CpuPerformanceCounterCalculator;
@@ -42,6 +42,7 @@ import org.slf4j.LoggerFactory;
 public enum QuickPulseDataCollector {
     INSTANCE;
 
+    // guarded by this, they are only read when the counters are started, see Counters.instrumentationKey
     private String ikey;
     private TelemetryConfiguration config;
 
@@ -71,56 +72,45 @@ public enum QuickPulseDataCollector {
             } else {
                 cpuUsage = -1;
             }
-            exceptions = currentCounters.exceptions.get();
+            exceptions = currentCounters.exceptions.sum();
 
-            CountAndDuration countAndDuration = Counters.decodeCountAndDuration(currentCounters.requestsAndDurations.get());
-            requests = countAndDuration.count;
-            this.requestsDuration = countAndDuration.duration;
-            this.unsuccessfulRequests = currentCounters.unsuccessfulRequests.get();
+            // a count and its duration are separate accumulators, an item which is added while the counters are
+            // being read may be included in one and not (yet) in the other
+            requests = currentCounters.requests.sum();
+            this.requestsDuration = currentCounters.requestsDuration.sum();
+            this.unsuccessfulRequests = currentCounters.unsuccessfulRequests.sum();
 
-            countAndDuration = Counters.decodeCountAndDuration(currentCounters.rddsAndDuations.get());
-            this.rdds = countAndDuration.count;
-            this.rddsDuration = countAndDuration.duration;
-            this.unsuccessfulRdds = currentCounters.unsuccessfulRdds.get();
-        }
-    }
-
-    static class CountAndDuration {
-        public final long count;
-        public final long duration;
-
-        private CountAndDuration(long count, long duration) {
-            this.count = count;
-            this.duration = duration;
+            this.rdds = currentCounters.rdds.sum();
+            this.rddsDuration = currentCounters.rddsDuration.sum();
+            this.unsuccessfulRdds = currentCounters.unsuccessfulRdds.sum();
         }
     }
 
+    // the accumulators are striped, so that the application threads which track telemetry concurrently
+    // do not all contend on the same memory location
     static class Counters {
-        private static final long MAX_COUNT = 524287L;
-        private static final long MAX_DURATION = 17592186044415L;
-
-        public final AtomicInteger exceptions = new AtomicInteger(0);
 
-        final AtomicLong requestsAndDurations = new AtomicLong(0);
-        final AtomicInteger unsuccessfulRequests = new AtomicInteger(0);
+        // snapshot of the instrumentation key when these counters were started, only telemetry for this
+        // instrumentation key is counted, a new key takes effect at the next getAndRestart()
+        final String instrumentationKey;
 
-        final AtomicLong rddsAndDuations = new AtomicLong(0);
-        final AtomicInteger unsuccessfulRdds = new AtomicInteger(0);
+        final LongAdder exceptions = new LongAdder();
 
-        static long encodeCountAndDuration(long  count, long duration) {
-            if (count > MAX_COUNT || duration > MAX_DURATION) {
-                return 0;
-            }
+        final LongAdder requests = new LongAdder();
+        final LongAdder requestsDuration = new LongAdder();
+        final LongAdder unsuccessfulRequests = new LongAdder();
 
-            return (count << 44) + duration;
-        }
+        final LongAdder rdds = new LongAdder();
+        final LongAdder rddsDuration = new LongAdder();
+        final LongAdder unsuccessfulRdds = new LongAdder();
 
-        static CountAndDuration decodeCountAndDuration(long countAndDuration) {
-            return new CountAndDuration(countAndDuration >> 44, countAndDuration & MAX_DURATION);
+        Counters(String instrumentationKey) {
+            this.instrumentationKey = instrumentationKey;
         }
     }
 
-    private AtomicReference<Counters> counters = new AtomicReference<Counters>(null);
+    // null while Live Metrics is not attached, telemetry is then not looked at
+    private final AtomicReference<Counters> counters = new AtomicReference<Counters>(null);
     private final MemoryMXBean memory;
     private final CpuPerformanceCounterCalculator cpuPerformanceCounterCalculator;
 
@@ -153,17 +143,17 @@ public enum QuickPulseDataCollector {
     public synchronized void enable(final String ikey) {
         this.ikey = ikey;
         this.config = null;
-        counters.set(new Counters());
+        counters.set(new Counters(getInstrumentationKey()));
     }
 
     public synchronized void enable(TelemetryConfiguration config) {
         this.config = config;
         this.ikey = null;
-        counters.set(new Counters());
+        counters.set(new Counters(getInstrumentationKey()));
     }
 
     public synchronized FinalCounters getAndRestart() {
-        final Counters currentCounters = counters.getAndSet(new Counters());
+        final Counters currentCounters = counters.getAndSet(new Counters(getInstrumentationKey()));
         if (currentCounters != null) {
             return new FinalCounters(currentCounters, memory, cpuPerformanceCounterCalculator);
         }
@@ -181,58 +171,99 @@ public enum QuickPulseDataCollector {
     }
 
     public void add(Telemetry telemetry) {
-        if (!telemetry.getContext().getInstrumentationKey().equals(getInstrumentationKey())) {
+        Counters counters = this.counters.get();
+        if (counters == null || !isCounted(telemetry, counters)) {
             return;
         }
 
         if (telemetry instanceof RequestTelemetry) {
-            RequestTelemetry requestTelemetry = (RequestTelemetry)telemetry;
-            addRequest(requestTelemetry);
+            RequestTelemetry requestTelemetry = (RequestTelemetry) telemetry;
+            counters.requests.increment();
+            counters.requestsDuration.add(requestTelemetry.getDuration().getTotalMilliseconds());
+            if (!requestTelemetry.isSuccess()) {
+                counters.unsuccessfulRequests.increment();
+            }
         } else if (telemetry instanceof RemoteDependencyTelemetry) {
-            addDependency((RemoteDependencyTelemetry) telemetry);
+            RemoteDependencyTelemetry dependencyTelemetry = (RemoteDependencyTelemetry) telemetry;
+            counters.rdds.increment();
+            counters.rddsDuration.add(dependencyTelemetry.getDuration().getTotalMilliseconds());
+            if (!dependencyTelemetry.getSuccess()) {
+                counters.unsuccessfulRdds.increment();
+            }
         } else if (telemetry instanceof ExceptionTelemetry) {
-            addException();
+            counters.exceptions.increment();
         }
     }
 
-    private synchronized String getInstrumentationKey() {
-        if (config != null) {
-            return config.getInstrumentationKey();
-        } else {
-            return ikey;
-        }
-    }
-
-    private void addDependency(RemoteDependencyTelemetry telemetry) {
+    /**
+     * Same as calling {@link #add(Telemetry)} for each of the telemetries, but the counters are only updated once.
+     */
+    public void addAll(Collection<? extends Telemetry> telemetries) {
         Counters counters = this.counters.get();
         if (counters == null) {
             return;
         }
-        counters.rddsAndDuations.addAndGet(
-                Counters.encodeCountAndDuration(1, telemetry.getDuration().getTotalMilliseconds()));
-        if (!telemetry.getSuccess()) {
-            counters.unsuccessfulRdds.incrementAndGet();
-        }
-    }
 
-    private void addException() {
-        Counters counters = this.counters.get();
-        if (counters == null) {
-            return;
+        long requests = 0;
+        long requestsDuration = 0;
+        int unsuccessfulRequests = 0;
+        long rdds = 0;
+        long rddsDuration = 0;
+        int unsuccessfulRdds = 0;
+        int exceptions = 0;
+        for (Telemetry telemetry : telemetries) {
+            if (!isCounted(telemetry, counters)) {
+                continue;
+            }
+            if (telemetry instanceof RequestTelemetry) {
+                RequestTelemetry requestTelemetry = (RequestTelemetry) telemetry;
+                requests++;
+                requestsDuration += requestTelemetry.getDuration().getTotalMilliseconds();
+                if (!requestTelemetry.isSuccess()) {
+                    unsuccessfulRequests++;
+                }
+            } else if (telemetry instanceof RemoteDependencyTelemetry) {
+                RemoteDependencyTelemetry dependencyTelemetry = (RemoteDependencyTelemetry) telemetry;
+                rdds++;
+                rddsDuration += dependencyTelemetry.getDuration().getTotalMilliseconds();
+                if (!dependencyTelemetry.getSuccess()) {
+                    unsuccessfulRdds++;
+                }
+            } else if (telemetry instanceof ExceptionTelemetry) {
+                exceptions++;
+            }
         }
 
-        counters.exceptions.incrementAndGet();
+        if (requests != 0) {
+            counters.requests.add(requests);
+            counters.requestsDuration.add(requestsDuration);
+        }
+        if (unsuccessfulRequests != 0) {
+            counters.unsuccessfulRequests.add(unsuccessfulRequests);
+        }
+        if (rdds != 0) {
+            counters.rdds.add(rdds);
+            counters.rddsDuration.add(rddsDuration);
+        }
+        if (unsuccessfulRdds != 0) {
+            counters.unsuccessfulRdds.add(unsuccessfulRdds);
+        }
+        if (exceptions != 0) {
+            counters.exceptions.add(exceptions);
+        }
     }
 
-    private void addRequest(RequestTelemetry requestTelemetry) {
-        Counters counters = this.counters.get();
-        if (counters == null) {
-            return;
-        }
+    private static boolean isCounted(Telemetry telemetry, Counters counters) {
+        String instrumentationKey = telemetry.getContext().getInstrumentationKey();
+        return instrumentationKey != null && instrumentationKey.equals(counters.instrumentationKey);
+    }
 
-        counters.requestsAndDurations.addAndGet(Counters.encodeCountAndDuration(1, requestTelemetry.getDuration().getTotalMilliseconds()));
-        if (!requestTelemetry.isSuccess()) {
-            counters.unsuccessfulRequests.incrementAndGet();
+    // only called while holding the lock, when the counters are started
+    private String getInstrumentationKey() {
+        if (config != null) {
+            return config.getInstrumentationKey();
+        } else {
+            return ikey;
         }
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class of the aggregators which send what they aggregated during an interval at the end of every interval,
+ * e.g. pre-aggregated metrics.
+ *
+ * @param <T> the type of the telemetry which is sent at the end of every interval
+ */
+public abstract class IntervalAggregator<T extends Telemetry> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    // what is sent, used in the error message when it fails
+    private final String description;
+
+    private volatile boolean enabled;
+    private volatile TelemetryClient telemetryClient;
+
+    private ScheduledExecutorService scheduler;
+
+    protected IntervalAggregator(String description) {
+        this.description = description;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts calling {@link #flush()} every {@code intervalSeconds}, unless already started.
+     */
+    protected synchronized void start(TelemetryClient telemetryClient, int intervalSeconds) {
+        if (intervalSeconds < 1) {
+            throw new IllegalArgumentException("intervalSeconds must be positive: " + intervalSeconds);
+        }
+        if (enabled) {
+            return;
+        }
+        this.telemetryClient = telemetryClient;
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                ThreadPoolUtils.createDaemonThreadFactory(getClass()));
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t) {
+                    try {
+                        logger.error("Error while sending {}", description, t);
+                    } catch (ThreadDeath td) {
+                        throw td;
+                    } catch (Throwable t2) {
+                        // chomp
+                    }
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        enabled = true;
+    }
+
+    /**
+     * Sends what was aggregated since the last flush, and starts a new interval.
+     */
+    public void flush() {
+        TelemetryClient client = telemetryClient;
+        if (client == null) {
+            return;
+        }
+        List<T> items = drain();
+        if (!items.isEmpty()) {
+            client.trackAll(items);
+        }
+    }
+
+    /**
+     * Returns what was aggregated since the last call, and starts a new interval.
+     */
+    public abstract List<T> drain();
+}
@@ -0,0 +1,121 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the state which an aggregator records into during the current interval, and swaps it out at the end of the
+ * interval, without losing what is recorded concurrently with the swap.
+ *
+ * Each interval counts the recordings in progress into it, in stripes chosen by thread. A recording which finds that
+ * the interval has been swapped out after it was counted moves on to the next interval, so once the swap has been
+ * made, the counts of the previous interval only go down, and {@link #swap} waits for them to reach zero. That wait
+ * is bounded by the recordings which were already in progress, however many recordings are made meanwhile.
+ *
+ * @param <S> the type of the state, which must be safe for concurrent recordings
+ */
+public final class IntervalState<S> {
+
+    // the stripes are this many longs apart so that threads which record concurrently do not write to the same
+    // cache line
+    private static final int STRIPES = stripeCount();
+    private static final int STRIPE_PADDING = 16;
+
+    /**
+     * Creates the state of each interval.
+     */
+    public interface Factory<S> {
+        S create();
+    }
+
+    private final Factory<S> factory;
+    private final AtomicReference<Interval<S>> current;
+
+    public IntervalState(Factory<S> factory) {
+        this.factory = factory;
+        current = new AtomicReference<>(new Interval<>(factory.create()));
+    }
+
+    /**
+     * Returns the current interval, which must be {@linkplain Interval#exit() exited} once done recording into it,
+     * typically in a finally block.
+     */
+    public Interval<S> enter() {
+        int stripe = stripe();
+        while (true) {
+            Interval<S> interval = current.get();
+            interval.recording.incrementAndGet(stripe);
+            if (current.get() == interval) {
+                return interval;
+            }
+            // swapped out in the meantime, and the swap may already have seen this stripe at zero
+            interval.recording.decrementAndGet(stripe);
+        }
+    }
+
+    /**
+     * Starts a new interval, and returns the state of the previous one once nothing is recorded into it anymore.
+     */
+    public S swap() {
+        Interval<S> previous = current.getAndSet(new Interval<>(factory.create()));
+        for (int i = 0; i < previous.recording.length(); i += STRIPE_PADDING) {
+            while (previous.recording.get(i) != 0) {
+                Thread.yield();
+            }
+        }
+        return previous.state;
+    }
+
+    private static int stripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_PADDING;
+    }
+
+    // a power of two, so that the stripe is picked with a mask
+    private static int stripeCount() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    public static final class Interval<S> {
+
+        private final S state;
+        // the number of recordings in progress per stripe
+        private final AtomicLongArray recording = new AtomicLongArray(STRIPES * STRIPE_PADDING);
+
+        private Interval(S state) {
+            this.state = state;
+        }
+
+        public S getState() {
+            return state;
+        }
+
+        public void exit() {
+            recording.decrementAndGet(stripe());
+        }
+    }
+}
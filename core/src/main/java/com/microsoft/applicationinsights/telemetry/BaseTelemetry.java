@@ -29,7 +29,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.base.Charsets;
-import com.microsoft.applicationinsights.internal.schemav2.Data;
 import com.microsoft.applicationinsights.internal.schemav2.Domain;
 import com.microsoft.applicationinsights.internal.schemav2.Envelope;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
@@ -49,8 +48,34 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
     // this is temporary until we are convinced that telemetry are never re-used by codeless agent
     private volatile boolean used;
 
+    // non-null if this item was acquired from a pool, it is then returned to the pool once it has been sent
+    private TelemetryPool<?> pool;
+
+    // number of parties which still have to release this pooled item before it can be reused, see TelemetryPool
+    volatile int poolHolds;
+
     public static final String TELEMETRY_NAME_PREFIX = "Microsoft.ApplicationInsights.";
 
+    private static final int ENVELOPE_VERSION = 1;
+
+    private static final double DEFAULT_SAMPLE_RATE = 100.0;
+
+    // whether a class overrides the deprecated setSampleRate(Envelope) hook, which then still needs to be called
+    private static final ClassValue<Boolean> overridesSetSampleRate = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<?> c = type; c != BaseTelemetry.class && c != null; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("setSampleRate", Envelope.class);
+                    return true;
+                } catch (NoSuchMethodException e) {
+                    // not declared by this class
+                }
+            }
+            return false;
+        }
+    };
+
     private static final ThreadLocal<DateFormat> dateFormat = new ThreadLocal<DateFormat>() {
         protected DateFormat initialValue() {
             return LocalStringsUtils.getDateFormatter();
@@ -69,6 +94,53 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
         this.context = new TelemetryContext(properties, new ContextTagsMap());
     }
 
+    /**
+     * Switches this telemetry item to property and measurement maps which take less memory and which are faster
+     * to fill and to serialize than the default maps, but which are not thread-safe.
+     *
+     * This is only for telemetry which is built by a single thread and which is not changed after it has been
+     * tracked. Tracking the item hands it over to the channel, which makes the maps visible to the thread that
+     * serializes them. It must be called before any properties or measurements are added.
+     */
+    public void useSingleOwnerMaps() {
+        if (!context.getLocalProperties().isEmpty()) {
+            throw new IllegalStateException("properties have already been added");
+        }
+        ConcurrentMap<String, String> properties = new SingleOwnerMap<>();
+        if (replaceDataMaps(properties)) {
+            context.setProperties(properties);
+        }
+    }
+
+    /**
+     * Replaces the property map, and the measurement map if there is one, of the data of this telemetry item
+     * with the given property map and a {@link SingleOwnerMap} respectively, see {@link #useSingleOwnerMaps()}.
+     *
+     * @return {@code false} if this telemetry item does not support single owner maps
+     */
+    protected boolean replaceDataMaps(ConcurrentMap<String, String> properties) {
+        return false;
+    }
+
+    TelemetryPool<?> getPool() {
+        return pool;
+    }
+
+    void setPool(TelemetryPool<?> pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Restores the state of a newly created item, see {@link TelemetryPool}.
+     * Telemetry types which can be pooled extend this to also reset their data.
+     */
+    void resetForReuse() {
+        context.resetForReuse();
+        timestamp = null;
+        sequence = null;
+        used = false;
+    }
+
     public abstract int getVer();
 
     /**
@@ -160,20 +232,32 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
 
         String telemetryName = getTelemetryName(context.getNormalizedInstrumentationKey(), this.getEnvelopName());
 
-        Envelope envelope = new Envelope();
-        envelope.setName(telemetryName);
-
-        setSampleRate(envelope);
-        envelope.setIKey(context.getInstrumentationKey());
-        envelope.setSeq(sequence);
-        Data<T> tmp = new Data<T>();
-        tmp.setBaseData(getData());
-        tmp.setBaseType(this.getBaseTypeName());
-        envelope.setData(tmp);
-        if (getTimestamp() != null) envelope.setTime(dateFormat.get().format(getTimestamp()));
-        envelope.setTags(context.getTags());
-
-        envelope.serialize(writer);
+        // writing the envelope fields directly instead of populating (and then walking) the schemav2 Envelope and Data
+        // wrappers, the output must stay identical to Envelope.serializeContent() and Data.serializeContent()
+        writer.write("ver", ENVELOPE_VERSION);
+        writer.writeRequired("name", telemetryName, 1024);
+        writer.writeRequired("time", getTimestamp() == null ? null : dateFormat.get().format(getTimestamp()), 64);
+        double sampleRate = getSampleRate();
+        if (overridesSetSampleRate.get(getClass())) {
+            // only an envelope which carries the sample rate, the rest of it is written directly
+            Envelope envelope = new Envelope();
+            envelope.setSampleRate(sampleRate);
+            setSampleRate(envelope);
+            sampleRate = envelope.getSampleRate();
+        }
+        if (sampleRate > 0.0d) {
+            writer.write("sampleRate", sampleRate);
+        }
+        writer.write("seq", sequence, 64);
+        writer.write("iKey", context.getInstrumentationKey(), 40);
+        ContextTagsMap tags = context.getContextTags();
+        writer.write("tags", tags.getLocalTags(), tags.getBaseTags());
+        writer.setBaseProperties(context.getLocalProperties(), context.getBaseProperties());
+        try {
+            writer.writeData(this.getBaseTypeName(), getData());
+        } finally {
+            writer.setBaseProperties(null, null);
+        }
     }
 
     /**
@@ -223,7 +307,25 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
      */
     protected abstract T getData();
 
+    /**
+     * Sets the sample rate of the envelope of this item.
+     *
+     * @deprecated Override {@link #getSampleRate()} instead. The envelope is no longer created during serialization,
+     * when this is overridden it is still called, but with an envelope which only carries the sample rate, and which
+     * is allocated for each serialization of the item.
+     */
+    @Deprecated
     protected void setSampleRate(Envelope envelope) {
+        envelope.setSampleRate(getSampleRate());
+    }
+
+    /**
+     * Gets the sample rate written to the envelope of this item.
+     *
+     * @return The sample rate, 100 unless the item supports sampling and was sampled.
+     */
+    protected double getSampleRate() {
+        return DEFAULT_SAMPLE_RATE;
     }
 
     public String getEnvelopName() {
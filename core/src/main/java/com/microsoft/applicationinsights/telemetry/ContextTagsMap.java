@@ -1,159 +1,596 @@
 package com.microsoft.applicationinsights.telemetry;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.microsoft.applicationinsights.extensibility.context.ContextTagKeys;
 import org.apache.commons.lang3.StringUtils;
 
 /**
  * This ensures the values for certain tags do not exceed their limits.
+ *
+ * The tags defined in {@link ContextTagKeys} are stored in a fixed slot each, other tags are stored in an overflow
+ * map which is only created when needed.
+ *
+ * The tags of a telemetry item can be layered over a shared, immutable base, see
+ * {@link TelemetryContext#initialize(TelemetryContext)}. Lookups fall through to the base, and the base is only
+ * copied into this map when the map is iterated or changed in a way which needs it.
  */
 class ContextTagsMap implements ConcurrentMap<String, String> {
 
-    private static final Map<String, Integer> tagSizeLimits = new HashMap<>();
+    // the tags which have a slot, in slot order
+    private static final String[] slotKeys;
 
+    // the maximum length of the value of each slot, 0 if the value is not truncated
+    private static final int[] slotSizeLimits;
+
+    // open addressing table from the hash of a tag to its slot + 1, 0 for an empty entry
+    private static final int[] slotTable = new int[128];
 
     static {
-        tagSizeLimits.put(ContextTagKeys.getKeys().getApplicationVersion(), 1024);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getDeviceId(), 1024);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getDeviceModel(), 256);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getDeviceOEMName(), 256);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getDeviceOSVersion(), 256);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getDeviceType(), 64);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getLocationIP(), 45);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getOperationId(), 128);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getOperationName(), 1024);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getOperationParentId(), 128);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getSyntheticSource(), 1024);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getSessionId(), 64);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getUserId(), 128);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getUserAccountId(), 1024);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getUserAuthUserId(), 1024);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getCloudRole(), 256);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getCloudRoleInstance(), 256);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getInternalSdkVersion(), 64);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getInternalAgentVersion(), 64);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getInternalNodeName(), 256);
-        tagSizeLimits.put(ContextTagKeys.getKeys().getOperationCorrelationVector(), 64);
-    }
-
-    private final ConcurrentMap<String, String> tags = new ConcurrentHashMap<>();
-
-    private static String sanitizeKey(String key) {
-        return key;
-    }
-
-    private static String truncate(String value, int maxLength) {
-        if (value != null && value.length() > maxLength) {
-            value = StringUtils.truncate(value, maxLength);
+        ContextTagKeys keys = ContextTagKeys.getKeys();
+        slotKeys = new String[] {
+                keys.getApplicationId(),
+                keys.getApplicationVersion(),
+                keys.getApplicationTypeId(),
+                keys.getDeviceId(),
+                keys.getDeviceOS(),
+                keys.getDeviceOSVersion(),
+                keys.getDeviceLocale(),
+                keys.getDeviceType(),
+                keys.getDeviceVMName(),
+                keys.getDeviceRoleName(),
+                keys.getDeviceRoleInstance(),
+                keys.getDeviceOEMName(),
+                keys.getDeviceModel(),
+                keys.getDeviceNetwork(),
+                keys.getDeviceScreenResolution(),
+                keys.getDeviceLanguage(),
+                keys.getDeviceIp(),
+                keys.getLocationLatitude(),
+                keys.getLocationLongitude(),
+                keys.getLocationIP(),
+                keys.getLocationContinent(),
+                keys.getLocationCountry(),
+                keys.getLocationProvince(),
+                keys.getLocationCity(),
+                keys.getOperationName(),
+                keys.getOperationId(),
+                keys.getSyntheticSource(),
+                keys.getOperationParentId(),
+                keys.getOperationRootId(),
+                keys.getOperationCorrelationVector(),
+                keys.getSessionId(),
+                keys.getSessionIsFirst(),
+                keys.getSessionIsNew(),
+                keys.getUserType(),
+                keys.getUserId(),
+                keys.getUserAuthUserId(),
+                keys.getUserAccountId(),
+                keys.getUserAnonymousUserAcquisitionDate(),
+                keys.getUserAuthenticatedUserAcquisitionDate(),
+                keys.getUserAccountAcquisitionDate(),
+                keys.getUserAgent(),
+                keys.getSampleRate(),
+                keys.getInternalSdkVersion(),
+                keys.getInternalAgentVersion(),
+                keys.getInternalNodeName(),
+                keys.getCloudRole(),
+                keys.getCloudRoleInstance()
+        };
+        for (int slot = 0; slot < slotKeys.length; slot++) {
+            int i = hash(slotKeys[slot]);
+            while (slotTable[i] != 0) {
+                i = (i + 1) & (slotTable.length - 1);
+            }
+            slotTable[i] = slot + 1;
         }
-        return value;
+
+        slotSizeLimits = new int[slotKeys.length];
+        setSizeLimit(keys.getApplicationVersion(), 1024);
+        setSizeLimit(keys.getDeviceId(), 1024);
+        setSizeLimit(keys.getDeviceModel(), 256);
+        setSizeLimit(keys.getDeviceOEMName(), 256);
+        setSizeLimit(keys.getDeviceOSVersion(), 256);
+        setSizeLimit(keys.getDeviceType(), 64);
+        setSizeLimit(keys.getLocationIP(), 45);
+        setSizeLimit(keys.getOperationId(), 128);
+        setSizeLimit(keys.getOperationName(), 1024);
+        setSizeLimit(keys.getOperationParentId(), 128);
+        setSizeLimit(keys.getSyntheticSource(), 1024);
+        setSizeLimit(keys.getSessionId(), 64);
+        setSizeLimit(keys.getUserId(), 128);
+        setSizeLimit(keys.getUserAccountId(), 1024);
+        setSizeLimit(keys.getUserAuthUserId(), 1024);
+        setSizeLimit(keys.getCloudRole(), 256);
+        setSizeLimit(keys.getCloudRoleInstance(), 256);
+        setSizeLimit(keys.getInternalSdkVersion(), 64);
+        setSizeLimit(keys.getInternalAgentVersion(), 64);
+        setSizeLimit(keys.getInternalNodeName(), 256);
+        setSizeLimit(keys.getOperationCorrelationVector(), 64);
+    }
+
+    private final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(slotKeys.length);
+
+    // tags which do not have a slot, null until the first one is added
+    private volatile ConcurrentMap<String, String> overflow;
+
+    // tags which are not overridden by this map, null if there are none
+    private volatile Map<String, String> base;
+
+    // changed after every modification, so that a base layer taken from this map can tell if it is stale
+    private volatile int modCount;
+
+    private final LocalTags localTags = new LocalTags();
+
+    private static void setSizeLimit(String key, int limit) {
+        slotSizeLimits[getSlot(key)] = limit;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (slotTable.length - 1);
     }
 
-    private String sanitizeValue(String key, String value) {
+    // returns -1 if the tag does not have a slot
+    static int getSlot(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        String tag = (String) key;
+        int i = hash(tag);
+        while (true) {
+            int slot = slotTable[i] - 1;
+            if (slot == -1) {
+                return -1;
+            }
+            String slotKey = slotKeys[slot];
+            if (slotKey == tag || slotKey.equals(tag)) {
+                return slot;
+            }
+            i = (i + 1) & (slotTable.length - 1);
+        }
+    }
+
+    private static String sanitizeValue(int slot, String value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
         value = StringUtils.trim(value);
-        if (tagSizeLimits.containsKey(key)) {
-            value = truncate(value, tagSizeLimits.get(key));
+        if (slot != -1) {
+            int limit = slotSizeLimits[slot];
+            if (limit != 0 && value.length() > limit) {
+                value = StringUtils.truncate(value, limit);
+            }
         }
         return value;
     }
 
     @Override
     public String putIfAbsent(String key, String value) {
-        return tags.putIfAbsent(key, sanitizeValue(key, value));
+        Map<String, String> base = this.base;
+        if (base != null && !containsLocalKey(key) && base.containsKey(key)) {
+            return base.get(key);
+        }
+        String previous = putLocalIfAbsent(key, value);
+        modCount++;
+        return previous;
     }
 
     @Override
     public boolean remove(Object key, Object value) {
-        return tags.remove(key, value);
+        flattenBase();
+        boolean removed;
+        int slot = getSlot(key);
+        if (slot == -1) {
+            ConcurrentMap<String, String> overflow = this.overflow;
+            removed = overflow != null && overflow.remove(key, value);
+        } else {
+            removed = false;
+            while (true) {
+                String current = slots.get(slot);
+                if (current == null || !current.equals(value)) {
+                    break;
+                }
+                if (slots.compareAndSet(slot, current, null)) {
+                    removed = true;
+                    break;
+                }
+            }
+        }
+        modCount++;
+        return removed;
     }
 
     @Override
     public boolean replace(String key, String oldValue, String newValue) {
-        return tags.replace(key, oldValue, sanitizeValue(key, newValue));
+        flattenBase();
+        boolean replaced;
+        int slot = getSlot(key);
+        String sanitized = sanitizeValue(slot, newValue);
+        if (slot == -1) {
+            ConcurrentMap<String, String> overflow = this.overflow;
+            replaced = overflow != null && overflow.replace(key, oldValue, sanitized);
+        } else {
+            replaced = false;
+            while (true) {
+                String current = slots.get(slot);
+                if (current == null || !current.equals(oldValue)) {
+                    break;
+                }
+                if (slots.compareAndSet(slot, current, sanitized)) {
+                    replaced = true;
+                    break;
+                }
+            }
+        }
+        modCount++;
+        return replaced;
     }
 
     @Override
     public String replace(String key, String value) {
-        return tags.replace(key, sanitizeValue(key, value));
+        flattenBase();
+        String previous;
+        int slot = getSlot(key);
+        String sanitized = sanitizeValue(slot, value);
+        if (slot == -1) {
+            ConcurrentMap<String, String> overflow = this.overflow;
+            previous = overflow == null ? null : overflow.replace(key, sanitized);
+        } else {
+            while (true) {
+                previous = slots.get(slot);
+                if (previous == null || slots.compareAndSet(slot, previous, sanitized)) {
+                    break;
+                }
+            }
+        }
+        modCount++;
+        return previous;
     }
 
     @Override
     public int size() {
-        return tags.size();
+        flattenBase();
+        return localTags.size();
     }
 
     @Override
     public boolean isEmpty() {
-        return tags.isEmpty();
+        Map<String, String> base = this.base;
+        return localTags.isEmpty() && (base == null || base.isEmpty());
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return tags.containsKey(key);
+        if (containsLocalKey(key)) {
+            return true;
+        }
+        Map<String, String> base = this.base;
+        return base != null && base.containsKey(key);
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return tags.containsValue(value);
+        flattenBase();
+        return localTags.containsValue(value);
     }
 
     @Override
     public String get(Object key) {
-        return tags.get(key);
+        String value = getLocal(key);
+        if (value == null) {
+            Map<String, String> base = this.base;
+            if (base != null) {
+                return base.get(key);
+            }
+        }
+        return value;
     }
 
     @Override
     public String put(String key, String value) {
-        return tags.put(key, sanitizeValue(key, value));
+        String previous = putLocal(key, value);
+        modCount++;
+        if (previous == null) {
+            Map<String, String> base = this.base;
+            if (base != null) {
+                return base.get(key);
+            }
+        }
+        return previous;
     }
 
     @Override
     public String remove(Object key) {
-        return tags.remove(key);
+        flattenBase();
+        String previous = removeLocal(key);
+        modCount++;
+        return previous;
     }
 
     @Override
     public void putAll(Map<? extends String, ? extends String> m) {
-        Map<String, String> sanitized = new HashMap<>();
         for (Entry<? extends String, ? extends String> entry : m.entrySet()) {
-            sanitized.put(entry.getKey(), sanitizeValue(entry.getKey(), entry.getValue()));
+            putLocal(entry.getKey(), entry.getValue());
         }
-        tags.putAll(sanitized);
+        modCount++;
     }
 
     @Override
     public void clear() {
-        tags.clear();
+        base = null;
+        for (int slot = 0; slot < slotKeys.length; slot++) {
+            slots.set(slot, null);
+        }
+        ConcurrentMap<String, String> overflow = this.overflow;
+        if (overflow != null) {
+            overflow.clear();
+        }
+        modCount++;
     }
 
     @Override
     public Set<String> keySet() {
-        return tags.keySet();
+        flattenBase();
+        return localTags.keySet();
     }
 
     @Override
     public Collection<String> values() {
-        return tags.values();
+        flattenBase();
+        return localTags.values();
     }
 
     @Override
     public Set<Entry<String, String>> entrySet() {
-        return tags.entrySet();
+        flattenBase();
+        return localTags.entrySet();
     }
 
     @Override
     public boolean equals(Object o) {
-        return tags.equals(o);
+        flattenBase();
+        return localTags.equals(o);
     }
 
     @Override
     public int hashCode() {
-        return tags.hashCode();
+        flattenBase();
+        return localTags.hashCode();
+    }
+
+    // the tags which have been set on this map, without the base layer
+    Map<String, String> getLocalTags() {
+        return localTags;
+    }
+
+    // null if there is no base layer
+    Map<String, String> getBaseTags() {
+        return base;
+    }
+
+    void setBase(Map<String, String> base) {
+        // a previous base layer still applies to the tags which are not in the new one
+        flattenBase();
+        this.base = base;
+    }
+
+    int getModCount() {
+        return modCount;
+    }
+
+    // copies the base layer into this map, for the operations which need to see all of the tags in one map
+    private void flattenBase() {
+        Map<String, String> base = this.base;
+        if (base == null) {
+            return;
+        }
+        for (Entry<String, String> entry : base.entrySet()) {
+            putLocalIfAbsent(entry.getKey(), entry.getValue());
+        }
+        this.base = null;
+    }
+
+    private String getLocal(Object key) {
+        int slot = getSlot(key);
+        if (slot != -1) {
+            return slots.get(slot);
+        }
+        ConcurrentMap<String, String> overflow = this.overflow;
+        return overflow == null ? null : overflow.get(key);
+    }
+
+    private boolean containsLocalKey(Object key) {
+        int slot = getSlot(key);
+        if (slot != -1) {
+            return slots.get(slot) != null;
+        }
+        ConcurrentMap<String, String> overflow = this.overflow;
+        return overflow != null && overflow.containsKey(key);
+    }
+
+    private String putLocal(String key, String value) {
+        int slot = getSlot(key);
+        String sanitized = sanitizeValue(slot, value);
+        if (slot != -1) {
+            return slots.getAndSet(slot, sanitized);
+        }
+        return getOrCreateOverflow().put(key, sanitized);
+    }
+
+    private String putLocalIfAbsent(String key, String value) {
+        int slot = getSlot(key);
+        String sanitized = sanitizeValue(slot, value);
+        if (slot == -1) {
+            return getOrCreateOverflow().putIfAbsent(key, sanitized);
+        }
+        while (true) {
+            if (slots.compareAndSet(slot, null, sanitized)) {
+                return null;
+            }
+            String current = slots.get(slot);
+            if (current != null) {
+                return current;
+            }
+        }
+    }
+
+    private String removeLocal(Object key) {
+        int slot = getSlot(key);
+        if (slot != -1) {
+            return slots.getAndSet(slot, null);
+        }
+        ConcurrentMap<String, String> overflow = this.overflow;
+        return overflow == null ? null : overflow.remove(key);
+    }
+
+    private ConcurrentMap<String, String> getOrCreateOverflow() {
+        ConcurrentMap<String, String> overflow = this.overflow;
+        if (overflow == null) {
+            synchronized (this) {
+                overflow = this.overflow;
+                if (overflow == null) {
+                    overflow = new ConcurrentHashMap<>();
+                    this.overflow = overflow;
+                }
+            }
+        }
+        return overflow;
+    }
+
+    // view of the slots and the overflow map
+    private class LocalTags extends AbstractMap<String, String> {
+
+        private final Set<Entry<String, String>> entrySet = new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new LocalTagsIterator();
+            }
+
+            @Override
+            public int size() {
+                return LocalTags.this.size();
+            }
+        };
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return entrySet;
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (int slot = 0; slot < slotKeys.length; slot++) {
+                if (slots.get(slot) != null) {
+                    size++;
+                }
+            }
+            ConcurrentMap<String, String> overflow = ContextTagsMap.this.overflow;
+            return overflow == null ? size : size + overflow.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            for (int slot = 0; slot < slotKeys.length; slot++) {
+                if (slots.get(slot) != null) {
+                    return false;
+                }
+            }
+            ConcurrentMap<String, String> overflow = ContextTagsMap.this.overflow;
+            return overflow == null || overflow.isEmpty();
+        }
+
+        @Override
+        public String get(Object key) {
+            return getLocal(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return containsLocalKey(key);
+        }
+    }
+
+    private class LocalTagsIterator implements Iterator<Entry<String, String>> {
+
+        private int slot = -1;
+        private Iterator<Entry<String, String>> overflowIterator;
+        private Entry<String, String> next;
+        private Entry<String, String> last;
+
+        private LocalTagsIterator() {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            advance();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            ContextTagsMap.this.remove(last.getKey());
+            last = null;
+        }
+
+        private void advance() {
+            while (++slot < slotKeys.length) {
+                String value = slots.get(slot);
+                if (value != null) {
+                    next = new TagEntry(slotKeys[slot], value);
+                    return;
+                }
+            }
+            if (overflowIterator == null) {
+                ConcurrentMap<String, String> overflow = ContextTagsMap.this.overflow;
+                if (overflow == null) {
+                    next = null;
+                    return;
+                }
+                overflowIterator = overflow.entrySet().iterator();
+            }
+            next = overflowIterator.hasNext() ? new TagEntry(overflowIterator.next()) : null;
+        }
+    }
+
+    // writes through to the map, the same as the entries of ConcurrentHashMap
+    private class TagEntry extends AbstractMap.SimpleEntry<String, String> {
+
+        private TagEntry(String key, String value) {
+            super(key, value);
+        }
+
+        private TagEntry(Entry<String, String> entry) {
+            super(entry);
+        }
+
+        @Override
+        public String setValue(String value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
     }
 }
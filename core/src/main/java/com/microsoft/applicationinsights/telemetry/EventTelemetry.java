@@ -108,6 +108,13 @@ public final class EventTelemetry extends BaseSampleSourceTelemetry<EventData> {
         Sanitizer.sanitizeMeasurements(this.getMetrics());
     }
 
+    @Override
+    protected boolean replaceDataMaps(ConcurrentMap<String, String> properties) {
+        data.setProperties(properties);
+        data.setMeasurements(new SingleOwnerMap<Double>());
+        return true;
+    }
+
     /**
      * Fetches the data structure the instance works with
      *
@@ -150,6 +150,13 @@ public final class ExceptionTelemetry extends BaseSampleSourceTelemetry<Exceptio
         Sanitizer.sanitizeMeasurements(this.getMetrics());
     }
 
+    @Override
+    protected boolean replaceDataMaps(ConcurrentMap<String, String> properties) {
+        data.setProperties(properties);
+        data.setMeasurements(new SingleOwnerMap<Double>());
+        return true;
+    }
+
     @Override
     public ExceptionData getData() {
         return data;
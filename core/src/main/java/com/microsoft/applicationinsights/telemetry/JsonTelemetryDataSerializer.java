@@ -38,6 +38,11 @@ public final class JsonTelemetryDataSerializer {
 
     private JsonWriter out;
 
+    // the properties of the telemetry item which is being written, and the base layer which is merged into them,
+    // see TelemetryContext
+    private Map<String, String> layeredProperties;
+    private Map<String, String> baseProperties;
+
     public JsonTelemetryDataSerializer(JsonWriter out) throws IOException {
         reset(out);
     }
@@ -189,23 +194,87 @@ public final class JsonTelemetryDataSerializer {
         writeObject(value);
     }
 
+    /**
+     * Writes the "data" member of an envelope, the same way as {@link com.microsoft.applicationinsights.internal.schemav2.Data}
+     * would be written, but without requiring an instance of it.
+     *
+     * @param baseType The base type name of the telemetry data
+     * @param baseData The telemetry data
+     * @throws IOException The exception that might be thrown during the serialization
+     */
+    public void writeData(String baseType, JsonSerializable baseData) throws IOException {
+        writeName("data");
+        out.beginObject();
+        writeRequired("baseType", baseType, 1000);
+        write("baseData", baseData);
+        out.endObject();
+    }
+
+    @SuppressWarnings("unchecked")
     public <T> void write(String name, Map<String, T> map) throws IOException {
 
+        if (map != null && map == (Map<?, ?>) layeredProperties && baseProperties != null) {
+            write(name, (Map<String, String>) map, baseProperties);
+            return;
+        }
+
         if (map == null || map.isEmpty()) {
             return;
         }
 
         writeName(name);
         out.beginObject();
+        writeEntries(map, null);
+        out.endObject();
+    }
 
-        for (Map.Entry<String, T> entry : map.entrySet()) {
-            sanitizeKey(out, entry.getKey());
-            write(entry.getValue());
+
+    /**
+     * Writes the entries of both maps as one map, the entries of {@code base} which have the same key as an entry of
+     * {@code map} are not written.
+     */
+    public void write(String name, Map<String, String> map, Map<String, String> base) throws IOException {
+        if (base == null || base.isEmpty()) {
+            write(name, map);
+            return;
         }
 
+        writeName(name);
+        out.beginObject();
+
+        writeEntries(map, null);
+        writeEntries(base, map);
+
         out.endObject();
     }
 
+    // writes the entries of the map, skipping the keys which are contained in the excluded map
+    //
+    // single owner maps are walked by index, which avoids allocating an iterator and an entry per property
+    private <T> void writeEntries(Map<String, T> map, Map<String, ?> excluded) throws IOException {
+        if (map instanceof SingleOwnerMap) {
+            SingleOwnerMap<T> singleOwnerMap = (SingleOwnerMap<T>) map;
+            for (int i = 0; i < singleOwnerMap.size(); i++) {
+                String key = singleOwnerMap.keyAt(i);
+                if (excluded == null || !excluded.containsKey(key)) {
+                    sanitizeKey(out, key);
+                    write(singleOwnerMap.valueAt(i));
+                }
+            }
+            return;
+        }
+        for (Map.Entry<String, T> entry : map.entrySet()) {
+            if (excluded == null || !excluded.containsKey(entry.getKey())) {
+                sanitizeKey(out, entry.getKey());
+                write(entry.getValue());
+            }
+        }
+    }
+
+    void setBaseProperties(Map<String, String> properties, Map<String, String> baseProperties) {
+        this.layeredProperties = properties;
+        this.baseProperties = baseProperties;
+    }
 
     public <T> void write(String name, List<T> list) throws IOException {
         if (list == null) {
@@ -228,7 +297,7 @@ public final class JsonTelemetryDataSerializer {
         if (item instanceof JsonSerializable) {
             writeObject((JsonSerializable) item);
         } else if (item instanceof Number) {
-            out.value((Number) item);
+            writeNumber((Number) item);
         } else if (item instanceof Boolean) {
             out.value((Boolean) item);
         } else if (item instanceof Character) {
@@ -239,6 +308,17 @@ public final class JsonTelemetryDataSerializer {
         }
     }
 
+    // same as write(String, Double), a lenient writer would otherwise write NaN and infinity as is, which is not valid
+    // JSON and gets the whole batch rejected
+    private void writeNumber(Number value) throws IOException {
+        if ((value instanceof Double || value instanceof Float)
+                && (Double.isNaN(value.doubleValue()) || Double.isInfinite(value.doubleValue()))) {
+            out.value(0);
+        } else {
+            out.value(value);
+        }
+    }
+
     private void writeObject(JsonSerializable value) throws IOException {
         out.beginObject();
         value.serialize(this);
@@ -27,6 +27,8 @@ import com.microsoft.applicationinsights.internal.schemav2.DataPointType;
 import com.microsoft.applicationinsights.internal.schemav2.MetricData;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Telemetry type used to track metrics sent to Azure Application Insights.
  * <p>
@@ -194,6 +196,12 @@ public final class MetricTelemetry extends BaseTelemetry<MetricData> {
         metric.setName(Sanitizer.sanitizeName(metric.getName()));
     }
 
+    @Override
+    protected boolean replaceDataMaps(ConcurrentMap<String, String> properties) {
+        data.setProperties(properties);
+        return true;
+    }
+
     @Override
     protected MetricData getData() {
         return data;
@@ -31,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Telemetry sent to Azure Application Insights about dependencies - that is, calls from
@@ -375,6 +376,28 @@ public final class RemoteDependencyTelemetry extends BaseSampleSourceTelemetry<R
         data.setName(Sanitizer.sanitizeName(data.getName()));
     }
 
+    @Override
+    protected boolean replaceDataMaps(ConcurrentMap<String, String> properties) {
+        data.setProperties(properties);
+        data.setMeasurements(new SingleOwnerMap<Double>());
+        return true;
+    }
+
+    @Override
+    void resetForReuse() {
+        super.resetForReuse();
+        data.getMeasurements().clear();
+        data.setName(null);
+        data.setId(null);
+        data.setResultCode(null);
+        data.setDuration(new Duration(0));
+        data.setSuccess(true);
+        data.setData(null);
+        data.setType(null);
+        data.setTarget(null);
+        samplingPercentage = null;
+    }
+
     @Override
     protected RemoteDependencyData getData() {
         return data;
@@ -299,6 +299,31 @@ public final class RequestTelemetry extends BaseSampleSourceTelemetry<RequestDat
         Sanitizer.sanitizeUri(data.getUrl());
     }
 
+    @Override
+    protected boolean replaceDataMaps(ConcurrentMap<String, String> properties) {
+        data.setProperties(properties);
+        data.setMeasurements(new SingleOwnerMap<Double>());
+        return true;
+    }
+
+    @Override
+    void resetForReuse() {
+        super.resetForReuse();
+        data.getMeasurements().clear();
+        data.setDuration(new Duration(0));
+        data.setSource(null);
+        data.setName(null);
+        data.setUrl(null);
+        httpMethod = null;
+        samplingPercentage = null;
+
+        // same as the constructor
+        setId(LocalStringsUtils.generateRandomIntegerId());
+        setTimestamp(new Date());
+        setResponseCode(Integer.toString(HttpStatus.SC_OK));
+        setSuccess(true);
+    }
+
     @Override
     protected RequestData getData() {
         return data;
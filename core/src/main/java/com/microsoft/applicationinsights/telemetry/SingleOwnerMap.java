@@ -0,0 +1,338 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A map for the properties and measurements of a telemetry item which is only accessed by one thread at a time,
+ * see {@link BaseTelemetry#useSingleOwnerMaps()}.
+ *
+ * It implements {@link ConcurrentMap} so that it can be used where the telemetry API exposes one, but it is not
+ * thread-safe. Handing the telemetry item over to the channel publishes the map safely to the thread which
+ * serializes it, since the item goes through a synchronized queue.
+ *
+ * The entries are stored in insertion order in two arrays, which are scanned linearly for up to 8 entries.
+ * Beyond that, an open addressing index into the arrays is added. Null keys and values are not allowed,
+ * the same as for {@link java.util.concurrent.ConcurrentHashMap}.
+ */
+final class SingleOwnerMap<V> extends AbstractMap<String, V> implements ConcurrentMap<String, V> {
+
+    private static final int MAX_LINEAR_SCAN = 8;
+
+    private String[] keys;
+    private Object[] values;
+    private int size;
+
+    // entry index + 1 by key hash, 0 for an empty entry, null while the entries are scanned linearly
+    private int[] index;
+
+    private Set<Entry<String, V>> entrySet;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int i = indexOf(key);
+        return i == -1 ? null : valueAt(i);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    @Override
+    public V put(String key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int i = indexOf(key);
+        if (i != -1) {
+            V previous = valueAt(i);
+            values[i] = value;
+            return previous;
+        }
+        append(key, value);
+        return null;
+    }
+
+    @Override
+    public V putIfAbsent(String key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int i = indexOf(key);
+        if (i != -1) {
+            return valueAt(i);
+        }
+        append(key, value);
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int i = indexOf(key);
+        if (i == -1) {
+            return null;
+        }
+        V previous = valueAt(i);
+        removeAt(i);
+        return previous;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int i = indexOf(key);
+        if (i == -1 || !values[i].equals(value)) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    @Override
+    public boolean replace(String key, V oldValue, V newValue) {
+        if (newValue == null) {
+            throw new NullPointerException();
+        }
+        int i = indexOf(key);
+        if (i == -1 || !values[i].equals(oldValue)) {
+            return false;
+        }
+        values[i] = newValue;
+        return true;
+    }
+
+    @Override
+    public V replace(String key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int i = indexOf(key);
+        if (i == -1) {
+            return null;
+        }
+        V previous = valueAt(i);
+        values[i] = value;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        if (size != 0) {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+            index = null;
+        }
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    // for iterating without allocating an entry per key, from 0 to size() - 1
+    String keyAt(int i) {
+        return keys[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int i) {
+        return (V) values[i];
+    }
+
+    private int indexOf(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                String k = keys[i];
+                if (k == key || k.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            int i = index[slot] - 1;
+            if (i == -1) {
+                return -1;
+            }
+            if (keys[i].equals(key)) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void append(String key, V value) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (keys == null) {
+            keys = new String[MAX_LINEAR_SCAN];
+            values = new Object[MAX_LINEAR_SCAN];
+        } else if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        if (index != null && size * 2 <= index.length) {
+            addToIndex(size - 1);
+        } else if (size > MAX_LINEAR_SCAN) {
+            rebuildIndex();
+        }
+    }
+
+    private void removeAt(int i) {
+        int moved = size - i - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, i + 1, keys, i, moved);
+            System.arraycopy(values, i + 1, values, i, moved);
+        }
+        size--;
+        keys[size] = null;
+        values[size] = null;
+        if (index != null) {
+            // the indexes of the following entries have changed
+            rebuildIndex();
+        }
+    }
+
+    private void rebuildIndex() {
+        if (size <= MAX_LINEAR_SCAN) {
+            index = null;
+            return;
+        }
+        // at most half full
+        index = new int[Integer.highestOneBit(size) * 4];
+        for (int i = 0; i < size; i++) {
+            addToIndex(i);
+        }
+    }
+
+    private void addToIndex(int i) {
+        int mask = index.length - 1;
+        int slot = hash(keys[i]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = i + 1;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, V>> {
+
+        @Override
+        public Iterator<Entry<String, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, V>> {
+
+        private int next;
+        private int last = -1;
+        private int expectedSize = size;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, V> next() {
+            if (size != expectedSize) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new MapEntry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == -1) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedSize = size;
+        }
+    }
+
+    private class MapEntry extends SimpleEntry<String, V> {
+
+        private final int i;
+
+        private MapEntry(int i) {
+            super(SingleOwnerMap.this.keys[i], SingleOwnerMap.this.valueAt(i));
+            this.i = i;
+        }
+
+        @Override
+        public V setValue(V value) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+            values[i] = value;
+            return super.setValue(value);
+        }
+    }
+}
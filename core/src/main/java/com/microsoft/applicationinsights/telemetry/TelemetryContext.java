@@ -22,6 +22,10 @@
 package com.microsoft.applicationinsights.telemetry;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ForwardingCollection;
+import com.google.common.collect.ForwardingConcurrentMap;
+import com.google.common.collect.ForwardingIterator;
+import com.google.common.collect.ForwardingMapEntry;
 import com.microsoft.applicationinsights.extensibility.context.CloudContext;
 import com.microsoft.applicationinsights.extensibility.context.ComponentContext;
 import com.microsoft.applicationinsights.extensibility.context.DeviceContext;
@@ -32,6 +36,12 @@ import com.microsoft.applicationinsights.extensibility.context.SessionContext;
 import com.microsoft.applicationinsights.extensibility.context.UserContext;
 import com.microsoft.applicationinsights.internal.util.MapUtil;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -42,11 +52,24 @@ import java.util.concurrent.ConcurrentMap;
  * related telemetry items; and user, session and device data.
  * You can also set properties that are added to every telemetry item, and can
  * be used in the portal to filter the telemetry that used this context.
+ *
+ * When a telemetry item's context is initialized from the context of a
+ * {@link com.microsoft.applicationinsights.TelemetryClient}, the tags and properties of the client's context
+ * are not copied into the item. The item refers to an immutable snapshot of them instead, which is only
+ * rebuilt when the client's context changes. The item's tags fall through to the snapshot, while the item's
+ * properties only hold the item's own values, the snapshot properties are merged in when the item is serialized,
+ * or when the item's properties are asked for through {@link #getProperties()}.
  */
 public final class TelemetryContext {
     private ConcurrentMap<String,String> properties;
     private ContextTagsMap tags;
 
+    // the properties of the context this context was initialized from, null if there are none
+    private Map<String, String> baseProperties;
+
+    // the snapshot which is handed out when this context is the source of another context's initialization
+    private volatile BaseLayer baseLayer;
+
     private String instrumentationKey;
     private String normalizedInstrumentationKey = "";
     private ComponentContext component;
@@ -62,7 +85,7 @@ public final class TelemetryContext {
      * Default Ctor
      */
     public TelemetryContext() {
-        this(new ConcurrentHashMap<String, String>(), new ContextTagsMap());
+        this(new VersionedProperties(), new ContextTagsMap());
     }
 
     /**
@@ -193,9 +216,23 @@ public final class TelemetryContext {
 
     /**
      * Gets a dictionary of application-defined property values.
+     *
+     * After {@link #initialize(TelemetryContext)}, this includes the properties of the source context, the same as
+     * if they had been copied by the initialization.
+     *
      * @return The application-defined property values.
      */
     public ConcurrentMap<String, String> getProperties() {
+        if (baseProperties != null) {
+            // the caller may read or change any of the properties, so they need to be in one map
+            MapUtil.copy(baseProperties, properties);
+            baseProperties = null;
+        }
+        return properties;
+    }
+
+    // the item's own properties, without the properties of the source context, see getBaseProperties()
+    ConcurrentMap<String, String> getLocalProperties() {
         return properties;
     }
 
@@ -211,8 +248,51 @@ public final class TelemetryContext {
         if (Strings.isNullOrEmpty(this.instrumentationKey) && !Strings.isNullOrEmpty(source.getInstrumentationKey()))
             setInstrumentationKey(source.getInstrumentationKey(), source.getNormalizedInstrumentationKey());
 
-        MapUtil.copy(source.tags, this.tags);
-        MapUtil.copy(source.properties, this.properties);
+        BaseLayer layer = source.getBaseLayer();
+        tags.setBase(layer.tags);
+        if (baseProperties != null) {
+            // a previous base layer still applies to the properties which are not in the new one
+            MapUtil.copy(baseProperties, properties);
+        }
+        baseProperties = layer.properties;
+    }
+
+    // null if there are no base properties
+    Map<String, String> getBaseProperties() {
+        return baseProperties;
+    }
+
+    void setProperties(ConcurrentMap<String, String> properties) {
+        this.properties = properties;
+    }
+
+    // restores the state of a new context, for telemetry items which are reused, see TelemetryPool
+    void resetForReuse() {
+        properties.clear();
+        tags.clear();
+        baseProperties = null;
+        baseLayer = null;
+        instrumentationKey = null;
+        normalizedInstrumentationKey = "";
+    }
+
+    ContextTagsMap getContextTags() {
+        return tags;
+    }
+
+    private BaseLayer getBaseLayer() {
+        BaseLayer layer = baseLayer;
+        int tagsModCount = tags.getModCount();
+        if (properties instanceof VersionedProperties) {
+            int propertiesModCount = ((VersionedProperties) properties).modCount;
+            if (layer == null || layer.tagsModCount != tagsModCount || layer.propertiesModCount != propertiesModCount) {
+                layer = new BaseLayer(this, tagsModCount, propertiesModCount);
+                baseLayer = layer;
+            }
+            return layer;
+        }
+        // changes to the properties cannot be detected, e.g. when the source is itself the context of a telemetry item
+        return new BaseLayer(this, tagsModCount, 0);
     }
 
     public InternalContext getInternal() {
@@ -235,4 +315,226 @@ public final class TelemetryContext {
         this.properties = properties;
         this.tags = tags;
     }
+
+    // immutable snapshot of the tags and properties of a context, including its own base layer
+    private static final class BaseLayer {
+
+        private final Map<String, String> tags;
+        private final Map<String, String> properties;
+        private final int tagsModCount;
+        private final int propertiesModCount;
+
+        private BaseLayer(TelemetryContext source, int tagsModCount, int propertiesModCount) {
+            this.tags = snapshot(source.tags.getLocalTags(), source.tags.getBaseTags());
+            this.properties = snapshot(source.properties, source.baseProperties);
+            this.tagsModCount = tagsModCount;
+            this.propertiesModCount = propertiesModCount;
+        }
+
+        private static Map<String, String> snapshot(Map<String, String> local, Map<String, String> base) {
+            Map<String, String> snapshot = new HashMap<>();
+            if (base != null) {
+                snapshot.putAll(base);
+            }
+            for (Map.Entry<String, String> entry : local.entrySet()) {
+                if (!Strings.isNullOrEmpty(entry.getKey()) && entry.getValue() != null) {
+                    snapshot.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return snapshot.isEmpty() ? null : Collections.unmodifiableMap(snapshot);
+        }
+    }
+
+    // the properties of a context which is not a telemetry item's context, e.g. the context of a TelemetryClient,
+    // which counts its changes so that the base layer is only rebuilt when they change (the count is changed
+    // after the change, so that a base layer which is built concurrently with a change is rebuilt on next use)
+    //
+    // changes made through the entry, key and value views are counted too
+    private static final class VersionedProperties extends ForwardingConcurrentMap<String, String> {
+
+        private final ConcurrentMap<String, String> delegate = new ConcurrentHashMap<>();
+
+        private volatile int modCount;
+
+        @Override
+        protected ConcurrentMap<String, String> delegate() {
+            return delegate;
+        }
+
+        @Override
+        public String put(String key, String value) {
+            String previous = delegate.put(key, value);
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public String putIfAbsent(String key, String value) {
+            String previous = delegate.putIfAbsent(key, value);
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends String> map) {
+            delegate.putAll(map);
+            modCount++;
+        }
+
+        @Override
+        public String remove(Object key) {
+            String previous = delegate.remove(key);
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            boolean removed = delegate.remove(key, value);
+            modCount++;
+            return removed;
+        }
+
+        @Override
+        public String replace(String key, String value) {
+            String previous = delegate.replace(key, value);
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public boolean replace(String key, String oldValue, String newValue) {
+            boolean replaced = delegate.replace(key, oldValue, newValue);
+            modCount++;
+            return replaced;
+        }
+
+        @Override
+        public void clear() {
+            delegate.clear();
+            modCount++;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return new CountingSet<>(delegate.keySet());
+        }
+
+        @Override
+        public Collection<String> values() {
+            return new CountingCollection<>(delegate.values());
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new CountingSet<Map.Entry<String, String>>(delegate.entrySet()) {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new CountingIterator<Map.Entry<String, String>>(delegate().iterator()) {
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            final Map.Entry<String, String> entry = super.next();
+                            return new ForwardingMapEntry<String, String>() {
+                                @Override
+                                protected Map.Entry<String, String> delegate() {
+                                    return entry;
+                                }
+
+                                @Override
+                                public String setValue(String value) {
+                                    String previous = entry.setValue(value);
+                                    modCount++;
+                                    return previous;
+                                }
+                            };
+                        }
+                    };
+                }
+            };
+        }
+
+        private class CountingCollection<E> extends ForwardingCollection<E> {
+
+            private final Collection<E> delegate;
+
+            private CountingCollection(Collection<E> delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            protected Collection<E> delegate() {
+                return delegate;
+            }
+
+            @Override
+            public Iterator<E> iterator() {
+                return new CountingIterator<>(delegate.iterator());
+            }
+
+            @Override
+            public boolean remove(Object object) {
+                boolean removed = delegate.remove(object);
+                modCount++;
+                return removed;
+            }
+
+            @Override
+            public boolean removeAll(Collection<?> collection) {
+                boolean removed = delegate.removeAll(collection);
+                modCount++;
+                return removed;
+            }
+
+            @Override
+            public boolean retainAll(Collection<?> collection) {
+                boolean removed = delegate.retainAll(collection);
+                modCount++;
+                return removed;
+            }
+
+            @Override
+            public void clear() {
+                delegate.clear();
+                modCount++;
+            }
+        }
+
+        // the views of a map do not support adding elements, so only the removals need to be counted
+        private class CountingSet<E> extends CountingCollection<E> implements Set<E> {
+
+            private CountingSet(Set<E> delegate) {
+                super(delegate);
+            }
+
+            @Override
+            public boolean equals(Object object) {
+                return object == this || delegate().equals(object);
+            }
+
+            @Override
+            public int hashCode() {
+                return delegate().hashCode();
+            }
+        }
+
+        private class CountingIterator<E> extends ForwardingIterator<E> {
+
+            private final Iterator<E> delegate;
+
+            private CountingIterator(Iterator<E> delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            protected Iterator<E> delegate() {
+                return delegate;
+            }
+
+            @Override
+            public void remove() {
+                delegate.remove();
+                modCount++;
+            }
+        }
+    }
 }
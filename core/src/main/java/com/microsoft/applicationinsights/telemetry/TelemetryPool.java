@@ -0,0 +1,139 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A bounded pool of telemetry items which are reused once they have been sent, for telemetry which is created at a
+ * high rate by the agent itself.
+ *
+ * The lifecycle of a pooled item is:
+ * <ol>
+ * <li>{@link #acquire()} returns an item in the same state as a new item on which
+ * {@link BaseTelemetry#useSingleOwnerMaps()} has been called</li>
+ * <li>the caller fills in the item and tracks it, after which the caller must not touch the item anymore</li>
+ * <li>the item is then read by two parties which finish in any order: the channel, which may still read the item
+ * after it has been buffered (e.g. to log it in developer mode), and the serializer, which runs on a sender thread.
+ * Each of them calls {@link #release(Telemetry)} once it is done with the item</li>
+ * <li>once both of them have released the item, and it has been marked as used, it is reset and returned to the
+ * pool</li>
+ * </ol>
+ *
+ * Only items which were acquired from a pool are ever reset, telemetry which is created any other way, in particular
+ * by user code, is never affected. Items which are dropped before they are serialized, or which are sent through a
+ * channel that does not release them, are simply garbage collected.
+ *
+ * The items are acquired by the exporting thread and released by the thread which sends the telemetry, so the pool
+ * is shared between threads instead of being per thread, the queue hands the reset items over safely.
+ */
+public abstract class TelemetryPool<T extends BaseTelemetry<?>> {
+
+    // the channel and the serializer
+    private static final int HOLDERS = 2;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<BaseTelemetry> poolHoldsUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(BaseTelemetry.class, "poolHolds");
+
+    private final BlockingQueue<T> free;
+
+    private TelemetryPool(int capacity) {
+        free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public static TelemetryPool<RequestTelemetry> forRequests(int capacity) {
+        return new TelemetryPool<RequestTelemetry>(capacity) {
+            @Override
+            RequestTelemetry create() {
+                return new RequestTelemetry();
+            }
+        };
+    }
+
+    public static TelemetryPool<RemoteDependencyTelemetry> forRemoteDependencies(int capacity) {
+        return new TelemetryPool<RemoteDependencyTelemetry>(capacity) {
+            @Override
+            RemoteDependencyTelemetry create() {
+                return new RemoteDependencyTelemetry();
+            }
+        };
+    }
+
+    /**
+     * Returns a reset item from the pool, or a new item if the pool is empty.
+     */
+    public T acquire() {
+        T telemetry = free.poll();
+        if (telemetry == null) {
+            telemetry = create();
+            telemetry.useSingleOwnerMaps();
+            telemetry.setPool(this);
+        }
+        telemetry.poolHolds = HOLDERS;
+        return telemetry;
+    }
+
+    /**
+     * Signals that the caller does not read the telemetry item anymore. Once both the channel and the serializer have
+     * released it, the item is reset and returned to the pool it was acquired from. This does nothing if the item was
+     * not acquired from a pool, or if it has already been released by both of them.
+     */
+    @SuppressWarnings("unchecked")
+    public static void release(Telemetry telemetry) {
+        if (!(telemetry instanceof BaseTelemetry)) {
+            return;
+        }
+        BaseTelemetry<?> baseTelemetry = (BaseTelemetry<?>) telemetry;
+        TelemetryPool<?> pool = baseTelemetry.getPool();
+        if (pool == null) {
+            return;
+        }
+        int holds;
+        do {
+            holds = baseTelemetry.poolHolds;
+            if (holds == 0) {
+                return;
+            }
+        } while (!poolHoldsUpdater.compareAndSet(baseTelemetry, holds, holds - 1));
+        // an item which has not been serialized was dropped by the channel, and is left to the garbage collector
+        if (holds == 1 && baseTelemetry.previouslyUsed()) {
+            ((TelemetryPool<BaseTelemetry<?>>) pool).recycle(baseTelemetry);
+        }
+    }
+
+    // number of items which are ready to be acquired
+    int getFreeCount() {
+        return free.size();
+    }
+
+    abstract T create();
+
+    private void recycle(T telemetry) {
+        telemetry.resetForReuse();
+        // the item is left to the garbage collector if the pool is full
+        free.offer(telemetry);
+    }
+}
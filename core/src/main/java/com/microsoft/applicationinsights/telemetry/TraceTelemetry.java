@@ -24,6 +24,8 @@ package com.microsoft.applicationinsights.telemetry;
 import com.microsoft.applicationinsights.internal.schemav2.MessageData;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Telemetry type used for log messages.
  */
@@ -96,6 +98,12 @@ public final class TraceTelemetry extends BaseSampleSourceTelemetry<MessageData>
         data.setMessage(Sanitizer.sanitizeMessage(data.getMessage()));
     }
 
+    @Override
+    protected boolean replaceDataMaps(ConcurrentMap<String, String> properties) {
+        data.setProperties(properties);
+        return true;
+    }
+
     @Override
     protected MessageData getData() {
         return data;
@@ -22,6 +22,9 @@
 package com.microsoft.applicationinsights;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -198,6 +201,56 @@ public final class TelemetryClientTests {
         Mockito.verify(mockTelemetry, Mockito.times(1)).setTimestamp(any(Date.class));
     }
 
+    @Test
+    public void testTrackAllSendsBatchOnce() {
+        TelemetryChannel mockChannel = Mockito.mock(TelemetryChannel.class);
+        configuration.setChannel(mockChannel);
+
+        List<Telemetry> telemetries = new ArrayList<Telemetry>();
+        telemetries.add(new EventTelemetry("Event1"));
+        telemetries.add(new EventTelemetry("Event2"));
+
+        TelemetryClient telemetryClient = new TelemetryClient(configuration);
+
+        telemetryClient.trackAll(telemetries);
+
+        Mockito.verify(mockChannel, Mockito.times(1)).send(telemetries);
+        Mockito.verify(mockChannel, Mockito.never()).send(any(Telemetry.class));
+        for (Telemetry telemetry : telemetries) {
+            assertEquals("00000000-0000-0000-0000-000000000000", telemetry.getContext().getInstrumentationKey());
+            assertNotNull(telemetry.getTimestamp());
+        }
+    }
+
+    @Test
+    public void testTrackAllWithDisabled() {
+        configuration.setTrackingIsDisabled(true);
+        Telemetry mockTelemetry = Mockito.mock(Telemetry.class);
+
+        client.trackAll(Collections.singletonList(mockTelemetry));
+
+        Mockito.verifyZeroInteractions(channel, mockTelemetry);
+    }
+
+    @Test
+    public void testTrackAllSkipsItemWhichCannotBeSent() {
+        Telemetry first = new EventTelemetry("Event1");
+        // its context cannot be initialized, so it has no instrumentation key
+        Telemetry bad = Mockito.mock(Telemetry.class);
+        Telemetry last = new EventTelemetry("Event2");
+
+        client.trackAll(Arrays.asList(first, bad, last));
+
+        List<Telemetry> expected = Arrays.asList(first, last);
+        Mockito.verify(channel, Mockito.times(1)).send(expected);
+        assertEquals("00000000-0000-0000-0000-000000000000", last.getContext().getInstrumentationKey());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrackAllWithNullTelemetry() {
+        client.trackAll(Collections.<Telemetry>singletonList(null));
+    }
+
     @Test
     public void testTelemetryContextsAreCalled() {
         ContextInitializer mockContextInitializer = Mockito.mock(ContextInitializer.class);
@@ -0,0 +1,174 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.channel.concrete;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class TelemetryChannelBasePoolTest {
+
+    @Test
+    public void itemIsNotRecycledBeforeDeveloperModeOutput() {
+        TelemetryPool<RequestTelemetry> pool = TelemetryPool.forRequests(10);
+        // developer mode sends every item right away, so it is serialized before send() returns
+        StubChannel channel = new StubChannel(true);
+        RequestTelemetry telemetry = newRequest(pool);
+
+        channel.send(telemetry);
+
+        assertTrue(channel.serializedInDoSend);
+        assertEquals("GET /", channel.nameAfterDoSend);
+        assertSame(telemetry, pool.acquire());
+    }
+
+    @Test
+    public void itemIsNotRecycledBeforeItIsSerialized() {
+        TelemetryPool<RequestTelemetry> pool = TelemetryPool.forRequests(10);
+        StubChannel channel = new StubChannel(false);
+        RequestTelemetry telemetry = newRequest(pool);
+
+        channel.send(telemetry);
+
+        assertFalse(channel.serializedInDoSend);
+        assertEquals("GET /", telemetry.getName());
+        assertFalse(telemetry.previouslyUsed());
+
+        channel.flush();
+
+        assertSame(telemetry, pool.acquire());
+        assertNull(telemetry.getName());
+    }
+
+    @Test
+    public void batchIsRecycledOnceSerialized() {
+        TelemetryPool<RequestTelemetry> pool = TelemetryPool.forRequests(10);
+        StubChannel channel = new StubChannel(false);
+        RequestTelemetry first = newRequest(pool);
+        RequestTelemetry second = newRequest(pool);
+
+        channel.send(Arrays.asList(first, second));
+
+        assertEquals("GET /", first.getName());
+        assertEquals("GET /", second.getName());
+
+        channel.flush();
+
+        RequestTelemetry reused = pool.acquire();
+        assertTrue(reused == first || reused == second);
+        reused = pool.acquire();
+        assertTrue(reused == first || reused == second);
+    }
+
+    @Test
+    public void itemWhichIsNotSentIsNotRecycled() {
+        TelemetryPool<RequestTelemetry> pool = TelemetryPool.forRequests(10);
+        StubChannel channel = new StubChannel(false);
+        channel.accept = false;
+        RequestTelemetry telemetry = newRequest(pool);
+
+        channel.send(telemetry);
+        channel.flush();
+
+        assertNotSame(telemetry, pool.acquire());
+        assertEquals("GET /", telemetry.getName());
+    }
+
+    private static RequestTelemetry newRequest(TelemetryPool<RequestTelemetry> pool) {
+        RequestTelemetry telemetry = pool.acquire();
+        telemetry.setName("GET /");
+        telemetry.getContext().setInstrumentationKey("ikey");
+        return telemetry;
+    }
+
+    // serializes on the sending thread, the same way the transmitter does on its sender threads
+    private static class SerializingTransmitter implements TelemetriesTransmitter<Telemetry> {
+
+        private final GzipTelemetrySerializer serializer = new GzipTelemetrySerializer();
+
+        private int serializedCount;
+
+        @Override
+        public boolean scheduleSend(TelemetriesFetcher<Telemetry> telemetriesFetcher, long value, TimeUnit timeUnit) {
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Collection<Telemetry> telemetries) {
+            assertTrue(serializer.serialize(telemetries).isPresent());
+            serializedCount += telemetries.size();
+            return true;
+        }
+
+        @Override
+        public void shutdown(long timeout, TimeUnit timeUnit) {
+        }
+    }
+
+    private static class StubChannel extends TelemetryChannelBase<Telemetry> {
+
+        private boolean accept = true;
+
+        private boolean serializedInDoSend;
+        private String nameAfterDoSend;
+
+        StubChannel(boolean developerMode) {
+            super((TelemetryConfiguration) null, null, developerMode, 100, 5, false, 0);
+        }
+
+        @Override
+        protected boolean doSend(Telemetry telemetry) {
+            if (!accept) {
+                return false;
+            }
+            SerializingTransmitter transmitter = (SerializingTransmitter) telemetriesTransmitter;
+            int serializedCount = transmitter.serializedCount;
+            telemetryBuffer.add(telemetry);
+            serializedInDoSend = transmitter.serializedCount > serializedCount;
+            nameAfterDoSend = ((RequestTelemetry) telemetry).getName();
+            return true;
+        }
+
+        @Override
+        protected TransmitterFactory<Telemetry> createTransmitterFactory() {
+            return new TransmitterFactory<Telemetry>() {
+                @Override
+                public TelemetriesTransmitter<Telemetry> create(String endpoint, String maxTransmissionStorageCapacity,
+                                                                boolean throttlingIsEnabled, int maxInstantRetries) {
+                    return new SerializingTransmitter();
+                }
+            };
+        }
+    }
+}
@@ -272,6 +272,29 @@ public final class TelemetryBufferTest {
         Mockito.verify(mockSender, Mockito.times(1)).sendNow(anyCollectionOf(String.class));
     }
 
+    // Ignore warning from mock
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAddAllSendsEachFullBuffer() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).sendNow(anyCollection());
+        Mockito.doReturn(true).when(mockSender).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+
+        LimitsEnforcer maxEnforcer = createEnforcerWithCurrentValue(2);
+        LimitsEnforcer sendEnforcer = createDefaultSenderTimeoutEnforcer();
+
+        TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
+
+        List<String> telemetries = new ArrayList<String>();
+        for (int i = 0; i < 5; ++i) {
+            telemetries.add("mockTelemetry" + i);
+        }
+        testedBuffer.addAll(telemetries);
+
+        Mockito.verify(mockSender, Mockito.times(3)).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) any(), anyLong(), (TimeUnit) anyObject());
+        Mockito.verify(mockSender, Mockito.times(2)).sendNow(anyCollectionOf(String.class));
+    }
+
 
     @Test
     public void testSendReturnsFalseOnScheduleSend() throws Exception {
@@ -0,0 +1,91 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.exceptions;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExceptionAggregatorTest {
+
+    @Test
+    public void testOccurrencesBeyondTheMaximumAreSuppressed() {
+        ExceptionAggregator aggregator = new ExceptionAggregator(2, 100, 5);
+
+        // from the same throw site
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i < 2, aggregator.shouldTrack(createException("connection refused: " + i)));
+        }
+        // a different throw site
+        assertTrue(aggregator.shouldTrack(new IllegalStateException("connection refused")));
+
+        List<ExceptionTelemetry> summaries = aggregator.drain();
+        assertEquals(1, summaries.size());
+        ExceptionTelemetry summary = summaries.get(0);
+        assertEquals("5", summary.getProperties().get(ExceptionAggregator.SUPPRESSED_COUNT_PROPERTY));
+        assertEquals(IllegalStateException.class.getName(), summary.getExceptions().get(0).getTypeName());
+        assertEquals("connection refused: 0", summary.getExceptions().get(0).getMessage());
+
+        // a new window
+        assertTrue(aggregator.shouldTrack(createException("connection refused")));
+        assertTrue(aggregator.drain().isEmpty());
+    }
+
+    @Test
+    public void testStringAndThrowableFingerprintsMatch() {
+        ExceptionAggregator aggregator = new ExceptionAggregator(1, 100, 3);
+
+        Exception exception = createException("timeout");
+        assertTrue(aggregator.shouldTrack(exception));
+        assertFalse(aggregator.shouldTrack(toString(exception)));
+        assertFalse(aggregator.shouldTrack(toString(exception).replace("\n", "\r\n")));
+
+        assertEquals("2", aggregator.drain().get(0).getProperties().get(ExceptionAggregator.SUPPRESSED_COUNT_PROPERTY));
+    }
+
+    @Test
+    public void testFingerprintsBeyondTheMaximumAreAlwaysTracked() {
+        ExceptionAggregator aggregator = new ExceptionAggregator(0, 1, 5);
+
+        assertFalse(aggregator.shouldTrack(createException("first")));
+        assertTrue(aggregator.shouldTrack(new IllegalArgumentException("second")));
+        assertTrue(aggregator.shouldTrack(new IllegalArgumentException("second")));
+    }
+
+    private static Exception createException(String message) {
+        return new IllegalStateException(message);
+    }
+
+    private static String toString(Throwable t) {
+        StringWriter out = new StringWriter();
+        t.printStackTrace(new PrintWriter(out));
+        return out.toString();
+    }
+}
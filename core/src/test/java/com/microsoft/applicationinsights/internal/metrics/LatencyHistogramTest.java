@@ -0,0 +1,101 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testQuantilesAreWithinRelativeAccuracy() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i, 1);
+        }
+
+        double[] quantiles = histogram.getQuantiles(0.5, 0.95, 0.99);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, quantiles[0], 500 * LatencyHistogram.RELATIVE_ACCURACY);
+        assertEquals(950, quantiles[1], 950 * LatencyHistogram.RELATIVE_ACCURACY);
+        assertEquals(990, quantiles[2], 990 * LatencyHistogram.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void testWeightedRecording() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10, 90);
+        histogram.record(1000, 10);
+
+        double[] quantiles = histogram.getQuantiles(0.5, 0.95);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(10, quantiles[0], 10 * LatencyHistogram.RELATIVE_ACCURACY);
+        assertEquals(1000, quantiles[1], 1000 * LatencyHistogram.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void testMergedHistogramMatchesSingleHistogram() {
+        Random random = new Random(42);
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 0; i < 10000; i++) {
+            double millis = Math.exp(random.nextGaussian() * 2);
+            all.record(millis, 1);
+            (i % 2 == 0 ? first : second).record(millis, 1);
+        }
+
+        first.merge(second);
+
+        assertEquals(all.getCount(), first.getCount());
+        double[] expected = all.getQuantiles(0.5, 0.95, 0.99);
+        double[] actual = first.getQuantiles(0.5, 0.95, 0.99);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0);
+        }
+    }
+
+    @Test
+    public void testOutOfRangeDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0, 1);
+        histogram.record(-5, 1);
+        histogram.record(Double.MAX_VALUE, 1);
+
+        double[] quantiles = histogram.getQuantiles(0, 1);
+
+        assertEquals(0.001, quantiles[0], 0);
+        assertEquals(3600 * 1000, quantiles[1], 3600 * 1000 * LatencyHistogram.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        assertNull(new LatencyHistogram().getQuantiles(0.5));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyPercentilesTest {
+
+    @Test
+    public void testPercentilesArePublishedPerOperation() {
+        LatencyPercentiles percentiles = new LatencyPercentiles(10);
+        for (int i = 1; i <= 100; i++) {
+            percentiles.recordRequest("GET /users", i, 1);
+        }
+        percentiles.recordRequest("GET /orders", 5, 1);
+
+        List<MetricTelemetry> metrics = percentiles.drain();
+
+        assertEquals(8, metrics.size());
+        MetricTelemetry p95 = find(metrics, "Server response time p95", "GET /users");
+        assertEquals(95, p95.getValue(), 95 * LatencyHistogram.RELATIVE_ACCURACY);
+        // a count would turn the percentile into an aggregate, the count is sent as its own metric
+        assertNull(p95.getCount());
+        assertEquals(100, find(metrics, "Server response time sample count", "GET /users").getValue(), 0);
+        MetricTelemetry p50 = find(metrics, "Server response time p50", "GET /orders");
+        assertEquals(5, p50.getValue(), 5 * LatencyHistogram.RELATIVE_ACCURACY);
+
+        assertTrue(percentiles.drain().isEmpty());
+    }
+
+    @Test
+    public void testSampledItemsAreWeighted() {
+        LatencyPercentiles percentiles = new LatencyPercentiles(10);
+        RequestTelemetry request = new RequestTelemetry();
+        request.setName("GET /users");
+        request.setDuration(new Duration(20));
+        request.setSamplingPercentage(25.0);
+
+        percentiles.record(request);
+
+        MetricTelemetry count = find(percentiles.drain(), "Server response time sample count", "GET /users");
+        assertEquals(4, count.getValue(), 0);
+    }
+
+    @Test
+    public void testItemsAlreadyProcessedByMetricExtractorsAreIgnored() {
+        LatencyPercentiles percentiles = new LatencyPercentiles(10);
+        RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("SELECT");
+        dependency.setType("SQL");
+        dependency.setDuration(new Duration(20));
+        dependency.getProperties().put("_MS.ProcessedByMetricExtractors", "(Name:'Dependencies', Ver:'1.1')");
+
+        percentiles.record(dependency);
+
+        assertTrue(percentiles.drain().isEmpty());
+    }
+
+    @Test
+    public void testSeriesBeyondTheMaximumAreRecordedIntoOverflowSeries() {
+        LatencyPercentiles percentiles = new LatencyPercentiles(1);
+        percentiles.recordRequest("GET /users", 10, 1);
+        percentiles.recordRequest("GET /orders", 10, 1);
+        percentiles.recordRequest("GET /items", 10, 1);
+
+        List<MetricTelemetry> metrics = percentiles.drain();
+
+        assertEquals(8, metrics.size());
+        assertEquals(2, find(metrics, "Server response time sample count", "Other").getValue(), 0);
+    }
+
+    @Test
+    public void testNoDurationIsLostWhileDraining() throws InterruptedException {
+        final LatencyPercentiles percentiles = new LatencyPercentiles(10);
+        final int threadCount = 4;
+        final int durationsPerThread = 100000;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < durationsPerThread; j++) {
+                        percentiles.recordRequest("GET /users", 10, 1);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long total = 0;
+        while (done.getCount() > 0) {
+            total += sumOfSampleCounts(percentiles.drain());
+        }
+        total += sumOfSampleCounts(percentiles.drain());
+
+        assertEquals((long) threadCount * durationsPerThread, total);
+    }
+
+    private static long sumOfSampleCounts(List<MetricTelemetry> metrics) {
+        long total = 0;
+        for (MetricTelemetry metric : metrics) {
+            if (metric.getName().endsWith(" sample count")) {
+                total += (long) metric.getValue();
+            }
+        }
+        return total;
+    }
+
+    private static MetricTelemetry find(List<MetricTelemetry> metrics, String name, String operationName) {
+        for (MetricTelemetry metric : metrics) {
+            if (metric.getName().equals(name)
+                    && operationName.equals(metric.getProperties().get(LatencyPercentiles.OPERATION_NAME))) {
+                return metric;
+            }
+        }
+        assertNotNull("no metric " + name + " for " + operationName, null);
+        return null;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricAggregatorTest {
+
+    @Test
+    public void testMeasurementsAreAggregatedPerSeries() {
+        MetricAggregator aggregator = new MetricAggregator(10);
+
+        aggregator.record("latency", null, 1);
+        aggregator.record("latency", null, 2);
+        aggregator.record("latency", null, 3);
+        aggregator.record("latency", Collections.singletonMap("route", "/users"), 10);
+
+        List<MetricTelemetry> metrics = aggregator.drain();
+        assertEquals(2, metrics.size());
+
+        MetricTelemetry metric = find(metrics, Collections.<String, String>emptyMap());
+        assertEquals("latency", metric.getName());
+        assertEquals(6, metric.getValue(), 0);
+        assertEquals(Integer.valueOf(3), metric.getCount());
+        assertEquals(1, metric.getMin(), 0);
+        assertEquals(3, metric.getMax(), 0);
+        assertEquals(Math.sqrt(2.0 / 3), metric.getStandardDeviation(), 0.000001);
+
+        MetricTelemetry usersMetric = find(metrics, Collections.singletonMap("route", "/users"));
+        assertEquals(Integer.valueOf(1), usersMetric.getCount());
+        assertEquals(0, usersMetric.getStandardDeviation(), 0);
+
+        // the next interval starts empty
+        assertTrue(aggregator.drain().isEmpty());
+    }
+
+    @Test
+    public void testSeriesBeyondCapGoToOverflow() {
+        MetricAggregator aggregator = new MetricAggregator(2);
+
+        for (int i = 0; i < 5; i++) {
+            aggregator.record("requests", Collections.singletonMap("id", Integer.toString(i)), 1);
+        }
+
+        List<MetricTelemetry> metrics = aggregator.drain();
+        assertEquals(3, metrics.size());
+        Map<String, String> overflow = new HashMap<>();
+        overflow.put(MetricAggregator.OVERFLOW_PROPERTY, "True");
+        assertEquals(Integer.valueOf(3), find(metrics, overflow).getCount());
+    }
+
+    @Test
+    public void testNoMeasurementIsLostWhileDraining() throws InterruptedException {
+        final MetricAggregator aggregator = new MetricAggregator(10);
+        final int threadCount = 4;
+        final int measurementsPerThread = 100000;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < measurementsPerThread; j++) {
+                        aggregator.record("requests", null, 1);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long total = 0;
+        while (done.getCount() > 0) {
+            total += sumOfCounts(aggregator.drain());
+        }
+        total += sumOfCounts(aggregator.drain());
+
+        assertEquals((long) threadCount * measurementsPerThread, total);
+    }
+
+    @Test(timeout = 30000)
+    public void testDrainCompletesWhileMeasurementsKeepBeingRecorded() throws InterruptedException {
+        final MetricAggregator aggregator = new MetricAggregator(10);
+        final AtomicBoolean stop = new AtomicBoolean();
+        // more threads than stripes, so that the threads share stripes which are never all idle at the same time
+        int threadCount = 4 * Runtime.getRuntime().availableProcessors();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        aggregator.record("requests", null, 1);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            for (int i = 0; i < 100; i++) {
+                aggregator.drain();
+            }
+        } finally {
+            stop.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    private static long sumOfCounts(List<MetricTelemetry> metrics) {
+        long total = 0;
+        for (MetricTelemetry metric : metrics) {
+            total += metric.getCount();
+        }
+        return total;
+    }
+
+    private static MetricTelemetry find(List<MetricTelemetry> metrics, Map<String, String> properties) {
+        for (MetricTelemetry metric : metrics) {
+            if (metric.getProperties().equals(properties)) {
+                return metric;
+            }
+        }
+        throw new AssertionError("no metric with properties " + properties);
+    }
+}
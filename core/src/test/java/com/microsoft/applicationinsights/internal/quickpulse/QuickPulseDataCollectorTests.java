@@ -1,7 +1,5 @@
 package com.microsoft.applicationinsights.internal.quickpulse;
 
-import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.CountAndDuration;
-import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.Counters;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.FinalCounters;
 import com.microsoft.applicationinsights.telemetry.Duration;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
@@ -9,7 +7,10 @@ import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import org.junit.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -144,13 +145,50 @@ public class QuickPulseDataCollectorTests {
     }
 
     @Test
-    public void encodeDecodeIsIdentity() {
-        final long count = 456L;
-        final long duration = 112233L;
-        final long encoded = Counters.encodeCountAndDuration(count, duration);
-        final CountAndDuration inputs = Counters.decodeCountAndDuration(encoded);
-        assertEquals(count, inputs.count);
-        assertEquals(duration, inputs.duration);
+    public void largeCountsAndDurationsAreNotLost() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        // beyond what used to fit in the count and duration bits of a single packed long
+        final long duration = 1L << 45;
+        final int count = (1 << 19) + 10;
+        List<RequestTelemetry> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), i == 0 ? duration : 1L, "200", true);
+            rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+            requests.add(rt);
+        }
+        QuickPulseDataCollector.INSTANCE.addAll(requests);
+        QuickPulseDataCollector.INSTANCE.add(requests.get(0));
+
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(count + 1, counters.requests);
+        double total = 2 * duration + count - 1;
+        assertEquals(total, counters.requestsDuration, Math.ulp(total));
+    }
+
+    @Test
+    public void otherInstrumentationKeysAreNotCounted() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), 1L, "200", true);
+        rt.getContext().setInstrumentationKey("other-instrumentation-key");
+        QuickPulseDataCollector.INSTANCE.add(rt);
+        QuickPulseDataCollector.INSTANCE.addAll(Collections.singletonList(rt));
+        RequestTelemetry noKey = new RequestTelemetry("request-test", new Date(), 1L, "200", true);
+        QuickPulseDataCollector.INSTANCE.add(noKey);
+
+        assertCountersReset(QuickPulseDataCollector.INSTANCE.peek());
+    }
+
+    @Test
+    public void nothingIsCountedWhileDisabled() {
+        RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), 1L, "200", true);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rt);
+        QuickPulseDataCollector.INSTANCE.addAll(Collections.singletonList(rt));
+
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+        assertCountersReset(QuickPulseDataCollector.INSTANCE.peek());
     }
 
     private void assertCountersReset(FinalCounters counters) {
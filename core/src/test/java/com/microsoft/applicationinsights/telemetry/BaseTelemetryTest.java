@@ -26,7 +26,11 @@ import java.util.Date;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.common.base.Charsets;
+import com.microsoft.applicationinsights.internal.schemav2.Data;
 import com.microsoft.applicationinsights.internal.schemav2.Domain;
+import com.microsoft.applicationinsights.internal.schemav2.Envelope;
+import com.microsoft.applicationinsights.internal.schemav2.RequestData;
+import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.squareup.moshi.JsonWriter;
 import okio.Buffer;
 import org.junit.*;
@@ -178,5 +182,51 @@ public final class BaseTelemetryTest {
         assertTrue(index != -1);
     }
 
+    @Test
+    public void testSerializeIsIdenticalToEnvelopeSerialization() throws IOException {
+        RequestTelemetry telemetry = new RequestTelemetry("GET /test", new Date(1600000000000L), 123, "200", true);
+        telemetry.getContext().setInstrumentationKey("00000000-1111-2222-3333-000000000000");
+        telemetry.getContext().getOperation().setId("abc");
+        telemetry.getProperties().put("key", "value");
+        telemetry.setSamplingPercentage(25.0);
+        telemetry.setSequence("seq");
+
+        Envelope envelope = new Envelope();
+        envelope.setName(BaseTelemetry.getTelemetryName(telemetry.getContext().getNormalizedInstrumentationKey(), telemetry.getEnvelopName()));
+        envelope.setSampleRate(25.0);
+        envelope.setIKey(telemetry.getContext().getInstrumentationKey());
+        envelope.setSeq("seq");
+        Data<RequestData> data = new Data<>();
+        data.setBaseData(telemetry.getData());
+        data.setBaseType(telemetry.getBaseTypeName());
+        envelope.setData(data);
+        envelope.setTime(LocalStringsUtils.getDateFormatter().format(telemetry.getTimestamp()));
+        envelope.setTags(telemetry.getContext().getTags());
+
+        assertEquals(toJson(envelope), toJson(telemetry));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testOverriddenSetSampleRateIsStillCalled() throws IOException {
+        StubTelemetry telemetry = new StubTelemetry("1") {
+            @Override
+            protected void setSampleRate(Envelope envelope) {
+                envelope.setSampleRate(envelope.getSampleRate() / 4);
+            }
+        };
+        telemetry.setTimestamp(new Date());
+
+        assertTrue(toJson(telemetry).contains("\"sampleRate\":25.0"));
+    }
 
-}
\ No newline at end of file
+    private static String toJson(JsonSerializable serializable) throws IOException {
+        Buffer buffer = new Buffer();
+        JsonWriter writer = JsonWriter.of(buffer);
+        JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+        serializable.serialize(jsonWriter);
+        jsonWriter.close();
+        writer.close();
+        return new String(buffer.readByteArray(), Charsets.UTF_8);
+    }
+}
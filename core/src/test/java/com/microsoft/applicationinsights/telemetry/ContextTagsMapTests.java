@@ -1,6 +1,8 @@
 package com.microsoft.applicationinsights.telemetry;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import com.microsoft.applicationinsights.extensibility.context.ContextTagKeys;
@@ -55,4 +57,63 @@ public class ContextTagsMapTests {
         assertEquals(customValue, map.get(customKey));
     }
 
+    @Test
+    public void knownAndUnknownKeysAreBothIterated() {
+        map.put(ContextTagKeys.getKeys().getOperationId(), "id");
+        map.put("custom", "value");
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put(ContextTagKeys.getKeys().getOperationId(), "id");
+        expected.put("custom", "value");
+
+        assertEquals(2, map.size());
+        assertEquals(expected, new HashMap<>(map));
+        assertTrue(map.equals(expected));
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    @Test
+    public void keysWhichAreEqualButNotTheSameInstanceUseTheSameSlot() {
+        String operationId = ContextTagKeys.getKeys().getOperationId();
+        map.put(new String(operationId), "id");
+
+        assertEquals("id", map.get(operationId));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void conditionalOperationsCompareValues() {
+        String roleKey = ContextTagKeys.getKeys().getCloudRole();
+
+        assertNull(map.putIfAbsent(roleKey, "role"));
+        assertEquals("role", map.putIfAbsent(roleKey, "other"));
+        assertFalse(map.replace(roleKey, "other", "new"));
+        assertTrue(map.replace(roleKey, new String("role"), "new"));
+        assertFalse(map.remove(roleKey, "role"));
+        assertTrue(map.remove(roleKey, "new"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void entrySetWritesThrough() {
+        map.put(ContextTagKeys.getKeys().getCloudRole(), "role");
+        map.put("custom", "value");
+
+        Iterator<Map.Entry<String, String>> i = map.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<String, String> entry = i.next();
+            if (entry.getKey().equals("custom")) {
+                i.remove();
+            } else {
+                entry.setValue("other role");
+            }
+        }
+
+        assertEquals(Collections.singletonMap(ContextTagKeys.getKeys().getCloudRole(), "other role"), map);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullValuesAreNotAllowed() {
+        map.put(ContextTagKeys.getKeys().getCloudRole(), null);
+    }
 }
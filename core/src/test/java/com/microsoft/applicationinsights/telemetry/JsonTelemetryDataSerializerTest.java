@@ -421,4 +421,30 @@ public class JsonTelemetryDataSerializerTest {
         assertEquals(0, bac.d1, epsilon);
         assertEquals(0, bac.d2, epsilon);
     }
+
+    @Test
+    public void testFloatingPointNaNsAndInfinityInMapWithLenientWriter() throws IOException {
+        Map<String, Double> measurements = new HashMap<>();
+        measurements.put("nan", Double.NaN);
+        measurements.put("infinity", Double.POSITIVE_INFINITY);
+        measurements.put("negativeInfinity", Double.NEGATIVE_INFINITY);
+
+        Buffer buffer = new Buffer();
+        JsonWriter writer = JsonWriter.of(buffer);
+        // the batch writer of GzipTelemetrySerializer is lenient, which does not reject these values on its own
+        writer.setLenient(true);
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(writer);
+        tested.write("measurements", measurements);
+        tested.close();
+        writer.close();
+        String str = new String(buffer.readByteArray(), Charsets.UTF_8);
+
+        assertFalse(str, str.contains("NaN"));
+        assertFalse(str, str.contains("Infinity"));
+        Map<String, Double> bac = new Gson().fromJson(str.substring(str.indexOf(':') + 1, str.length() - 1),
+                new TypeToken<Map<String, Double>>() {}.getType());
+        assertEquals(0, bac.get("nan"), 0);
+        assertEquals(0, bac.get("infinity"), 0);
+        assertEquals(0, bac.get("negativeInfinity"), 0);
+    }
 }
@@ -0,0 +1,141 @@
+package com.microsoft.applicationinsights.telemetry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.squareup.moshi.JsonWriter;
+import okio.Buffer;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class SingleOwnerMapTest {
+
+    @Test
+    public void putAndGetBeyondLinearScan() {
+        SingleOwnerMap<String> map = new SingleOwnerMap<>();
+        for (int i = 0; i < 100; i++) {
+            assertNull(map.put("key" + i, "value" + i));
+        }
+        assertEquals(100, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, map.get("key" + i));
+        }
+        assertEquals("value5", map.put("key5", "other"));
+        assertEquals("other", map.get("key5"));
+        assertEquals(100, map.size());
+        assertNull(map.get("key100"));
+        assertFalse(map.containsKey("key100"));
+    }
+
+    @Test
+    public void removeKeepsInsertionOrder() {
+        SingleOwnerMap<String> map = new SingleOwnerMap<>();
+        for (int i = 0; i < 12; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        assertEquals("value3", map.remove("key3"));
+        assertEquals("value10", map.remove("key10"));
+        assertNull(map.remove("key3"));
+
+        List<String> keys = new ArrayList<>(map.keySet());
+        assertEquals(Arrays.asList("key0", "key1", "key2", "key4", "key5", "key6", "key7", "key8", "key9", "key11"),
+                keys);
+        for (String key : keys) {
+            assertEquals("value" + key.substring(3), map.get(key));
+        }
+    }
+
+    @Test
+    public void iteratorRemoveAndSetValue() {
+        SingleOwnerMap<String> map = new SingleOwnerMap<>();
+        for (int i = 0; i < 10; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        Iterator<Map.Entry<String, String>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, String> entry = it.next();
+            if (entry.getKey().equals("key2")) {
+                it.remove();
+            } else if (entry.getKey().equals("key7")) {
+                entry.setValue("seven");
+            }
+        }
+        assertEquals(9, map.size());
+        assertFalse(map.containsKey("key2"));
+        assertEquals("seven", map.get("key7"));
+        assertEquals("value9", map.get("key9"));
+    }
+
+    @Test
+    public void conditionalOperations() {
+        SingleOwnerMap<String> map = new SingleOwnerMap<>();
+        assertNull(map.putIfAbsent("a", "1"));
+        assertEquals("1", map.putIfAbsent("a", "2"));
+        assertFalse(map.replace("a", "2", "3"));
+        assertTrue(map.replace("a", "1", "3"));
+        assertEquals("3", map.replace("a", "4"));
+        assertNull(map.replace("b", "4"));
+        assertFalse(map.remove("a", "3"));
+        assertTrue(map.remove("a", "4"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void equalsOtherMaps() {
+        SingleOwnerMap<String> map = new SingleOwnerMap<>();
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            map.put("key" + i, "value" + i);
+            expected.put("key" + i, "value" + i);
+        }
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullValueIsRejected() {
+        new SingleOwnerMap<String>().put("a", null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullKeyIsRejected() {
+        new SingleOwnerMap<String>().put(null, "a");
+    }
+
+    @Test
+    public void telemetryUsesSingleOwnerMaps() throws IOException {
+        EventTelemetry telemetry = new EventTelemetry("test");
+        telemetry.useSingleOwnerMaps();
+        telemetry.getProperties().put("key", "value");
+        telemetry.getMetrics().put("metric", 1.0);
+
+        assertTrue(telemetry.getProperties() instanceof SingleOwnerMap);
+        assertTrue(telemetry.getMetrics() instanceof SingleOwnerMap);
+        assertSame(telemetry.getContext().getProperties(), telemetry.getProperties());
+
+        Buffer buffer = new Buffer();
+        JsonWriter writer = JsonWriter.of(buffer);
+        JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+        telemetry.serialize(jsonWriter);
+        jsonWriter.close();
+        writer.close();
+        String asJson = new String(buffer.readByteArray(), Charsets.UTF_8);
+        assertTrue(asJson.contains("\"properties\":{\"key\":\"value\"}"));
+        assertTrue(asJson.contains("\"measurements\":{\"metric\":"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void telemetryWithPropertiesCannotSwitch() {
+        EventTelemetry telemetry = new EventTelemetry("test");
+        telemetry.getProperties().put("key", "value");
+        telemetry.useSingleOwnerMaps();
+    }
+}
@@ -21,10 +21,17 @@
 
 package com.microsoft.applicationinsights.telemetry;
 
+import java.util.Iterator;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.extensibility.context.ContextTagKeys;
 import org.junit.Assert;
 import org.junit.Test;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
@@ -72,4 +79,138 @@ public final class TelemetryContextTest {
 
         Assert.assertEquals(TEST_IKEY, contextToInitialize.getInstrumentationKey());
     }
+
+    @Test
+    public void testSourceTagsAndPropertiesAreNotCopiedWhenContextInitialized() {
+        TelemetryContext context = new TelemetryContext();
+        context.setInstrumentationKey(TEST_IKEY);
+        context.getCloud().setRole("role");
+        context.getProperties().put("dimension", "value");
+
+        TraceTelemetry telemetry = new TraceTelemetry("message");
+        telemetry.getContext().initialize(context);
+
+        assertEquals("role", telemetry.getContext().getCloud().getRole());
+        assertTrue(telemetry.getContext().getContextTags().getLocalTags().isEmpty());
+        assertTrue(telemetry.getContext().getLocalProperties().isEmpty());
+
+        String json = telemetry.toString();
+        assertTrue(json.contains("\"ai.cloud.role\":\"role\""));
+        assertTrue(json.contains("\"dimension\":\"value\""));
+        assertTrue(telemetry.getContext().getLocalProperties().isEmpty());
+    }
+
+    @Test
+    public void testPropertiesIncludeSourcePropertiesWhenContextInitialized() {
+        TelemetryContext context = new TelemetryContext();
+        context.setInstrumentationKey(TEST_IKEY);
+        context.getProperties().put("dimension", "value");
+        context.getProperties().put("other dimension", "other value");
+
+        TraceTelemetry telemetry = new TraceTelemetry("message");
+        telemetry.getProperties().put("dimension", "item value");
+        telemetry.getContext().initialize(context);
+
+        assertEquals("item value", telemetry.getProperties().get("dimension"));
+        assertEquals("other value", telemetry.getProperties().get("other dimension"));
+        assertEquals(2, telemetry.getProperties().size());
+        assertNull(telemetry.getContext().getBaseProperties());
+
+        String json = telemetry.toString();
+        assertTrue(json.contains("\"dimension\":\"item value\""));
+        assertTrue(json.contains("\"other dimension\":\"other value\""));
+        assertFalse(json.contains("\"dimension\":\"value\""));
+    }
+
+    @Test
+    public void testSourceSnapshotIsRebuiltWhenSourceChangesThroughViews() {
+        TelemetryContext context = new TelemetryContext();
+        context.getProperties().put("a", "1");
+        context.getProperties().put("b", "2");
+        context.getProperties().put("c", "3");
+
+        TelemetryContext first = new TraceTelemetry().getContext();
+        first.initialize(context);
+        assertEquals(3, first.getBaseProperties().size());
+
+        context.getProperties().keySet().remove("a");
+        TelemetryContext second = new TraceTelemetry().getContext();
+        second.initialize(context);
+        assertFalse(second.getBaseProperties().containsKey("a"));
+
+        Iterator<Map.Entry<String, String>> it = context.getProperties().entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, String> entry = it.next();
+            if (entry.getKey().equals("b")) {
+                entry.setValue("changed");
+            }
+        }
+        TelemetryContext third = new TraceTelemetry().getContext();
+        third.initialize(context);
+        assertEquals("changed", third.getBaseProperties().get("b"));
+
+        context.getProperties().values().remove("3");
+        TelemetryContext fourth = new TraceTelemetry().getContext();
+        fourth.initialize(context);
+        assertFalse(fourth.getBaseProperties().containsKey("c"));
+    }
+
+    @Test
+    public void testItemValuesOverrideSourceValues() {
+        TelemetryContext context = new TelemetryContext();
+        context.setInstrumentationKey(TEST_IKEY);
+        context.getCloud().setRole("role");
+        context.getProperties().put("dimension", "value");
+
+        TraceTelemetry telemetry = new TraceTelemetry("message");
+        telemetry.getContext().getCloud().setRole("other role");
+        telemetry.getProperties().put("dimension", "other value");
+        telemetry.getContext().initialize(context);
+
+        assertEquals("other role", telemetry.getContext().getCloud().getRole());
+
+        String json = telemetry.toString();
+        assertTrue(json.contains("\"ai.cloud.role\":\"other role\""));
+        assertTrue(json.contains("\"dimension\":\"other value\""));
+        assertFalse(json.contains("\"dimension\":\"value\""));
+    }
+
+    @Test
+    public void testSourceSnapshotIsRebuiltOnlyWhenSourceChanges() {
+        TelemetryContext context = new TelemetryContext();
+        context.getCloud().setRole("role");
+        context.getProperties().put("dimension", "value");
+
+        TelemetryContext first = new TraceTelemetry().getContext();
+        first.initialize(context);
+        TelemetryContext second = new TraceTelemetry().getContext();
+        second.initialize(context);
+
+        assertSame(first.getBaseProperties(), second.getBaseProperties());
+        assertSame(first.getContextTags().getBaseTags(), second.getContextTags().getBaseTags());
+
+        context.getProperties().put("other dimension", "other value");
+        context.getCloud().setRoleInstance("instance");
+
+        TelemetryContext third = new TraceTelemetry().getContext();
+        third.initialize(context);
+
+        assertNotSame(first.getBaseProperties(), third.getBaseProperties());
+        assertEquals("other value", third.getBaseProperties().get("other dimension"));
+        assertEquals("instance", third.getCloud().getRoleInstance());
+        assertNull(first.getCloud().getRoleInstance());
+    }
+
+    @Test
+    public void testIteratingTagsIncludesSourceTags() {
+        TelemetryContext context = new TelemetryContext();
+        context.getCloud().setRole("role");
+
+        TelemetryContext itemContext = new TraceTelemetry().getContext();
+        itemContext.getOperation().setId("id");
+        itemContext.initialize(context);
+
+        assertEquals(2, itemContext.getTags().size());
+        assertEquals("role", itemContext.getTags().get(ContextTagKeys.getKeys().getCloudRole()));
+    }
 }
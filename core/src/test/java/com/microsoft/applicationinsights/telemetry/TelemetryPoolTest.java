@@ -0,0 +1,154 @@
+package com.microsoft.applicationinsights.telemetry;
+
+import java.util.Date;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class TelemetryPoolTest {
+
+    @Test
+    public void recycledRequestIsReset() {
+        TelemetryPool<RequestTelemetry> pool = TelemetryPool.forRequests(10);
+        RequestTelemetry telemetry = pool.acquire();
+        telemetry.setName("GET /");
+        telemetry.setUrl("http://localhost/");
+        telemetry.setResponseCode("500");
+        telemetry.setSuccess(false);
+        telemetry.setSource("source");
+        telemetry.setDuration(new Duration(123));
+        telemetry.setSamplingPercentage(50.0);
+        telemetry.setTimestamp(new Date(0));
+        telemetry.getProperties().put("key", "value");
+        telemetry.getMetrics().put("metric", 1.0);
+        telemetry.getContext().getOperation().setId("operation");
+        telemetry.getContext().setInstrumentationKey("ikey");
+        telemetry.markUsed();
+
+        // released by the serializer and by the channel
+        TelemetryPool.release(telemetry);
+        assertEquals(0, pool.getFreeCount());
+        TelemetryPool.release(telemetry);
+        assertEquals(1, pool.getFreeCount());
+
+        RequestTelemetry reused = pool.acquire();
+        assertSame(telemetry, reused);
+        assertEquals(0, pool.getFreeCount());
+        assertFalse(reused.previouslyUsed());
+        assertNull(reused.getName());
+        assertNull(reused.getUrlString());
+        assertEquals("200", reused.getResponseCode());
+        assertTrue(reused.isSuccess());
+        assertNull(reused.getSource());
+        assertEquals(0, reused.getDuration().getTotalMilliseconds());
+        assertNull(reused.getSamplingPercentage());
+        assertTrue(reused.getTimestamp().getTime() > 0);
+        assertTrue(reused.getProperties().isEmpty());
+        assertTrue(reused.getMetrics().isEmpty());
+        assertTrue(reused.getContext().getTags().isEmpty());
+        assertNull(reused.getContext().getInstrumentationKey());
+    }
+
+    @Test
+    public void recycledDependencyIsReset() {
+        TelemetryPool<RemoteDependencyTelemetry> pool = TelemetryPool.forRemoteDependencies(10);
+        RemoteDependencyTelemetry telemetry = pool.acquire();
+        telemetry.setName("SELECT");
+        telemetry.setId("id");
+        telemetry.setType("SQL");
+        telemetry.setTarget("db");
+        telemetry.setResultCode("1");
+        telemetry.setCommandName("SELECT 1");
+        telemetry.setSuccess(false);
+        telemetry.getProperties().put("key", "value");
+        telemetry.markUsed();
+
+        TelemetryPool.release(telemetry);
+        TelemetryPool.release(telemetry);
+
+        RemoteDependencyTelemetry reused = pool.acquire();
+        assertSame(telemetry, reused);
+        assertNull(reused.getName());
+        assertNull(reused.getId());
+        assertNull(reused.getType());
+        assertNull(reused.getTarget());
+        assertNull(reused.getResultCode());
+        assertNull(reused.getCommandName());
+        assertTrue(reused.getSuccess());
+        assertTrue(reused.getProperties().isEmpty());
+    }
+
+    @Test
+    public void itemsWhichAreNotUsedAreNotRecycled() {
+        TelemetryPool<RequestTelemetry> pool = TelemetryPool.forRequests(10);
+        RequestTelemetry telemetry = pool.acquire();
+        telemetry.setName("GET /");
+
+        TelemetryPool.release(telemetry);
+        TelemetryPool.release(telemetry);
+
+        assertEquals(0, pool.getFreeCount());
+        assertEquals("GET /", telemetry.getName());
+    }
+
+    @Test
+    public void itemsWhichAreNotPooledAreNotRecycled() {
+        RequestTelemetry telemetry = new RequestTelemetry();
+        telemetry.setName("GET /");
+        telemetry.markUsed();
+
+        TelemetryPool.release(telemetry);
+
+        assertEquals("GET /", telemetry.getName());
+        assertTrue(telemetry.previouslyUsed());
+    }
+
+    @Test
+    public void itemIsOnlyRecycledOnce() {
+        TelemetryPool<RequestTelemetry> pool = TelemetryPool.forRequests(10);
+        RequestTelemetry telemetry = pool.acquire();
+        telemetry.markUsed();
+
+        TelemetryPool.release(telemetry);
+        TelemetryPool.release(telemetry);
+        TelemetryPool.release(telemetry);
+
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void itemIsRecycledOnceReleasedByBothHolders() {
+        TelemetryPool<RequestTelemetry> pool = TelemetryPool.forRequests(10);
+        RequestTelemetry telemetry = pool.acquire();
+        telemetry.setName("GET /");
+
+        // the channel may finish before the serializer has marked the item as used
+        TelemetryPool.release(telemetry);
+        telemetry.markUsed();
+        assertEquals(0, pool.getFreeCount());
+        assertEquals("GET /", telemetry.getName());
+
+        TelemetryPool.release(telemetry);
+        assertEquals(1, pool.getFreeCount());
+        assertNull(telemetry.getName());
+    }
+
+    @Test
+    public void fullPoolDropsItems() {
+        TelemetryPool<RequestTelemetry> pool = TelemetryPool.forRequests(1);
+        RequestTelemetry first = pool.acquire();
+        RequestTelemetry second = pool.acquire();
+        first.markUsed();
+        second.markUsed();
+
+        TelemetryPool.release(first);
+        TelemetryPool.release(first);
+        TelemetryPool.release(second);
+        TelemetryPool.release(second);
+
+        assertEquals(1, pool.getFreeCount());
+        assertSame(first, pool.acquire());
+        assertNotSame(second, pool.acquire());
+    }
+}